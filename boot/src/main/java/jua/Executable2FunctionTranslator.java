@@ -1,22 +1,68 @@
 package jua;
 
 import jua.compiler.Code;
-import jua.compiler.InstructionUtils;
 import jua.compiler.LineNumberTable;
 import jua.compiler.Module;
 import jua.runtime.Function;
+import jua.runtime.Types;
 import jua.runtime.code.CodeData;
-import jua.runtime.code.ConstantPool;
+import jua.runtime.code.NewConstantPool;
 import jua.runtime.code.ResolvableCallee;
+import jua.runtime.heap.StringHeap;
 import jua.runtime.interpreter.instruction.Instruction;
 import jua.runtime.interpreter.Address;
 import jua.runtime.interpreter.AddressSupport;
+import jua.runtime.interpreter.CodeVerifier;
+import jua.runtime.interpreter.DenseCodeAnalysis;
+import jua.runtime.memory.ArrayMemory;
 
 import java.util.Arrays;
 
 public class Executable2FunctionTranslator {
 
     public static Function translate(Module.Executable executable) {
+        return translate(executable, false, false, false);
+    }
+
+    /**
+     * @param genDenseCode          Генерировать ли плотный код для интерпретатора на switch.
+     * @param fuseSuperinstructions Заменять ли частые последовательности инструкций суперинструкциями.
+     * @param quicken               Создавать ли инструкции, которые специализируются под типы операндов.
+     */
+    public static Function translate(Module.Executable executable, boolean genDenseCode,
+                                     boolean fuseSuperinstructions, boolean quicken) {
+        // Плотный код строится всегда: по нему проверяется и код объектов инструкций,
+        // потому что он кодирует те же инструкции с теми же операндами и переходами
+        OPCodeTranslator t = new OPCodeTranslator(true, quicken);
+        Arrays.stream(executable.code).forEach(i -> i.accept(t));
+        if (fuseSuperinstructions) {
+            t.fuseSuperinstructions(executable.code);
+        }
+        NewConstantPool constantPool = getConstantPool(executable.constantPool);
+        int[] denseCode = t.getDenseCode();
+        DenseCodeAnalysis analysis = null;
+        try {
+            analysis = CodeVerifier.verify(denseCode, executable.stackSize, executable.regSize, constantPool);
+        } catch (CodeVerifier.VerifyException e) {
+            // Непроверенный код выполняется объектами инструкций с проверками
+            denseCode = null;
+        }
+        if (!genDenseCode) {
+            denseCode = null;
+        }
+        CodeData code = new CodeData(
+                executable.stackSize,
+                executable.regSize,
+                executable.varnames,
+                t.getInstructions().toArray(new Instruction[0]),
+                constantPool,
+                toLineNumTable(executable.lineNumberTable),
+                denseCode,
+                (denseCode != null) ? t.getDenseCodeIndexes() : null
+        );
+        if (analysis != null) {
+            code.setVerified(analysis);
+        }
         return new Function(
                 executable.name,
                 executable.fileName,
@@ -30,39 +76,41 @@ public class Executable2FunctionTranslator {
                     return a;
                 }).toArray(Address[]::new),
                 executable.flags,
-                new CodeData(
-                        executable.stackSize,
-                        executable.regSize,
-                        executable.varnames,
-                        translateCode(executable.code), // todo
-                        getConstantPool(executable.constantPool),
-                        toLineNumTable(executable.lineNumberTable)
-                ),
+                code,
                 null
         );
     }
 
-    private static ConstantPool getConstantPool(Object[] values) {
-        Object[] runtimeElements = new Object[values.length];
+    private static NewConstantPool getConstantPool(Object[] values) {
+        // Константы раскладываются по типам заранее, чтобы загрузка не разбирала объекты
+        ArrayMemory memory = new ArrayMemory(values.length);
         for (int i = 0; i < values.length; i++) {
-            if (runtimeElements[i] != null)
-                continue;
-            if (values[i] instanceof Code.Callee) {
-                runtimeElements[i] = new ResolvableCallee(((Code.Callee) values[i]).utf8);
+            Object value = values[i];
+            if (value == null) {
+                memory.setNullAt(i);
+            } else if (value instanceof Code.Callee) {
+                memory.setTypeAt(i, Types.T_UNDEFINED);
+                memory.setRefAt(i, new ResolvableCallee(((Code.Callee) value).utf8));
+            } else if (value instanceof Double || value instanceof Float) {
+                memory.setTypeAt(i, Types.T_FLOAT);
+                memory.setDoubleAt(i, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                memory.setTypeAt(i, Types.T_INT);
+                memory.setLongAt(i, ((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                memory.setTypeAt(i, Types.T_BOOLEAN);
+                memory.setLongAt(i, ((Boolean) value) ? 1L : 0L);
+            } else if (value instanceof String) {
+                memory.setTypeAt(i, Types.T_STRING);
+                memory.setRefAt(i, new StringHeap((String) value));
             } else {
-                runtimeElements[i] = values[i];
+                throw new IllegalArgumentException(value.getClass().getName());
             }
         }
-        return new ConstantPool(runtimeElements);
+        return new NewConstantPool(memory, values.length);
     }
 
     private static jua.runtime.code.LineNumberTable toLineNumTable(LineNumberTable lnt) {
         return new jua.runtime.code.LineNumberTable(lnt.codePoints, lnt.lineNumbers);
     }
-
-    private static Instruction[] translateCode(InstructionUtils.InstrNode[] a) {
-        OPCodeTranslator t = new OPCodeTranslator();
-        Arrays.stream(a).forEach(i -> i.accept(t));
-        return t.getInstructions().toArray(new Instruction[0]);
-    }
 }
@@ -0,0 +1,85 @@
+package jua;
+
+import jua.runtime.Function;
+import jua.runtime.code.NewConstantPool;
+import jua.runtime.code.ResolvableCallee;
+
+import java.util.*;
+
+/**
+ * Компоновка функций модуля перед выполнением.
+ * <p>
+ * Обходит граф вызовов от {@code <main>}: каждый вызов ({@link ResolvableCallee}) в пуле констант
+ * сразу связывается с функцией, поэтому при первом вызове функцию не нужно искать по имени.
+ * Функции, которые недостижимы из {@code <main>}, отбрасываются.
+ * <p>
+ * Если достижима функция, которая вызывает другие по имени ({@link Function#callsByName()}),
+ * вызвана может быть любая функция: тогда сохраняются и связываются все.
+ * Вызовы функций, которых нет, остаются несвязанными и, как и раньше, приводят к ошибке при выполнении.
+ */
+final class Linker {
+
+    private final Map<String, Function> functions = new LinkedHashMap<>();
+
+    /** Функции, достижимые из точки входа, в порядке обхода. */
+    private final Set<Function> reachable = new LinkedHashSet<>();
+
+    private final Deque<Function> queue = new ArrayDeque<>();
+
+    private boolean callsByName = false;
+
+    private Linker(Collection<Function> functions) {
+        for (Function function : functions) {
+            this.functions.put(function.getName(), function);
+        }
+    }
+
+    /**
+     * Связывает вызовы и возвращает функции, которые нужно загрузить.
+     *
+     * @param functions Все функции модуля и нативные функции.
+     * @param entry     Точка входа.
+     */
+    static List<Function> link(Collection<Function> functions, Function entry) {
+        Linker linker = new Linker(functions);
+        linker.enqueue(entry);
+        linker.drain();
+        if (linker.callsByName) {
+            linker.functions.values().forEach(linker::enqueue);
+            linker.drain();
+        }
+        return new ArrayList<>(linker.reachable);
+    }
+
+    private void enqueue(Function function) {
+        if (reachable.add(function)) {
+            queue.add(function);
+        }
+    }
+
+    private void drain() {
+        while (!queue.isEmpty()) {
+            Function function = queue.poll();
+            if (function.callsByName()) {
+                callsByName = true;
+            }
+            if (function.isUserDefined()) {
+                bindCallees(function.userCode().getConstantPool());
+            }
+        }
+    }
+
+    private void bindCallees(NewConstantPool pool) {
+        for (int i = 0; i < pool.size(); i++) {
+            if (!pool.isCallee(i)) {
+                continue;
+            }
+            ResolvableCallee callee = pool.getCallee(i);
+            Function function = functions.get(pool.getString(callee.getUtf8()));
+            if (function != null) {
+                callee.setResolved(function);
+                enqueue(function);
+            }
+        }
+    }
+}
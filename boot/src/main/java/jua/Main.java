@@ -9,9 +9,14 @@ import jua.runtime.JuaEnvironment;
 import jua.runtime.interpreter.AddressSupport;
 import jua.runtime.interpreter.InterpreterThread;
 import jua.runtime.interpreter.Address;
+import jua.runtime.interpreter.Histogram;
+import jua.runtime.interpreter.closure.ClosureCompiler;
+import jua.runtime.jit.JitCompiler;
 import jua.stdlib.Lib;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -50,6 +55,7 @@ public class Main {
         c.setCharset(Options.charset());
         c.setFile(Options.firstFile());
         c.setGenJvmLoops(Options.genJvmLoops());
+        c.setGenRegisterCode(Options.genRegisterCode());
         c.setStderr(System.err);
         c.setStdout(System.out);
         c.setLintMode(Options.isLintEnabled());
@@ -79,8 +85,18 @@ public class Main {
     }
 
     private static void interpret() {
+        // Уровень JIT компилирует плотный код, а до этого выполняет его switch-интерпретатором.
+        // Дерево узлов тоже собирается из плотного кода.
+        boolean genDenseCode = !Options.engine().equals("objects");
+        if (Options.engine().equals("jit")) {
+            JitCompiler.enable();
+        } else if (Options.engine().equals("closure")) {
+            ClosureCompiler.enable();
+        }
+        boolean fuseSuperinstructions = Options.fuseSuperinstructions();
+        boolean quicken = Options.quicken();
         List<Function> functions = Arrays.stream(module.executables)
-                .map(Executable2FunctionTranslator::translate)
+                .map(e -> Executable2FunctionTranslator.translate(e, genDenseCode, fuseSuperinstructions, quicken))
                 .collect(Collectors.toList());
 
         Collections.addAll(functions, nativeFunctions);
@@ -89,11 +105,25 @@ public class Main {
                 .filter(f -> f.getName().equals("<main>"))
                 .findAny().orElseThrow(AssertionError::new);
 
+        // Вызовы связываются с функциями заранее, а недостижимые из <main> функции не загружаются
+        functions = Linker.link(functions, mainFn);
+
         JuaEnvironment env = JuaEnvironment.getEnvironment();
         functions.forEach(env::addFunction);
         InterpreterThread thread = new InterpreterThread(Thread.currentThread(), env);
         Address resultReceiver = new Address();
+        if (Options.sequenceProfile() != null) {
+            Histogram.enable();
+        }
         thread.callAndWait(mainFn, new Address[0], resultReceiver);
         // Если будет интересно, что вернул код, то можно напечатать resultReceiver.
+        if (Options.sequenceProfile() != null) {
+            try {
+                SuperinstructionTable.profile(Paths.get(Options.sequenceProfile()), Histogram.get());
+            } catch (IOException e) {
+                System.err.println("Unable to write " + Options.sequenceProfile() + ": " + e);
+                System.exit(1);
+            }
+        }
     }
 }
@@ -1,28 +1,110 @@
 package jua;
 
 import jua.compiler.InstructionUtils.*;
+import jua.compiler.utils.IntArrayList;
+import jua.runtime.interpreter.ExecutionContext;
 import jua.runtime.interpreter.instruction.Instruction;
 import jua.runtime.interpreter.instruction.InstructionImpls.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static jua.compiler.InstructionUtils.getOpcodeName;
 
 public class OPCodeTranslator implements InstrVisitor {
     private final List<Instruction> instructions = new ArrayList<>();
 
+    /**
+     * Плотный код для интерпретатора на switch: опкод и операнды подряд в одном массиве.
+     * Равен {@code null}, если плотный код не генерируется.
+     */
+    private final IntArrayList denseCode;
+
+    /** Индекс инструкции для каждого элемента плотного кода. */
+    private final IntArrayList denseCodeIndexes;
+
+    /** Смещение в плотном коде для каждой инструкции. */
+    private final IntArrayList denseCodeStarts;
+
+    /** Позиции в плотном коде, которые содержат индекс инструкции вместо смещения. */
+    private final IntArrayList denseFixups;
+
+    /** Создавать ли ускоряемые инструкции, которые специализируются под типы операндов во время выполнения. */
+    private final boolean quicken;
+
+    public OPCodeTranslator() {
+        this(false, false);
+    }
+
+    public OPCodeTranslator(boolean genDenseCode, boolean quicken) {
+        this.quicken = quicken;
+        if (genDenseCode) {
+            denseCode = new IntArrayList();
+            denseCodeIndexes = new IntArrayList();
+            denseCodeStarts = new IntArrayList();
+            denseFixups = new IntArrayList();
+        } else {
+            denseCode = null;
+            denseCodeIndexes = null;
+            denseCodeStarts = null;
+            denseFixups = null;
+        }
+    }
+
     public List<Instruction> getInstructions() {
         return instructions;
     }
 
+    public int[] getDenseCode() {
+        if (denseCode == null) {
+            return null;
+        }
+        int[] code = denseCode.toArray();
+        for (int i = 0; i < denseFixups.size(); i++) {
+            int p = denseFixups.get(i);
+            int target = code[p];
+            code[p] = (target < denseCodeStarts.size()) ? denseCodeStarts.get(target) : code.length;
+        }
+        return code;
+    }
+
+    public int[] getDenseCodeIndexes() {
+        return (denseCodeIndexes == null) ? null : denseCodeIndexes.toArray();
+    }
+
     private void put(Instruction i) {
         instructions.add(i);
     }
 
+    private void beginDense(int opcode) {
+        if (denseCode == null) return;
+        denseCodeStarts.add(denseCode.size());
+        emitDense(opcode);
+    }
+
+    private void emitDense(int value) {
+        if (denseCode == null) return;
+        denseCode.add(value);
+        denseCodeIndexes.add(instructions.size());
+    }
+
+    private void emitDenseTarget(int targetIndex) {
+        if (denseCode == null) return;
+        denseFixups.add(denseCode.size());
+        emitDense(targetIndex);
+    }
+
     @Override
     public void visitJump(JumpInstrNode node) {
         int offset = node.offset;
+        beginDense(node.opcode);
+        emitDenseTarget(offset);
+        if (quicken && visitQuickeningJump(node.opcode, offset)) {
+            return;
+        }
         switch (node.opcode) {
             case OPCodes.Goto:
                 put(new Goto(offset));
@@ -70,13 +152,69 @@ public class OPCodeTranslator implements InstrVisitor {
 
     @Override
     public void visitSingle(SingleInstrNode node) {
+        beginDense(node.opcode);
+        if (quicken && visitQuickeningSingle(node.opcode)) {
+            return;
+        }
         put(InstructionFactory.create(node.opcode));
     }
 
+    private boolean visitQuickeningSingle(int opcode) {
+        switch (opcode) {
+            case OPCodes.Add:
+                put(new QuickeningInstruction(new Add(), ExecutionContext::doAddIntInt));
+                return true;
+            case OPCodes.Sub:
+                put(new QuickeningInstruction(new Sub(), ExecutionContext::doSubIntInt));
+                return true;
+            case OPCodes.Mul:
+                put(new QuickeningInstruction(new Mul(), ExecutionContext::doMulIntInt));
+                return true;
+            case OPCodes.ArrayLoad:
+                put(new QuickeningInstruction(new ArrayLoad(), ExecutionContext::doArrayLoadList));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean visitQuickeningJump(int opcode, int offset) {
+        switch (opcode) {
+            case OPCodes.IfEq:
+                put(new QuickeningInstruction(new IfEq(offset), c -> c.doJumpIfEqIntInt(offset)));
+                return true;
+            case OPCodes.IfNe:
+                put(new QuickeningInstruction(new IfNe(offset), c -> c.doJumpIfNeIntInt(offset)));
+                return true;
+            case OPCodes.IfGt:
+                put(new QuickeningInstruction(new IfGt(offset), c -> c.doJumpIfGtIntInt(offset)));
+                return true;
+            case OPCodes.IfGe:
+                put(new QuickeningInstruction(new IfGe(offset), c -> c.doJumpIfGeIntInt(offset)));
+                return true;
+            case OPCodes.IfLt:
+                put(new QuickeningInstruction(new IfLt(offset), c -> c.doJumpIfLtIntInt(offset)));
+                return true;
+            case OPCodes.IfLe:
+                put(new QuickeningInstruction(new IfLe(offset), c -> c.doJumpIfLeIntInt(offset)));
+                return true;
+            default:
+                return false;
+        }
+    }
+
     @Override
     public void visitCall(CallInstrNode node) {
         if (node.opcode == OPCodes.Call) {
+            beginDense(node.opcode);
+            emitDense(node.callee);
+            emitDense(node.argc);
             put(new Call(node.callee, node.argc));
+        } else if (node.opcode == OPCodes.TailCall) {
+            beginDense(node.opcode);
+            emitDense(node.callee);
+            emitDense(node.argc);
+            put(new TailCall(node.callee, node.argc));
         } else {
             opcodeMismatch(node);
         }
@@ -84,6 +222,8 @@ public class OPCodeTranslator implements InstrVisitor {
 
     @Override
     public void visitIndexed(IndexedInstrNode node) {
+        beginDense(node.opcode);
+        emitDense(node.index);
         switch (node.opcode) {
             case OPCodes.Push:
                 instructions.add(new Push(node.index));
@@ -109,6 +249,8 @@ public class OPCodeTranslator implements InstrVisitor {
     public void visitConst(ConstantInstrNode node) {
         switch (node.opcode) {
             case OPCodes.Push:
+                beginDense(node.opcode);
+                emitDense(node.index);
                 put(new Push(node.index));
                 break;
             case OPCodes.BinarySwitch:
@@ -121,17 +263,218 @@ public class OPCodeTranslator implements InstrVisitor {
 
     @Override
     public void visitSwitch(SwitchInstrNode node) {
+        beginDense(node.opcode);
+        emitDense(node.literals.length);
+        emitDenseTarget(node.defCp);
+        for (int literal : node.literals) {
+            emitDense(literal);
+        }
+        for (int dstIp : node.dstIps) {
+            emitDenseTarget(dstIp);
+        }
         switch (node.opcode) {
             case OPCodes.LinearSwitch:
                 put(new LinearSwitch(node.literals, node.dstIps, node.defCp));
                 break;
             case OPCodes.BinarySwitch:
                 put(new BinarySwitch(node.literals, node.dstIps, node.defCp));
+                break;
             default:
                 opcodeMismatch(node);
         }
     }
 
+    @Override
+    public void visitRegister(RegisterInstrNode node) {
+        beginDense(node.opcode);
+        emitDense(node.dst);
+        emitDense(node.lhs);
+        emitDense(node.rhs);
+        switch (node.opcode) {
+            case OPCodes.RAdd:
+                put(new RAdd(node.dst, node.lhs, node.rhs));
+                break;
+            case OPCodes.RSub:
+                put(new RSub(node.dst, node.lhs, node.rhs));
+                break;
+            case OPCodes.RMul:
+                put(new RMul(node.dst, node.lhs, node.rhs));
+                break;
+            case OPCodes.RDiv:
+                put(new RDiv(node.dst, node.lhs, node.rhs));
+                break;
+            case OPCodes.RRem:
+                put(new RRem(node.dst, node.lhs, node.rhs));
+                break;
+            case OPCodes.RAnd:
+                put(new RAnd(node.dst, node.lhs, node.rhs));
+                break;
+            case OPCodes.ROr:
+                put(new ROr(node.dst, node.lhs, node.rhs));
+                break;
+            case OPCodes.RXor:
+                put(new RXor(node.dst, node.lhs, node.rhs));
+                break;
+            case OPCodes.RShl:
+                put(new RShl(node.dst, node.lhs, node.rhs));
+                break;
+            case OPCodes.RShr:
+                put(new RShr(node.dst, node.lhs, node.rhs));
+                break;
+            case OPCodes.RMove:
+                put(new RMove(node.dst, node.lhs));
+                break;
+            default:
+                opcodeMismatch(node);
+        }
+    }
+
+    @Override
+    public void visitRegisterJump(RegisterJumpInstrNode node) {
+        int offset = node.offset;
+        beginDense(node.opcode);
+        emitDenseTarget(offset);
+        emitDense(node.lhs);
+        emitDense(node.rhs);
+        switch (node.opcode) {
+            case OPCodes.RIfEq:
+                put(new RIfEq(node.lhs, node.rhs, offset));
+                break;
+            case OPCodes.RIfNe:
+                put(new RIfNe(node.lhs, node.rhs, offset));
+                break;
+            case OPCodes.RIfGe:
+                put(new RIfGe(node.lhs, node.rhs, offset));
+                break;
+            case OPCodes.RIfLt:
+                put(new RIfLt(node.lhs, node.rhs, offset));
+                break;
+            case OPCodes.RIfGt:
+                put(new RIfGt(node.lhs, node.rhs, offset));
+                break;
+            case OPCodes.RIfLe:
+                put(new RIfLe(node.lhs, node.rhs, offset));
+                break;
+            default:
+                opcodeMismatch(node);
+        }
+    }
+
+    /**
+     * Суперинструкция последовательности опкодов. Возвращает {@code null},
+     * если операнды последовательности, которая начинается в {@code pc}, ей не подходят.
+     */
+    private interface Fusion {
+        Instruction fuse(InstrNode[] code, int pc);
+    }
+
+    /** Реализованные суперинструкции по последовательностям опкодов таблицы {@link SuperinstructionTable}. */
+    private static final Map<List<Integer>, Fusion> FUSIONS = new HashMap<>();
+
+    static {
+        FUSIONS.put(Arrays.asList(OPCodes.Load, OPCodes.Load, OPCodes.Add),
+                (code, pc) -> new LoadLoadAdd(loadIndex(code, pc), loadIndex(code, pc + 1)));
+        FUSIONS.put(Arrays.asList(OPCodes.Load, OPCodes.Load, OPCodes.ArrayLoad),
+                (code, pc) -> new LoadLoadArrayLoad(loadIndex(code, pc), loadIndex(code, pc + 1)));
+        FUSIONS.put(Arrays.asList(OPCodes.Load, OPCodes.Load, OPCodes.IfLt),
+                (code, pc) -> new LoadLoadIfLt(loadIndex(code, pc), loadIndex(code, pc + 1), jumpOffset(code, pc + 2)));
+        FUSIONS.put(Arrays.asList(OPCodes.Load, OPCodes.Load, OPCodes.IfGe),
+                (code, pc) -> new LoadLoadIfGe(loadIndex(code, pc), loadIndex(code, pc + 1), jumpOffset(code, pc + 2)));
+        FUSIONS.put(Arrays.asList(OPCodes.Load, OPCodes.Push, OPCodes.IfLt),
+                (code, pc) -> (pushIndex(code, pc + 1) < 0) ? null
+                        : new LoadPushIfLt(loadIndex(code, pc), pushIndex(code, pc + 1), jumpOffset(code, pc + 2)));
+        FUSIONS.put(Arrays.asList(OPCodes.Load, OPCodes.Push, OPCodes.IfGe),
+                (code, pc) -> (pushIndex(code, pc + 1) < 0) ? null
+                        : new LoadPushIfGe(loadIndex(code, pc), pushIndex(code, pc + 1), jumpOffset(code, pc + 2)));
+        // Тройка таблицы и следующее за ней сохранение
+        FUSIONS.put(Arrays.asList(OPCodes.Load, OPCodes.ConstInt1, OPCodes.Add),
+                (code, pc) -> (storeIndex(code, pc + 3) < 0) ? null
+                        : new LoadAdd1Store(loadIndex(code, pc), storeIndex(code, pc + 3)));
+    }
+
+    /**
+     * Заменяет частые последовательности инструкций суперинструкциями.
+     * Последовательности и порядок, в котором они пробуются, берутся из таблицы
+     * {@link SuperinstructionTable#builtin()}, построенной профилированием; последовательности таблицы
+     * без реализованной суперинструкции пропускаются.
+     * Суперинструкция занимает место первой инструкции последовательности, остальные
+     * остаются на своих местах, поэтому переходы внутрь последовательности продолжают работать.
+     * Плотный код не затрагивается.
+     */
+    public void fuseSuperinstructions(InstrNode[] code) {
+        List<List<Integer>> sequences = new ArrayList<>();
+        for (List<Integer> sequence : SuperinstructionTable.builtin().sequences()) {
+            if (FUSIONS.containsKey(sequence)) {
+                sequences.add(sequence);
+            }
+        }
+        int i = 0;
+        while (i < code.length) {
+            int length = fuse(code, i, sequences);
+            i += Math.max(length, 1);
+        }
+    }
+
+    /** Сливает последовательность, которая начинается в {@code pc}. Возвращает ее длину либо 0. */
+    private int fuse(InstrNode[] code, int pc, List<List<Integer>> sequences) {
+        for (List<Integer> sequence : sequences) {
+            if (!matches(code, pc, sequence)) continue;
+            Instruction superinstruction = FUSIONS.get(sequence).fuse(code, pc);
+            if (superinstruction != null) {
+                instructions.set(pc, superinstruction);
+                return sequence.size();
+            }
+        }
+        return 0;
+    }
+
+    private static boolean matches(InstrNode[] code, int pc, List<Integer> sequence) {
+        if (pc + sequence.size() > code.length) return false;
+        for (int k = 0; k < sequence.size(); k++) {
+            if (SuperinstructionTable.normalize(code[pc + k].opcode) != sequence.get(k)) return false;
+        }
+        return true;
+    }
+
+    private static int jumpOffset(InstrNode[] code, int pc) {
+        return ((JumpInstrNode) code[pc]).offset;
+    }
+
+    private static int loadIndex(InstrNode[] code, int pc) {
+        if (pc >= code.length) return -1;
+        InstrNode node = code[pc];
+        switch (node.opcode) {
+            case OPCodes.Load0: case OPCodes.Load1: case OPCodes.Load2:
+                return node.opcode - OPCodes.Load0;
+            case OPCodes.Load:
+                return ((IndexedInstrNode) node).index;
+            default:
+                return -1;
+        }
+    }
+
+    private static int storeIndex(InstrNode[] code, int pc) {
+        if (pc >= code.length) return -1;
+        InstrNode node = code[pc];
+        switch (node.opcode) {
+            case OPCodes.Store0: case OPCodes.Store1: case OPCodes.Store2:
+                return node.opcode - OPCodes.Store0;
+            case OPCodes.Store:
+                return ((IndexedInstrNode) node).index;
+            default:
+                return -1;
+        }
+    }
+
+    private static int pushIndex(InstrNode[] code, int pc) {
+        if (pc >= code.length) return -1;
+        InstrNode node = code[pc];
+        if (node.opcode != OPCodes.Push) return -1;
+        if (node instanceof ConstantInstrNode) return ((ConstantInstrNode) node).index;
+        if (node instanceof IndexedInstrNode) return ((IndexedInstrNode) node).index;
+        return -1;
+    }
+
     private static void opcodeMismatch(InstrNode node) {
         throw new IllegalStateException(node.getClass().getSimpleName()
                 + " with opcode " + getOpcodeName(node.opcode));
@@ -25,6 +25,11 @@ public final class Options {
     public static int logMaxErrors() { return bound.logMaxErrors; }
     public static Charset charset() { return bound.charset; }
     public static boolean genJvmLoops() { return bound.genJvmLoops; }
+    public static String engine() { return bound.engine; }
+    public static boolean genRegisterCode() { return bound.genRegisterCode; }
+    public static boolean fuseSuperinstructions() { return bound.fuseSuperinstructions; }
+    public static boolean quicken() { return bound.quicken; }
+    public static String sequenceProfile() { return bound.sequenceProfile; }
 
     private final ArrayList<String> files = new ArrayList<>();
     private boolean printCode;
@@ -34,6 +39,11 @@ public final class Options {
     private int logMaxErrors = 1;
     private Charset charset = Charset.defaultCharset();
     private boolean genJvmLoops;
+    private String engine = "objects";
+    private boolean genRegisterCode;
+    private boolean fuseSuperinstructions;
+    private boolean quicken;
+    private String sequenceProfile;
 
     private static class OptionIterator {
 
@@ -133,6 +143,41 @@ public final class Options {
                 }
                 continue;
             }
+            if (option.startsWith("-e")) {
+                String value = option.substring("-e".length());
+                if (!value.startsWith("=") || value.length() == 1) {
+                    System.err.println("Error: option '-e' must have a value specified after '='");
+                    System.exit(1);
+                }
+                engine = value.substring(1);
+                if (!engine.equals("objects") && !engine.equals("switch")
+                        && !engine.equals("closure") && !engine.equals("jit")) {
+                    System.err.println("Error: option '-e' have an invalid value, expected 'objects', 'switch', 'closure' or 'jit'.");
+                    System.exit(1);
+                }
+                continue;
+            }
+            if (option.equals("-q")) {
+                quicken = true;
+                continue;
+            }
+            if (option.equals("-si")) {
+                fuseSuperinstructions = true;
+                continue;
+            }
+            if (option.startsWith("-sp")) {
+                String value = option.substring("-sp".length());
+                if (!value.startsWith("=") || value.length() == 1) {
+                    System.err.println("Error: option '-sp' must have a value specified after '='");
+                    System.exit(1);
+                }
+                sequenceProfile = value.substring(1);
+                continue;
+            }
+            if (option.equals("-gr")) {
+                genRegisterCode = true;
+                continue;
+            }
             if (option.equals("-gj")) {
                 genJvmLoops = true;
                 continue;
@@ -141,6 +186,20 @@ public final class Options {
             System.err.println("Unrecognized option: " + option);
             System.exit(1);
         }
+        // Плотный код не переписывает себя и не сливается в суперинструкции, это делают только объекты инструкций
+        if (quicken && !engine.equals("objects")) {
+            System.err.println("Error: option '-q' is supported only by the 'objects' engine.");
+            System.exit(1);
+        }
+        if (fuseSuperinstructions && !engine.equals("objects")) {
+            System.err.println("Error: option '-si' is supported only by the 'objects' engine.");
+            System.exit(1);
+        }
+        // Последовательности опкодов собирает только интерпретатор объектов инструкций
+        if (sequenceProfile != null && (!engine.equals("objects") || fuseSuperinstructions)) {
+            System.err.println("Error: option '-sp' requires the 'objects' engine without '-si'.");
+            System.exit(1);
+        }
         if (itr.hasNext() & files.isEmpty()) {
             files.add(itr.next());
         }
@@ -158,6 +217,11 @@ public final class Options {
         System.out.println("\t-v, --c=<value>                 Specify charset");
         System.out.println("\t-m=<value>, --m<value>          Specify max printable compiler errors");
         System.out.println("\t--gj                            Enable JVM loops model generation");
+        System.out.println("\t-gr                             Enable register instructions generation");
+        System.out.println("\t-q                              Specialize instructions for operand types at runtime (objects engine only)");
+        System.out.println("\t-si                             Fuse frequent instruction sequences into superinstructions (objects engine only)");
+        System.out.println("\t-sp=<file>                      Add frequent opcode sequences of the run to the superinstruction table in file");
+        System.out.println("\t-e=<objects|switch|closure|jit>   Specify interpreter engine");
         System.out.println("\t-f=<values;>, --files=<values;> Specify files to be executed (didn't work)");
         System.exit(0);
     }
@@ -0,0 +1,149 @@
+package jua;
+
+import jua.runtime.interpreter.Histogram;
+import jua.runtime.interpreter.OPCodes;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Таблица частых последовательностей опкодов, по которой {@link OPCodeTranslator#fuseSuperinstructions}
+ * выбирает, какие последовательности сливать в суперинструкции, и в каком порядке их пробовать.
+ * <p>
+ * Таблица строится профилированием: запуск с опцией {@code -sp=<file>} собирает частоты пар и троек
+ * опкодов ({@link Histogram#topSequences(int, int)}) и добавляет их к таблице в файле.
+ * Таблица, по которой работает {@code -si}, хранится в ресурсе {@value #RESOURCE}.
+ * <p>
+ * Загрузки {@code Load0}..{@code Load2} и {@code Load} в таблице считаются одной {@code Load},
+ * сохранения — одной {@code Store}: суперинструкции получают номер переменной операндом.
+ */
+public final class SuperinstructionTable {
+
+    static final String RESOURCE = "superinstructions.txt";
+
+    /** Сколько самых частых пар и троек берется из одного профиля. */
+    private static final int PROFILE_LIMIT = 200;
+
+    /** Сколько самых частых последовательностей таблицы рассматривается при слиянии. */
+    private static final int FUSION_LIMIT = 64;
+
+    private static SuperinstructionTable builtin;
+
+    /** Последовательности по убыванию частоты и их частоты. */
+    private final Map<List<Integer>, Long> sequences;
+
+    private SuperinstructionTable(Map<List<Integer>, Long> sequences) {
+        this.sequences = sequences;
+    }
+
+    /** Возвращает {@value #FUSION_LIMIT} самых частых последовательностей таблицы из ресурса {@value #RESOURCE}. */
+    public static SuperinstructionTable builtin() {
+        if (builtin == null) {
+            try (InputStream in = SuperinstructionTable.class.getResourceAsStream(RESOURCE)) {
+                if (in == null) {
+                    throw new IllegalStateException("missing resource " + RESOURCE);
+                }
+                builtin = new SuperinstructionTable(sorted(read(in), FUSION_LIMIT));
+            } catch (IOException e) {
+                throw new IllegalStateException("unable to read " + RESOURCE, e);
+            }
+        }
+        return builtin;
+    }
+
+    /** Возвращает последовательности опкодов по убыванию частоты. */
+    public List<List<Integer>> sequences() {
+        return new ArrayList<>(sequences.keySet());
+    }
+
+    /** Заменяет варианты загрузки и сохранения общими опкодами {@code Load} и {@code Store}. */
+    public static int normalize(int opcode) {
+        switch (opcode) {
+            case OPCodes.Load0: case OPCodes.Load1: case OPCodes.Load2:
+                return OPCodes.Load;
+            case OPCodes.Store0: case OPCodes.Store1: case OPCodes.Store2:
+                return OPCodes.Store;
+            default:
+                return opcode;
+        }
+    }
+
+    private static Map<List<Integer>, Long> read(InputStream in) throws IOException {
+        Map<List<Integer>, Long> sequences = new LinkedHashMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] parts = line.split("\\s+");
+            List<Integer> sequence = new ArrayList<>();
+            for (int i = 0; i < parts.length - 1; i++) {
+                sequence.add(opcodeOf(parts[i]));
+            }
+            sequences.merge(sequence, Long.parseLong(parts[parts.length - 1]), Long::sum);
+        }
+        return sequences;
+    }
+
+    private static int opcodeOf(String name) {
+        for (int i = 0; i < OPCodes._InstrCount; i++) {
+            if (OPCodes.NAMES[i].equals(name)) return i;
+        }
+        throw new IllegalArgumentException("unknown opcode " + name);
+    }
+
+    private static Map<List<Integer>, Long> sorted(Map<List<Integer>, Long> sequences, int limit) {
+        List<Map.Entry<List<Integer>, Long>> entries = new ArrayList<>(sequences.entrySet());
+        entries.sort(Collections.reverseOrder(Map.Entry.comparingByValue()));
+        Map<List<Integer>, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<List<Integer>, Long> entry : entries) {
+            if (result.size() == limit) break;
+            result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Добавляет частые пары и тройки опкодов из профиля к таблице в файле {@code file}
+     * (если файла нет, таблица создается) и записывает таблицу обратно.
+     */
+    public static void profile(Path file, Histogram histogram) throws IOException {
+        Map<List<Integer>, Long> sequences = new LinkedHashMap<>();
+        if (Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                sequences.putAll(read(in));
+            }
+        }
+        for (int length = 2; length <= 3; length++) {
+            for (long[] top : histogram.topSequences(length, PROFILE_LIMIT)) {
+                List<Integer> sequence = new ArrayList<>();
+                for (int k = 0; k < length; k++) {
+                    sequence.add(normalize((int) top[k]));
+                }
+                sequences.merge(sequence, top[length], Long::sum);
+            }
+        }
+        try (PrintStream out = new PrintStream(Files.newOutputStream(file), false, "UTF-8")) {
+            out.println("# Частые последовательности опкодов и число их выполнений.");
+            out.println("# Построено запуском jua -sp=<file>, см. SuperinstructionTable.");
+            for (Map.Entry<List<Integer>, Long> entry : sorted(sequences, Integer.MAX_VALUE).entrySet()) {
+                StringBuilder buf = new StringBuilder();
+                for (int opcode : entry.getKey()) {
+                    buf.append(OPCodes.NAMES[opcode]).append(' ');
+                }
+                out.println(buf.append(entry.getValue()));
+            }
+        }
+    }
+}
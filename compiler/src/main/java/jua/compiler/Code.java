@@ -3,6 +3,8 @@ package jua.compiler;
 import jua.compiler.InstructionUtils.IndexedInstrNode;
 import jua.compiler.InstructionUtils.InstrNode;
 import jua.compiler.InstructionUtils.JumpInstrNode;
+import jua.compiler.InstructionUtils.RegisterInstrNode;
+import jua.compiler.InstructionUtils.RegisterJumpInstrNode;
 import jua.compiler.InstructionUtils.SingleInstrNode;
 import jua.compiler.utils.Assert;
 
@@ -68,6 +70,10 @@ public final class Code {
         return new Chain(emitJump(opcode), tos(), null);
     }
 
+    public Chain branch(int opcode, int lhs, int rhs) {
+        return new Chain(emitNode(new RegisterJumpInstrNode(opcode, lhs, rhs)), tos(), null);
+    }
+
     public int lineNum() {
         return cLineNum;
     }
@@ -84,6 +90,16 @@ public final class Code {
         return emitNode(new SingleInstrNode(opcode));
     }
 
+    /**
+     * Leave кладет на стек null и сразу возвращается, поэтому глубина стека после нее не меняется,
+     * но место под null должно входить в размер стека фрейма.
+     */
+    public int emitLeave() {
+        int pc = emitSingle(InstructionUtils.OPCodes.Leave);
+        limTos = Math.max(limTos, tos + 1);
+        return pc;
+    }
+
     public int emitIndexed(int opcode, int index) {
         return emitNode(new IndexedInstrNode(opcode, index));
     }
@@ -100,6 +116,14 @@ public final class Code {
         return emitNode(new InstructionUtils.CallInstrNode(InstructionUtils.OPCodes.Call, callee, argc));
     }
 
+    public int emitTailCall(int callee, int argc) {
+        return emitNode(new InstructionUtils.CallInstrNode(InstructionUtils.OPCodes.TailCall, callee, argc));
+    }
+
+    public int emitRegister(int opcode, int dst, int lhs, int rhs) {
+        return emitNode(new RegisterInstrNode(opcode, dst, lhs, rhs));
+    }
+
     public int emitNode(InstrNode node) {
         int pc = pc();
 //        if (isAlive()) {
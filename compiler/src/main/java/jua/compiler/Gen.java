@@ -61,6 +61,12 @@ public class Gen extends Scanner {
     // Set from JuaCompiler.compile
     public boolean genJvmLoops;
 
+    // Set from JuaCompiler.compile
+    public boolean genRegisterCode;
+
+    /** Можно ли в текущей функции заменять вызов в хвостовой позиции хвостовым вызовом. */
+    private boolean genTailCalls;
+
     private Item genExpr(Expr tree) {
         Item prevItem = result;
         try {
@@ -103,6 +109,8 @@ public class Gen extends Scanner {
         code.sym = tree.sym;
         code.putPos(tree.pos);
         items = new Items(code);
+        // Результат "once" функции запоминается при выходе из ее фрейма, поэтому фрейм нельзя подменять
+        genTailCalls = !CompHelper.isOnceFn(tree);
 
         java.util.List<Object> defaults = new ArrayList<>();
         Flow.forEach(tree.params, param -> {
@@ -116,11 +124,10 @@ public class Gen extends Scanner {
 
         if (tree.body.hasTag(Tag.BLOCK)) {
             genBlock(tree.body);
-            code.emitSingle(OPCodes.Leave);
+            code.emitLeave();
         } else {
             Assert.check(tree.body.hasTag(Tag.DISCARDED), "Function body neither block ner expression");
-            genExpr(((Discarded) tree.body).expr).load();
-            code.emitSingle(OPCodes.Return);
+            genReturn(((Discarded) tree.body).expr);
         }
         code.setAlive(false);
 
@@ -311,6 +318,9 @@ public class Gen extends Scanner {
         code.putPos(tree.pos);
         Flow.forEach(tree.defs, def -> {
             code.putPos(def.pos);
+            if (def.init != null && genRegisterAssign(def.sym.id, def.init)) {
+                return;
+            }
             if (def.init == null) {
                 items.mkLiteral(null).load();
             } else {
@@ -324,14 +334,28 @@ public class Gen extends Scanner {
     public void visitReturn(Return tree) {
         code.putPos(tree.pos);
         if (tree.expr == null || isNull(tree.expr)) {
-            code.emitSingle(OPCodes.Leave);
+            code.emitLeave();
         } else {
-            genExpr(tree.expr).load();
-            code.emitSingle(OPCodes.Return);
+            genReturn(tree.expr);
         }
         code.setAlive(false);
     }
 
+    /**
+     * Генерирует возврат значения выражения. Вызов функции в хвостовой позиции
+     * становится хвостовым вызовом. Следующая за ним инструкция возврата выполняется
+     * только тогда, когда интерпретатор не смог подменить фрейм (например, вызвана нативная функция).
+     */
+    private void genReturn(Expr expr) {
+        Expr innerExpr = stripParens(expr);
+        if (genTailCalls && innerExpr.hasTag(Tag.INVOCATION) && ((Invocation) innerExpr).sym.opcode < 0) {
+            genInvocation((Invocation) innerExpr, true);
+        } else {
+            genExpr(expr).load();
+        }
+        code.emitSingle(OPCodes.Return);
+    }
+
     @Override
     public void visitDiscarded(Discarded tree) {
         genExpr(tree.expr).drop();
@@ -357,6 +381,19 @@ public class Gen extends Scanner {
         result = items.mkStackItem();
     }
 
+    @Override
+    public void visitMapLiteral(MapLiteral tree) {
+        code.putPos(tree.pos);
+        code.emitSingle(OPCodes.NewMap);
+        Flow.forEach(tree.entries, entry -> {
+            items.mkStackItem().duplicate();
+            genExpr(entry.key).load();
+            genExpr(entry.value).load();
+            items.mkAccessItem().store();
+        });
+        result = items.mkStackItem();
+    }
+
     @Override
     public void visitVariable(Var tree) {
         result = items.t(tree).makeLocal(tree.sym.id);
@@ -380,13 +417,21 @@ public class Gen extends Scanner {
 
     @Override
     public void visitInvocation(Invocation tree) {
+        genInvocation(tree, false);
+    }
+
+    private void genInvocation(Invocation tree, boolean tailCall) {
         Assert.check(tree.target instanceof Member);
         Flow.forEach(tree.args, a -> genExpr(a.expr).load());
         code.putPos(tree.pos);
         if (tree.sym.opcode < 0) {
             // Обычный вызов функции
             int calleeId = code.resolveCallee(tree.sym.name);
-            code.emitCall(calleeId, Flow.count(tree.args));
+            if (tailCall) {
+                code.emitTailCall(calleeId, Flow.count(tree.args));
+            } else {
+                code.emitCall(calleeId, Flow.count(tree.args));
+            }
         } else {
             // Языковая конструкция
             code.emitSingle(tree.sym.opcode);
@@ -397,6 +442,13 @@ public class Gen extends Scanner {
     @Override
     public void visitAssign(Assign tree) {
         Item varItem = genExpr(tree.var);
+        if (varItem instanceof Items.LocalItem) {
+            int dst = ((Items.LocalItem) varItem).index;
+            if (genRegisterAssign(dst, tree.expr)) {
+                result = items.t(tree).makeLocal(dst);
+                return;
+            }
+        }
         genExpr(tree.expr).load();
         result = items.makeAssignItem(varItem);
     }
@@ -412,6 +464,12 @@ public class Gen extends Scanner {
             genExpr(tree.expr).load();
             items.t(tree);
             result = varItem.coalesceAsg(skipCoalesceChain);
+        } else if (genRegisterCode && varItem instanceof Items.LocalItem && isRegisterOperand(tree.expr)) {
+            int dst = ((Items.LocalItem) varItem).index;
+            code.markTreePos(tree);
+            code.emitRegister(toRegisterOpcode(fromBinaryAsgOpTag(tree.tag)),
+                    dst, dst, genExpr(tree.expr).registerOperand());
+            result = items.t(tree).makeLocal(dst);
         } else {
             varItem.load();
             genExpr(tree.expr).load();
@@ -442,7 +500,8 @@ public class Gen extends Scanner {
                 code.resolve(lhsCond.trueChain);
                 CondItem rhsCond = genExpr(tree.rhs).asCond();
                 Chain skipOtherConditionsChain = mergeChains(falseJumps, rhsCond.falseChain);
-                result = items.t(tree).makeCondItem(rhsCond.opcode, rhsCond.trueChain, skipOtherConditionsChain);
+                items.t(tree);
+                result = rhsCond.withChains(rhsCond.trueChain, skipOtherConditionsChain);
                 break;
             }
 
@@ -452,13 +511,21 @@ public class Gen extends Scanner {
                 code.resolve(lhsCond.falseChain);
                 CondItem rhsCond = genExpr(tree.rhs).asCond();
                 Chain skipOtherConditionsChain = mergeChains(trueJumps, rhsCond.trueChain);
-                result = items.t(tree).makeCondItem(rhsCond.opcode, skipOtherConditionsChain, rhsCond.falseChain);
+                items.t(tree);
+                result = rhsCond.withChains(skipOtherConditionsChain, rhsCond.falseChain);
                 break;
             }
 
             case EQ: case NE:
             case GT: case GE:
             case LT: case LE:
+                if (genRegisterCode && isRegisterOperand(tree.lhs) && isRegisterOperand(tree.rhs)) {
+                    int lhs = genExpr(tree.lhs).registerOperand();
+                    int rhs = genExpr(tree.rhs).registerOperand();
+                    result = items.t(tree).makeRegisterCondItem(
+                            toRegisterOpcode(fromComparisonOpTag(tree.tag)), lhs, rhs);
+                    break;
+                }
                 genExpr(tree.lhs).load();
                 genExpr(tree.rhs).load();
                 result = items.t(tree).makeCondItem(fromComparisonOpTag(tree.tag));
@@ -486,6 +553,52 @@ public class Gen extends Scanner {
         }
     }
 
+    /**
+     * Проверяет, может ли выражение быть операндом регистровой инструкции.
+     * Подходят локальные переменные и числовые литералы.
+     */
+    private boolean isRegisterOperand(Expr tree) {
+        Expr e = stripParens(tree);
+        if (e.hasTag(Tag.VAR)) {
+            return true;
+        }
+        if (e.hasTag(Tag.LITERAL)) {
+            Object value = ((Literal) e).value;
+            return value instanceof Long || value instanceof Double;
+        }
+        return false;
+    }
+
+    /**
+     * Генерирует присвоение {@code dst = expr} регистровой инструкцией, если это возможно.
+     *
+     * @return {@code true}, если код был сгенерирован, {@code false}, если нужно генерировать стековый код.
+     */
+    private boolean genRegisterAssign(int dst, Expr expr) {
+        if (!genRegisterCode) {
+            return false;
+        }
+        Expr e = stripParens(expr);
+        if (isRegisterOperand(e)) {
+            code.markTreePos(e);
+            code.emitRegister(OPCodes.RMove, dst, genExpr(e).registerOperand(), 0);
+            return true;
+        }
+        switch (e.getTag()) {
+            case ADD: case SUB: case MUL: case DIV: case REM:
+            case SL: case SR: case BIT_AND: case BIT_OR: case BIT_XOR:
+                BinaryOp binaryOp = (BinaryOp) e;
+                if (isRegisterOperand(binaryOp.lhs) && isRegisterOperand(binaryOp.rhs)) {
+                    int lhs = genExpr(binaryOp.lhs).registerOperand();
+                    int rhs = genExpr(binaryOp.rhs).registerOperand();
+                    code.markTreePos(binaryOp);
+                    code.emitRegister(toRegisterOpcode(fromBinaryOpTag(binaryOp.tag)), dst, lhs, rhs);
+                    return true;
+                }
+        }
+        return false;
+    }
+
     @Override
     public void visitUnaryOp(UnaryOp tree) {
         Item item = genExpr(tree.expr);
@@ -66,6 +66,27 @@ public class InstructionUtils {
         }
     }
 
+    /**
+     * Возвращает регистровый аналог стековой инструкции (арифметической или условного перехода).
+     */
+    public static int toRegisterOpcode(int opcode) {
+        if (OPCodes.Add <= opcode && opcode <= OPCodes.Shr) {
+            return OPCodes.RAdd + (opcode - OPCodes.Add);
+        }
+        if (OPCodes.IfEq <= opcode && opcode <= OPCodes.IfLe) {
+            return OPCodes.RIfEq + (opcode - OPCodes.IfEq);
+        }
+        throw new AssertionError(getOpcodeName(opcode));
+    }
+
+    /**
+     * Кодирует индекс константы как операнд регистровой инструкции.
+     * Неотрицательные операнды это номера регистров, отрицательные - константы.
+     */
+    public static int constantOperand(int cpi) {
+        return -1 - cpi;
+    }
+
     private InstructionUtils() {} // A utility class
 
     public interface OPCodes {
@@ -136,8 +157,27 @@ public class InstructionUtils {
                 Call = 63,
                 Return = 64,
                 Leave = 65,
-
-        _InstrCount = Leave + 1;
+                // Регистровые инструкции
+                RAdd = 66,
+                RSub = 67,
+                RMul = 68,
+                RDiv = 69,
+                RRem = 70,
+                RAnd = 71,
+                ROr = 72,
+                RXor = 73,
+                RShl = 74,
+                RShr = 75,
+                RMove = 76,
+                RIfEq = 77,
+                RIfNe = 78,
+                RIfGe = 79,
+                RIfLt = 80,
+                RIfGt = 81,
+                RIfLe = 82,
+                TailCall = 83,
+
+        _InstrCount = TailCall + 1;
     }
 
     private static final OpData[] OP_DATA = new OpData[OPCodes._InstrCount];
@@ -218,10 +258,28 @@ public class InstructionUtils {
         opData(OPCodes.Neg, "neg", 0);
         opData(OPCodes.Not, "not", 0);
         opData(OPCodes.Call, "call", 0); // todo
+        opData(OPCodes.TailCall, "tailcall", 0);
         opData(OPCodes.LinearSwitch, "linearswitch", -1);
         opData(OPCodes.BinarySwitch, "binaryswitch", -1);
         opData(OPCodes.Return, "return", -1);
         opData(OPCodes.Leave, "leave", 0);
+        opData(OPCodes.RAdd, "radd", 0);
+        opData(OPCodes.RSub, "rsub", 0);
+        opData(OPCodes.RMul, "rmul", 0);
+        opData(OPCodes.RDiv, "rdiv", 0);
+        opData(OPCodes.RRem, "rrem", 0);
+        opData(OPCodes.RAnd, "rand", 0);
+        opData(OPCodes.ROr, "ror", 0);
+        opData(OPCodes.RXor, "rxor", 0);
+        opData(OPCodes.RShl, "rshl", 0);
+        opData(OPCodes.RShr, "rshr", 0);
+        opData(OPCodes.RMove, "rmove", 0);
+        opData(OPCodes.RIfEq, "rifeq", 0);
+        opData(OPCodes.RIfNe, "rifne", 0);
+        opData(OPCodes.RIfGe, "rifge", 0);
+        opData(OPCodes.RIfLt, "riflt", 0);
+        opData(OPCodes.RIfGt, "rifgt", 0);
+        opData(OPCodes.RIfLe, "rifle", 0);
 
     }
 
@@ -252,6 +310,8 @@ public class InstructionUtils {
         void visitIndexed(IndexedInstrNode node);
         void visitConst(ConstantInstrNode node);
         void visitSwitch(SwitchInstrNode node);
+        void visitRegister(RegisterInstrNode node);
+        void visitRegisterJump(RegisterJumpInstrNode node);
     }
 
     public abstract static class InstrNode {
@@ -354,6 +414,48 @@ public class InstructionUtils {
         }
     }
 
+    /**
+     * Трехадресная инструкция: {@code dst = lhs op rhs}.
+     * Операнды {@code lhs} и {@code rhs} это номера регистров либо константы (см. {@link #constantOperand(int)}).
+     * У {@link OPCodes#RMove} используется только {@code lhs}.
+     */
+    public static class RegisterInstrNode extends InstrNode {
+        public final int dst;
+        public final int lhs;
+        public final int rhs;
+
+        public RegisterInstrNode(int opcode, int dst, int lhs, int rhs) {
+            super(opcode);
+            this.dst = dst;
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        @Override
+        public void accept(InstrVisitor visitor) {
+            visitor.visitRegister(this);
+        }
+    }
+
+    /**
+     * Условный переход по сравнению двух регистров: {@code if lhs op rhs goto offset}.
+     */
+    public static class RegisterJumpInstrNode extends JumpInstrNode {
+        public final int lhs;
+        public final int rhs;
+
+        public RegisterJumpInstrNode(int opcode, int lhs, int rhs) {
+            super(opcode);
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        @Override
+        public void accept(InstrVisitor visitor) {
+            visitor.visitRegisterJump(this);
+        }
+    }
+
     public static class SwitchInstrNode extends InstrNode {
 
         public int[] literals;
@@ -82,6 +82,13 @@ public final class Items {
         int constantIndex() {
             throw new UnsupportedOperationException(getClass().getName());
         }
+
+        /**
+         * Возвращает операнд регистровой инструкции: номер регистра или закодированный индекс константы.
+         */
+        int registerOperand() {
+            throw new UnsupportedOperationException(getClass().getName());
+        }
     }
 
     class StackItem extends Item {
@@ -134,6 +141,11 @@ public final class Items {
         int constantIndex() {
             return code.resolveConstant(value);
         }
+
+        @Override
+        int registerOperand() {
+            return InstructionUtils.constantOperand(constantIndex());
+        }
     }
 
     /**
@@ -185,6 +197,11 @@ public final class Items {
             return new LocalIncreaseItem(this, increaseTag);
         }
 
+        @Override
+        int registerOperand() {
+            return index;
+        }
+
         @Override
         Item coalesceAsg(Chain skipCoalesceChain) {
             store();
@@ -415,6 +432,13 @@ public final class Items {
             return new CondItem(InstructionUtils.negate(opcode), falseChain, trueChain);
         }
 
+        /**
+         * Возвращает такое же условие, но с другими цепями переходов.
+         */
+        public CondItem withChains(Chain trueChain, Chain falseChain) {
+            return new CondItem(opcode, trueChain, falseChain);
+        }
+
         public Chain trueJumps() {
             code.markTreePos(tree);
             return mergeChains(trueChain, code.branch(opcode));
@@ -426,6 +450,49 @@ public final class Items {
         }
     }
 
+    /**
+     * Условное разветвление по сравнению двух регистров.
+     */
+    class RegisterCondItem extends CondItem {
+        final int lhs;
+        final int rhs;
+
+        RegisterCondItem(int opcode, int lhs, int rhs, Chain trueChain, Chain falseChain) {
+            super(opcode, trueChain, falseChain);
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        @Override
+        public CondItem negated() {
+            return new RegisterCondItem(InstructionUtils.negate(opcode), lhs, rhs, falseChain, trueChain);
+        }
+
+        @Override
+        public void drop() {
+            // Операнды не лежат на стеке, достаточно свести переходы сюда.
+            code.resolve(trueChain);
+            code.resolve(falseChain);
+        }
+
+        @Override
+        public CondItem withChains(Chain trueChain, Chain falseChain) {
+            return new RegisterCondItem(opcode, lhs, rhs, trueChain, falseChain);
+        }
+
+        @Override
+        public Chain trueJumps() {
+            code.markTreePos(tree);
+            return mergeChains(trueChain, code.branch(opcode, lhs, rhs));
+        }
+
+        @Override
+        public Chain falseJumps() {
+            code.markTreePos(tree);
+            return mergeChains(falseChain, code.branch(InstructionUtils.negate(opcode), lhs, rhs));
+        }
+    }
+
     StackItem mkStackItem() {
         stackItem.tree = tree;
         return stackItem;
@@ -455,6 +522,10 @@ public final class Items {
         return new CondItem(opcode, trueJumps, falseJumps);
     }
 
+    RegisterCondItem makeRegisterCondItem(int opcode, int lhs, int rhs) {
+        return new RegisterCondItem(opcode, lhs, rhs, null, null);
+    }
+
     SafeItem mkSafe(Item target) {
         return new SafeItem(target);
     }
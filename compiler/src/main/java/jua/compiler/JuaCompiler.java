@@ -42,6 +42,12 @@ public final class JuaCompiler {
 
     private boolean genJvmLoops = false;
 
+    public void setGenRegisterCode(boolean genRegisterCode) {
+        this.genRegisterCode = genRegisterCode;
+    }
+
+    private boolean genRegisterCode = false;
+
     public void setCharset(Charset charset) {
         this.charset = charset;
     }
@@ -104,7 +110,10 @@ public final class JuaCompiler {
                 return null;
             }
 
-            Flow.forEach(compilationUnit.functions, funcDef -> funcDef.sym.code = new Code(programScope, source));
+            Flow.forEach(compilationUnit.functions, funcDef -> {
+                funcDef.sym.code = new Code(programScope, source);
+                funcDef.sym.code.gen.genRegisterCode = genRegisterCode;
+            });
 
             Flow.forEach(compilationUnit.functions, funcDef -> {
                 funcDef.accept(funcDef.sym.code.gen);
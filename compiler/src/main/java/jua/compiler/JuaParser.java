@@ -534,6 +534,9 @@ public final class JuaParser {
             case INTLITERAL: {
                 return parseInt(tok);
             }
+            case LBRACE: {
+                return parseMapInit(tok.pos);
+            }
             case LBRACKET: {
                 return parseListInit(tok.pos);
             }
@@ -639,6 +642,30 @@ public final class JuaParser {
         return new ListLiteral(pos, entries.toFlow());
     }
 
+    private MapLiteral parseMapInit(int pos) {
+        Flow.Builder<MapLiteral.Entry> entries = Flow.builder();
+        if (!acceptToken(RBRACE)) {
+            do {
+                int entryPos = token.pos;
+                Expr key = parseExpression();
+                expectToken(COL);
+                Expr value = parseExpression();
+                entries.append(new MapLiteral.Entry(entryPos, key, value));
+                if (acceptToken(COMMA)) {
+                    if (acceptToken(RBRACE)) {
+                        break;
+                    }
+                    continue;
+                }
+                if (acceptToken(RBRACE)) {
+                    break;
+                }
+                unexpected(token, Arrays.asList(COMMA, RBRACE));
+            } while (true);
+        }
+        return new MapLiteral(pos, entries.toFlow());
+    }
+
     private Expr parseParens() {
         int pos = acceptedPos;
         Expr expr = parseExpression();
@@ -124,7 +124,7 @@ public class ModulePrinter {
 
         @Override
         public void visitCall(CallInstrNode node) {
-            printOPCode(node.opcode); // node.opcode always must be OPCodes.Call
+            printOPCode(node.opcode); // OPCodes.Call или OPCodes.TailCall
             printFuncRef(node.callee);
             print(node.argc);
         }
@@ -172,6 +172,25 @@ public class ModulePrinter {
             instrData.cases.add(new Case(null, node.defCp));
             restoreTosIn(node.defCp, node);
         }
+
+        @Override
+        public void visitRegister(RegisterInstrNode node) {
+            printOPCode(node.opcode);
+            printLocal(node.dst);
+            printRegisterOperand(node.lhs);
+            if (node.opcode != OPCodes.RMove) {
+                printRegisterOperand(node.rhs);
+            }
+        }
+
+        @Override
+        public void visitRegisterJump(RegisterJumpInstrNode node) {
+            printOPCode(node.opcode);
+            printRegisterOperand(node.lhs);
+            printRegisterOperand(node.rhs);
+            printCp(node.offset);
+            restoreTosIn(node.offset, node);
+        }
     }
 
     private void printFunction(Module.Executable executable) {
@@ -305,6 +324,15 @@ public class ModulePrinter {
         instrData.operands.add(String.valueOf(executable.constantPool[index]));
     }
 
+    public void printRegisterOperand(int operand) {
+        if (operand >= 0) {
+            printLocal(operand);
+        } else {
+            // Константы помечаются решеткой, чтобы не путать их с номерами регистров.
+            instrData.operands.add("#" + executable.constantPool[-1 - operand]);
+        }
+    }
+
     public void printFuncRef(int index) {
         Code.Callee o = (Code.Callee) executable.constantPool[index];
         printLiteral(o.utf8);
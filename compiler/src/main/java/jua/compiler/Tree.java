@@ -25,6 +25,7 @@ public abstract class Tree {
         DISCARDED,
         LITERAL,
         LISTLIT,
+        MAPLIT,
         VAR,
         MEMACCESS,
         ARRACC,
@@ -91,6 +92,7 @@ public abstract class Tree {
         void visitDiscarded(Discarded tree);
         void visitLiteral(Literal tree);
         void visitListLiteral(ListLiteral tree);
+        void visitMapLiteral(MapLiteral tree);
         void visitVariable(Var tree);
         void visitMember(Member tree);
         void visitIndex(Index tree);
@@ -155,6 +157,9 @@ public abstract class Tree {
         @Override
         public void visitListLiteral(ListLiteral tree) { visitTree(tree); }
 
+        @Override
+        public void visitMapLiteral(MapLiteral tree) { visitTree(tree); }
+
         @Override
         public void visitVariable(Var tree) { visitTree(tree); }
 
@@ -298,6 +303,14 @@ public abstract class Tree {
             scan(tree.entries);
         }
 
+        @Override
+        public void visitMapLiteral(MapLiteral tree) {
+            Flow.forEach(tree.entries, e -> {
+                scan(e.key);
+                scan(e.value);
+            });
+        }
+
         @Override
         public void visitVariable(Var tree) {  }
 
@@ -487,6 +500,15 @@ public abstract class Tree {
             result = tree;
         }
 
+        @Override
+        public void visitMapLiteral(MapLiteral tree) {
+            Flow.forEach(tree.entries, e -> {
+                e.key = translate(e.key);
+                e.value = translate(e.value);
+            });
+            result = tree;
+        }
+
         @Override
         public void visitVariable(Var tree) { result = tree; }
 
@@ -928,6 +950,37 @@ public abstract class Tree {
         public void accept(Visitor visitor) { visitor.visitListLiteral(this); }
     }
 
+    public static class MapLiteral extends Expr {
+
+        public static class Entry {
+
+            public final int pos;
+
+            public Expr key;
+
+            public Expr value;
+
+            public Entry(int pos, Expr key, Expr value) {
+                this.pos = pos;
+                this.key = key;
+                this.value = value;
+            }
+        }
+
+        public Flow<Entry> entries;
+
+        public MapLiteral(int pos, Flow<Entry> entries) {
+            super(pos);
+            this.entries = entries;
+        }
+
+        @Override
+        public Tag getTag() { return Tag.MAPLIT; }
+
+        @Override
+        public void accept(Visitor visitor) { visitor.visitMapLiteral(this); }
+    }
+
     public static class Var extends Expr {
 
         public final String name;
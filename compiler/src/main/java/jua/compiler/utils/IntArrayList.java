@@ -31,6 +31,10 @@ public class IntArrayList {
         return elements[index];
     }
 
+    public void set(int index, int element) {
+        elements[index] = element;
+    }
+
     public int indexOf(int element) {
         for (int i = 0; i < size(); i++) {
             if (get(i) == element) {
@@ -5,8 +5,58 @@ import jua.runtime.interpreter.AddressSupport;
 import jua.runtime.interpreter.AddressUtils;
 import jua.runtime.interpreter.InterpreterThread;
 
+/**
+ * Контекст вызова нативной функции.
+ * Аргументы не копируются: контекст смотрит на окно стека потока, в котором они лежат.
+ * Поток переиспользует один контекст для всех вызовов на одной глубине вложенности,
+ * поэтому ссылки на контекст и его адреса нельзя сохранять после возврата из функции.
+ */
 public final class Context {
 
+    private Address[] window;
+
+    private int base;
+
+    private int argc;
+
+    private final Address tmp = new Address();
+
+    /**
+     * Привязывает контекст к аргументам очередного вызова.
+     * Аргумент {@code i} лежит в {@code window[base + i]}.
+     */
+    public void bind(Address[] window, int base, int argc) {
+        this.window = window;
+        this.base = base;
+        this.argc = argc;
+    }
+
+    /**
+     * Отвязывает контекст от стека, чтобы он не удерживал значения после вызова.
+     */
+    public void unbind() {
+        window = null;
+        tmp.reset();
+    }
+
+    /**
+     * Возвращает аргумент с указанным индексом. Для опущенных необязательных
+     * параметров возвращается значение по умолчанию.
+     */
+    public Address arg(int index) {
+        return window[base + index];
+    }
+
+    /** Возвращает количество фактически переданных аргументов. */
+    public int argc() {
+        return argc;
+    }
+
+    /** Возвращает временный адрес, который функция может использовать до конца вызова. */
+    public Address tmp() {
+        return tmp;
+    }
+
     public void error(String msg) {
         throw new RuntimeErrorException(msg);
     }
@@ -9,6 +9,7 @@ public final class Function {
     public static final int FLAG_HIDDEN = 0x02; /* Функция не показывается в трассировке стека */
     public static final int FLAG_ONCE = 0x04;   /* Функция выполняется единожды, затем возвращается только результат */
     public static final int FLAG_KILLER = 0x08; /* Функция, которая точно прекращает выполнение потока1 */
+    public static final int FLAG_CALLS_BY_NAME = 0x10; /* Нативная функция, которая вызывает функции по имени */
 
     private final String name;
 
@@ -31,6 +32,13 @@ public final class Function {
     public Address onceContainer;
     public boolean onceCondition = false; // false=функция должна выполниться, true=только вернуть значение
 
+    /**
+     * Число вызовов и обратных переходов на первом уровне, см. {@link jua.runtime.jit.JitCompiler}.
+     * Счетчики {@code long}: с большим {@code jua.jit.threshold} их сумма не помещается в {@code int}.
+     */
+    public long invocationCounter = 0;
+    public long backEdgeCounter = 0;
+
     public Function(String name, String module, int minArgc, int maxArgc, String[] params, Address[] defaults, int flags, CodeData code, NativeExecutor nativeBody) {
         this.name = name;
         this.module = module;
@@ -91,6 +99,11 @@ public final class Function {
         return (flags & FLAG_ONCE) == FLAG_ONCE;
     }
 
+    /** Может ли функция вызвать любую другую по имени, известному только при выполнении. */
+    public boolean callsByName() {
+        return (flags & FLAG_CALLS_BY_NAME) == FLAG_CALLS_BY_NAME;
+    }
+
     public NativeExecutor nativeExecutor() {
         if ((flags & FLAG_NATIVE) == 0) {
             throw new IllegalStateException("trying to access the native executor of a non-native function");
@@ -5,5 +5,9 @@ import jua.runtime.interpreter.Address;
 @FunctionalInterface
 public interface JuaCallable {
 
-    void call(Context context, Address[] args, Address returnAddress);
+    /**
+     * @param context       Контекст вызова. Аргументы берутся через {@link Context#arg(int)}.
+     * @param returnAddress Адрес, в который нужно записать возвращаемое значение.
+     */
+    void call(Context context, Address returnAddress);
 }
@@ -1,7 +1,7 @@
 package jua.runtime;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class JuaEnvironment {
 
@@ -11,7 +11,12 @@ public final class JuaEnvironment {
         return environment;
     }
 
-    private final Map<String, Function> fntab = new HashMap<>();
+    /**
+     * Таблица функций. Вызовы связываются с функциями при компоновке,
+     * по имени функции ищутся только несвязанными вызовами и нативными функциями,
+     * которые могут выполняться в разных потоках.
+     */
+    private final Map<String, Function> fntab = new ConcurrentHashMap<>();
 
     private JuaEnvironment() {
         if (environment != null) {
@@ -25,22 +30,16 @@ public final class JuaEnvironment {
         }
 
         String name = function.getName();
-        synchronized (fntab) {
-            if (fntab.containsKey(name)) {
-                throw new RuntimeErrorException("Unable to override function \"" + name + "\"");
-            }
-            fntab.put(name, function);
+        if (fntab.putIfAbsent(name, function) != null) {
+            throw new RuntimeErrorException("Unable to override function \"" + name + "\"");
         }
     }
 
     public Function lookupFunction(String name) {
-        if (!fntab.containsKey(name)) {
-            synchronized (fntab) {
-                if (!fntab.containsKey(name)) {
-                    throw new RuntimeErrorException("Function \"" + name + "\" doesnt exist");
-                }
-            }
+        Function function = fntab.get(name);
+        if (function == null) {
+            throw new RuntimeErrorException("Function \"" + name + "\" doesnt exist");
         }
-        return fntab.get(name);
+        return function;
     }
 }
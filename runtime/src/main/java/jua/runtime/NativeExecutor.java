@@ -8,5 +8,5 @@ import jua.runtime.interpreter.Address;
 @FunctionalInterface
 public interface NativeExecutor {
 
-    boolean execute(Address[] args, int argc, Address returnAddress);
+    boolean execute(Context context, Address returnAddress);
 }
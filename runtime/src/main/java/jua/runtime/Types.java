@@ -1,6 +1,8 @@
 package jua.runtime;
 
 import jua.runtime.heap.ListHeap;
+import jua.runtime.heap.MapHeap;
+import jua.runtime.heap.SetHeap;
 import jua.runtime.heap.StringHeap;
 
 /**
@@ -16,7 +18,9 @@ public class Types {
     public static final byte T_FLOAT = 3;
     public static final byte T_BOOLEAN = 4;
     public static final byte T_STRING = 5;
+    public static final byte T_MAP = 6;
     public static final byte T_LIST = 7;
+    public static final byte T_SET = 8;
 
     /** Возвращает имя типа. */
     public static String getTypeName(byte type) {
@@ -27,7 +31,9 @@ public class Types {
             case T_FLOAT:   return "float";
             case T_BOOLEAN: return "boolean";
             case T_STRING:  return "string";
+            case T_MAP:     return "map";
             case T_LIST:    return "list";
+            case T_SET:     return "set";
             default:        return "<" + Integer.toHexString(type) + ">";
         }
     }
@@ -85,6 +91,14 @@ public class Types {
         return li.nonEmpty();
     }
 
+    public static boolean m2b(MapHeap m) {
+        return m.nonEmpty();
+    }
+
+    public static boolean s2b(SetHeap s) {
+        return s.nonEmpty();
+    }
+
     public static int hashOfLong(long lval) {
         return Long.hashCode(lval);
     }
@@ -104,4 +118,12 @@ public class Types {
     public static int hashOfList(ListHeap l) {
         return l.hashCode();
     }
+
+    public static int hashOfMap(MapHeap m) {
+        return m.hashCode();
+    }
+
+    public static int hashOfSet(SetHeap s) {
+        return s.hashCode();
+    }
 }
@@ -1,6 +1,11 @@
 package jua.runtime.code;
 
+import jua.runtime.interpreter.DenseCodeAnalysis;
+import jua.runtime.interpreter.closure.ClosureCode;
 import jua.runtime.interpreter.instruction.Instruction;
+import jua.runtime.jit.CompiledCode;
+
+import java.util.Objects;
 
 public final class CodeData {
 
@@ -17,18 +22,52 @@ public final class CodeData {
     private final Instruction[] code;
 
     /** Пул констант, используемых в коде. */
-    private final ConstantPool constantPool;
+    private final NewConstantPool constantPool;
 
     /** Таблица строк. */
     private final LineNumberTable lineNumTable;
 
-    public CodeData(int stackWide, int locals, String[] vars, Instruction[] code, ConstantPool constantPool, LineNumberTable lineNumTable) {
+    /**
+     * Плотное представление кода: коды операций вперемешку с операндами.
+     * Выполняется switch-интерпретатором. Равно {@code null}, если не было сгенерировано.
+     */
+    private final int[] denseCode;
+
+    /** Номер инструкции из {@link #code} для каждой ячейки {@link #denseCode}. */
+    private final int[] denseCodeIndexes;
+
+    /** Плотный код, скомпилированный в байткод JVM. Равно {@code null}, пока функция не стала горячей. */
+    private CompiledCode compiledCode;
+
+    /** Плотный код, собранный в дерево узлов. Равно {@code null}, пока функция не выполнялась. */
+    private ClosureCode closureCode;
+
+    /** Глубины стека плотного кода, полученные при проверке ({@link #setVerified(DenseCodeAnalysis)}). */
+    private DenseCodeAnalysis denseCodeAnalysis;
+
+    /** Компиляция или анализ плотного кода уже не удались. */
+    private boolean notCompilable;
+
+    /**
+     * Код прошел {@link jua.runtime.interpreter.CodeVerifier} и выполняется без проверок.
+     * Иначе функция выполняется объектами инструкций с проверками.
+     */
+    private boolean verified;
+
+    public CodeData(int stackWide, int locals, String[] vars, Instruction[] code, NewConstantPool constantPool, LineNumberTable lineNumTable) {
+        this(stackWide, locals, vars, code, constantPool, lineNumTable, null, null);
+    }
+
+    public CodeData(int stackWide, int locals, String[] vars, Instruction[] code, NewConstantPool constantPool, LineNumberTable lineNumTable,
+                    int[] denseCode, int[] denseCodeIndexes) {
         this.stackWide = stackWide;
         this.regNumber = locals;
         this.vars = vars;
         this.code = code;
         this.constantPool = constantPool;
         this.lineNumTable = lineNumTable;
+        this.denseCode = denseCode;
+        this.denseCodeIndexes = denseCodeIndexes;
     }
 
     public int getStackWide() {
@@ -51,7 +90,64 @@ public final class CodeData {
         return lineNumTable;
     }
 
-    public ConstantPool getConstantPool() {
+    public NewConstantPool getConstantPool() {
         return constantPool;
     }
+
+    public int[] getDenseCode() {
+        return denseCode;
+    }
+
+    public boolean hasDenseCode() {
+        return denseCode != null;
+    }
+
+    public CompiledCode getCompiledCode() {
+        return compiledCode;
+    }
+
+    public void setCompiledCode(CompiledCode compiledCode) {
+        this.compiledCode = compiledCode;
+    }
+
+    public ClosureCode getClosureCode() {
+        return closureCode;
+    }
+
+    public void setClosureCode(ClosureCode closureCode) {
+        this.closureCode = closureCode;
+    }
+
+    public DenseCodeAnalysis getDenseCodeAnalysis() {
+        return denseCodeAnalysis;
+    }
+
+    public boolean isVerified() {
+        return verified;
+    }
+
+    /** Отмечает код проверенным. Глубины стека, полученные при проверке, сохраняются для интерпретаторов. */
+    public void setVerified(DenseCodeAnalysis analysis) {
+        denseCodeAnalysis = Objects.requireNonNull(analysis, "analysis");
+        verified = true;
+    }
+
+    public boolean isNotCompilable() {
+        return notCompilable;
+    }
+
+    public void setNotCompilable() {
+        notCompilable = true;
+    }
+
+    /**
+     * Переводит точку выполнения в номер инструкции из {@link #getCode()}.
+     * Для плотного кода точка выполнения это смещение в {@link #getDenseCode()}.
+     */
+    public int toInstructionIndex(int cp) {
+        if (denseCode == null || cp < 0) {
+            return cp;
+        }
+        return denseCodeIndexes[Math.min(cp, denseCodeIndexes.length - 1)];
+    }
 }
@@ -7,16 +7,64 @@ import jua.runtime.memory.ReadOnlyMemory;
 
 import static jua.runtime.Types.*;
 
+/**
+ * Пул констант. Константы лежат в памяти уже разобранными по типам: тип, 64-битное значение и ссылка,
+ * поэтому загрузка константы это пара чтений из массивов.
+ * <p>
+ * Строки ({@link StringHeap}) не изменяются, поэтому разделяются без копирования.
+ * Вызываемые функции ({@link ResolvableCallee}) хранятся как ссылки с типом {@link jua.runtime.Types#T_UNDEFINED}:
+ * загрузить их как значение нельзя.
+ */
 public final class NewConstantPool {
 
+    /** Максимальный размер пула констант. */
+    public static final int MAX_SIZE = 65535;
+
     private final ReadOnlyMemory memory;
 
-    public NewConstantPool(ReadOnlyMemory memory) {
+    private final int size;
+
+    /**
+     * Значения констант для операндов регистровых инструкций, которые читают константу
+     * как {@link Address}. Для вызываемых функций равно {@code null}.
+     */
+    private final Address[] addresses;
+
+    /** Хеши значений констант, чтобы *switch-инструкции не считали их при каждом выполнении. */
+    private final int[] hashes;
+
+    public NewConstantPool(ReadOnlyMemory memory, int size) {
+        if (memory == null) {
+            throw new IllegalArgumentException("memory must not be null");
+        }
+        if (size > MAX_SIZE) {
+            throw new IllegalArgumentException("constant pool must not contain more than NewConstantPool.MAX_SIZE entries");
+        }
         this.memory = memory;
+        this.size = size;
+        addresses = new Address[size];
+        hashes = new int[size];
+        for (int i = 0; i < size; i++) {
+            if (memory.getTypeAt(i) != T_UNDEFINED) {
+                Address address = new Address();
+                readToAddress(i, address);
+                addresses[i] = address;
+                hashes[i] = address.hashCode();
+            }
+        }
+    }
+
+    public int size() {
+        return size;
     }
 
     public String getString(int index) {
-        return (String) memory.getRefAt(index);
+        return memory.getRefAt(index).toString();
+    }
+
+    /** Является ли константа вызываемой функцией. */
+    public boolean isCallee(int index) {
+        return memory.getTypeAt(index) == T_UNDEFINED;
     }
 
     public ResolvableCallee getCallee(int index) {
@@ -40,8 +88,7 @@ public final class NewConstantPool {
                 address.set(memory.getLongAt(index) != 0);
                 break;
             case T_STRING:
-                String str = getString(index);
-                address.set(new StringHeap(str));
+                address.set((StringHeap) memory.getRefAt(index));
                 break;
             case T_NULL:
                 address.setNull();
@@ -50,4 +97,17 @@ public final class NewConstantPool {
                 throw new InterpreterException("Illegal type in constant pool: " + getTypeName(type));
         }
     }
+
+    /**
+     * Возвращает значение константы без копирования.
+     * Используется операндами регистровых инструкций, возвращаемый адрес изменять нельзя.
+     */
+    public Address getAddress(int index) {
+        return addresses[index];
+    }
+
+    /** Возвращает хеш значения константы, равный {@link Address#hashCode()}. */
+    public int getHash(int index) {
+        return hashes[index];
+    }
 }
@@ -1,93 +1,612 @@
 package jua.runtime.heap;
 
 import jua.runtime.interpreter.Address;
-import jua.runtime.interpreter.AddressSupport;
-import jua.runtime.interpreter.AddressUtils;
 
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.StringJoiner;
 
+import static jua.runtime.Types.*;
+
+/**
+ * Список. Элементы лежат в начале хранилища, за ними запас емкости,
+ * поэтому добавление в конец и удаление с конца стоят амортизированно O(1).
+ * <p>
+ * Хранилище выбирается по типам элементов:
+ * <ul>
+ *     <li>{@link #NULLS} — все элементы {@code null}, хранилища нет;</li>
+ *     <li>{@link #LONGS} — целые либо вещественные числа в {@code long[]}, вещественные
+ *     в виде {@link Double#doubleToRawLongBits(double)}, как в {@link Address};</li>
+ *     <li>{@link #FLAGS} — логические значения по биту на элемент;</li>
+ *     <li>{@link #ADDRESSES} — элементы любых типов в {@link Address}.</li>
+ * </ul>
+ * В скалярных хранилищах элементы {@code null} отмечаются в битовой маске {@code nulls}.
+ * Запись значения другого типа переводит список в {@link #ADDRESSES}, обратно список не возвращается.
+ * Исключение — список из одних {@code null}: его хранилище выбирается заново по первому значению.
+ * <p>
+ * Элементы скалярных хранилищ не являются адресами, поэтому список читается и пишется
+ * через {@link #load(int, Address)} и {@link #store(int, Address)}, а не через ссылки на элементы.
+ * <p>
+ * {@link #deepCopy()} не копирует элементы: копия разделяет хранилище с оригиналом,
+ * и хранилище копируется при первом изменении любого из списков.
+ * Вложенные списки, словари и множества можно изменить и в обход списка, через другие ссылки на них,
+ * поэтому копия сразу получает их копии ({@link #children}), а общее хранилище отдает только оригиналу.
+ * Копии вложенных списков тоже разделяют хранилище с оригиналами, поэтому элементы
+ * каждого уровня копируются только при первом изменении этого уровня.
+ */
 public final class ListHeap extends Heap implements Iterable<Address> {
 
-    private final Address[] data;
+    private static final byte NULLS = 0;
+    private static final byte LONGS = 1;
+    private static final byte FLAGS = 2;
+    private static final byte ADDRESSES = 3;
+
+    /** Хранилище элементов. */
+    private byte storage = NULLS;
+
+    /** Тип элементов хранилища {@link #LONGS}: {@code T_INT} или {@code T_FLOAT}. */
+    private byte elementType;
+
+    private long[] longs;
+
+    private long[] flags;
+
+    /** Маска элементов {@code null} скалярных хранилищ. Создается при первом {@code null}. */
+    private long[] nulls;
+
+    /** Число установленных битов в {@link #nulls}. */
+    private int nullCount;
+
+    /**
+     * Адреса хранилища {@link #ADDRESSES}. Адреса элементов {@code [0, size)} всегда созданы;
+     * адреса в запасе создаются при первом использовании и переиспользуются после удаления элементов.
+     */
+    private Address[] data;
+
+    /** Число элементов. */
+    private int size;
 
-    /** Указатель на конец списка */
-    private int key = 0;
+    /** Число элементов, которое список вмещает без расширения. */
+    private int capacity;
 
+    /** Число элементов хранилища {@link #ADDRESSES}, которые являются списками, словарями или множествами. */
+    private int containers;
+
+    /** Владельцы хранилища, если список разделяет его с копиями после {@link #deepCopy()}, иначе {@code null}. */
+    private Share share;
+
+    /**
+     * Копии вложенных значений для списка, который разделяет хранилище {@link #ADDRESSES} с другими:
+     * на месте списка, словаря или множества лежит его копия, на местах скаляров {@code null}.
+     * Список читает их вместо адресов хранилища, пока не получит свое хранилище.
+     * Если {@code null}, список читает хранилище как есть.
+     */
+    private Address[] children;
+
+    /** Список из {@code size} элементов {@code null}. */
     public ListHeap(int size) {
         if (size < 0) {
             throw new IllegalArgumentException("size must not be negative");
         }
-        data = AddressUtils.allocateMemoryNulls(size, 0);
+        this.size = size;
+        this.capacity = size;
     }
 
     public ListHeap(Address[] source) {
-        if (source == null) {
-            throw new IllegalArgumentException("source must not be null");
+        this(source.length);
+        for (int i = 0; i < source.length; i++) {
+            store(i, source[i]);
         }
-        data = new Address[source.length];
-        AddressUtils.arraycopy(source, 0, data, 0, source.length);
     }
 
     public int length() {
-        return data.length;
+        return size;
+    }
+
+    /** Возвращает число элементов, которое список вмещает без расширения. */
+    public int capacity() {
+        return capacity;
     }
 
-    public int key() {
-        return key;
+    /** Гарантирует, что список вмещает хотя бы {@code capacity} элементов без расширения. */
+    public void ensureCapacity(int capacity) {
+        if (this.capacity < capacity) {
+            resize(Math.max(capacity, this.capacity * 2));
+        }
+    }
+
+    private void resize(int capacity) {
+        beforeWrite();
+        this.capacity = capacity;
+        switch (storage) {
+            case LONGS:
+                longs = Arrays.copyOf(longs, capacity);
+                break;
+            case FLAGS:
+                flags = Arrays.copyOf(flags, words(capacity));
+                break;
+            case ADDRESSES:
+                data = Arrays.copyOf(data, capacity);
+                break;
+        }
+        if (nulls != null) {
+            nulls = Arrays.copyOf(nulls, words(capacity));
+        }
+    }
+
+    private static int words(int bits) {
+        return (bits + 63) >>> 6;
+    }
+
+    private static boolean testBit(long[] words, int index) {
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static void putBit(long[] words, int index, boolean value) {
+        if (value) {
+            words[index >>> 6] |= 1L << index;
+        } else {
+            words[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    /** Переносит биты {@code [from, to)} на {@code distance} позиций. */
+    private static void moveBits(long[] words, int from, int to, int distance) {
+        if (distance > 0) {
+            for (int i = to - 1; i >= from; i--) putBit(words, i + distance, testBit(words, i));
+        } else {
+            for (int i = from; i < to; i++) putBit(words, i + distance, testBit(words, i));
+        }
+    }
+
+    private boolean isNullAt(int index) {
+        return nullCount != 0 && testBit(nulls, index);
+    }
+
+    private void markNull(int index) {
+        if (nulls == null) {
+            nulls = new long[words(capacity)];
+        }
+        if (!testBit(nulls, index)) {
+            putBit(nulls, index, true);
+            nullCount++;
+        }
     }
 
-    public void setKey(int key) {
-        if (key < 0 || key > length()) {
-            throw new IndexOutOfBoundsException();
+    private void unmarkNull(int index) {
+        if (isNullAt(index)) {
+            putBit(nulls, index, false);
+            nullCount--;
         }
-        this.key = key;
     }
 
-    public Address get(int index) {
+    /** Выбирает скалярное хранилище для списка, в котором нет значений, кроме {@code null}. */
+    private void specialize(byte type) {
+        boolean hadValues = storage != NULLS;
+        if (type == T_BOOLEAN) {
+            storage = FLAGS;
+            flags = new long[words(capacity)];
+            longs = null;
+        } else {
+            storage = LONGS;
+            elementType = type;
+            longs = new long[capacity];
+            flags = null;
+        }
+        if (!hadValues) {
+            nulls = new long[words(capacity)];
+            Arrays.fill(nulls, 0, size >>> 6, -1L);
+            for (int i = size & ~63; i < size; i++) putBit(nulls, i, true);
+            nullCount = size;
+        }
+    }
+
+    /** Переводит список в хранилище {@link #ADDRESSES}. */
+    private void generalize() {
+        Address[] addresses = new Address[capacity];
+        for (int i = 0; i < size; i++) {
+            Address element = new Address();
+            load(i, element);
+            addresses[i] = element;
+        }
+        storage = ADDRESSES;
+        data = addresses;
+        longs = null;
+        flags = null;
+        nulls = null;
+        nullCount = 0;
+    }
+
+    private static boolean isContainer(byte type) {
+        return type == T_LIST || type == T_MAP || type == T_SET;
+    }
+
+    /** Записывает значение в адрес элемента хранилища {@link #ADDRESSES}. */
+    private void setElement(Address element, Address value) {
+        forgetElement(element);
+        element.set(value);
+        if (isContainer(element.getType())) {
+            containers++;
+        }
+    }
+
+    /** Учитывает, что прежнее значение адреса элемента будет затерто. */
+    private void forgetElement(Address element) {
+        if (isContainer(element.getType())) {
+            containers--;
+        }
+    }
+
+    /** Отделяет хранилище от копий перед изменением. */
+    private void beforeWrite() {
+        if (share != null) {
+            unshare();
+        }
+    }
+
+    private void unshare() {
+        if (!share.leave()) {
+            // Хранилище осталось только у этого списка, копии вложенных значений занимают свои места
+            if (children != null) {
+                for (int i = 0; i < size; i++) {
+                    if (children[i] != null) {
+                        data[i].set(children[i]);
+                    }
+                }
+            }
+        } else {
+            switch (storage) {
+                case LONGS:
+                    longs = longs.clone();
+                    break;
+                case FLAGS:
+                    flags = flags.clone();
+                    break;
+                case ADDRESSES: {
+                    Address[] addresses = new Address[capacity];
+                    for (int i = 0; i < size; i++) {
+                        addresses[i] = new Address();
+                        addresses[i].set(elementAt(i));
+                    }
+                    data = addresses;
+                    break;
+                }
+            }
+            if (nulls != null) {
+                nulls = nulls.clone();
+            }
+        }
+        share = null;
+        children = null;
+    }
+
+    /** Возвращает адрес элемента {@code index} хранилища {@link #ADDRESSES} с учетом {@link #children}. */
+    private Address elementAt(int index) {
+        if (children != null && children[index] != null) {
+            return children[index];
+        }
         return data[index];
     }
 
-    public Address get() {
-        return get(key());
+    /** Возвращает тип элемента {@code index}. */
+    public byte typeAt(int index) {
+        switch (storage) {
+            case NULLS:
+                return T_NULL;
+            case LONGS:
+                return isNullAt(index) ? T_NULL : elementType;
+            case FLAGS:
+                return isNullAt(index) ? T_NULL : T_BOOLEAN;
+            default:
+                return data[index].getType();
+        }
     }
 
-    public Address add() {
-        int k = key();
-        setKey(k + 1);
-        return data[k];
+    /**
+     * Возвращает значение скалярного элемента {@code index} в виде {@link Address#getBits()}.
+     * Тип элемента должен быть скалярным, кроме строки.
+     */
+    public long bitsAt(int index) {
+        switch (storage) {
+            case LONGS:
+                return longs[index];
+            case FLAGS:
+                return testBit(flags, index) ? 1L : 0L;
+            default:
+                return data[index].getBits();
+        }
+    }
+
+    /** Записывает значение элемента {@code index} в {@code receiver}. */
+    public void load(int index, Address receiver) {
+        switch (storage) {
+            case NULLS:
+                receiver.setNull();
+                break;
+            case LONGS:
+                if (isNullAt(index)) {
+                    receiver.setNull();
+                } else if (elementType == T_INT) {
+                    receiver.set(longs[index]);
+                } else {
+                    receiver.set(Double.longBitsToDouble(longs[index]));
+                }
+                break;
+            case FLAGS:
+                if (isNullAt(index)) {
+                    receiver.setNull();
+                } else {
+                    receiver.set(testBit(flags, index));
+                }
+                break;
+            default:
+                receiver.set(elementAt(index));
+                break;
+        }
+    }
+
+    /** Записывает значение в элемент {@code index}. */
+    public void store(int index, Address value) {
+        beforeWrite();
+        byte type = value.getType();
+        switch (type) {
+            case T_INT:
+            case T_FLOAT:
+            case T_BOOLEAN:
+                storeScalar(index, type, value.getBits());
+                break;
+            case T_NULL:
+                storeNull(index);
+                break;
+            default:
+                if (storage != ADDRESSES) {
+                    generalize();
+                }
+                setElement(data[index], value);
+                break;
+        }
+    }
+
+    /**
+     * Записывает в элемент {@code index} значение скалярного типа, кроме строки.
+     *
+     * @param bits Значение в виде {@link Address#getBits()}.
+     */
+    public void storeScalar(int index, byte type, long bits) {
+        beforeWrite();
+        switch (storage) {
+            case LONGS:
+                if (type == elementType) {
+                    longs[index] = bits;
+                    unmarkNull(index);
+                    return;
+                }
+                break;
+            case FLAGS:
+                if (type == T_BOOLEAN) {
+                    putBit(flags, index, bits != 0L);
+                    unmarkNull(index);
+                    return;
+                }
+                break;
+            case ADDRESSES:
+                forgetElement(data[index]);
+                setBits(data[index], type, bits);
+                return;
+        }
+        if (storage == NULLS || nullCount == size) {
+            specialize(type);
+        } else {
+            generalize();
+        }
+        storeScalar(index, type, bits);
+    }
+
+    private static void setBits(Address address, byte type, long bits) {
+        switch (type) {
+            case T_INT: address.set(bits); break;
+            case T_FLOAT: address.set(Double.longBitsToDouble(bits)); break;
+            default: address.set(bits != 0L); break;
+        }
+    }
+
+    private void storeNull(int index) {
+        switch (storage) {
+            case LONGS:
+            case FLAGS:
+                markNull(index);
+                break;
+            case ADDRESSES:
+                forgetElement(data[index]);
+                data[index].setNull();
+                break;
+        }
+    }
+
+    /**
+     * Увеличивает элемент {@code index} на единицу, записывая прежнее значение в {@code oldValueReceptor}.
+     * Возвращает {@code false}, если элемент нельзя увеличить.
+     */
+    public boolean inc(int index, Address oldValueReceptor) {
+        return increment(index, oldValueReceptor, 1);
+    }
+
+    /**
+     * Уменьшает элемент {@code index} на единицу, записывая прежнее значение в {@code oldValueReceptor}.
+     * Возвращает {@code false}, если элемент нельзя уменьшить.
+     */
+    public boolean dec(int index, Address oldValueReceptor) {
+        return increment(index, oldValueReceptor, -1);
+    }
+
+    private boolean increment(int index, Address oldValueReceptor, int delta) {
+        beforeWrite();
+        if (storage == LONGS && !isNullAt(index)) {
+            load(index, oldValueReceptor);
+            if (elementType == T_INT) {
+                longs[index] += delta;
+            } else {
+                longs[index] = Double.doubleToRawLongBits(Double.longBitsToDouble(longs[index]) + delta);
+            }
+            return true;
+        }
+        if (storage == ADDRESSES) {
+            Address element = data[index];
+            oldValueReceptor.set(element);
+            return (delta > 0) ? element.inc() : element.dec();
+        }
+        // null и логические значения изменить нельзя, ошибку сообщает адрес
+        load(index, oldValueReceptor);
+        Address element = new Address();
+        element.set(oldValueReceptor);
+        return (delta > 0) ? element.inc() : element.dec();
+    }
+
+    /** Добавляет значение в конец списка. */
+    public void push(Address value) {
+        beforeWrite();
+        ensureCapacity(size + 1);
+        int index = size++;
+        if (storage == ADDRESSES) {
+            Address slot = data[index];
+            if (slot == null) {
+                slot = data[index] = new Address();
+            }
+            setElement(slot, value);
+            return;
+        }
+        if (storage == LONGS && value.getType() == elementType) {
+            longs[index] = value.getBits();
+            return;
+        }
+        storeNull(index);
+        store(index, value);
+    }
+
+    /** Удаляет последний элемент и записывает его в {@code receiver}. Список не должен быть пуст. */
+    public void pop(Address receiver) {
+        beforeWrite();
+        int index = size - 1;
+        load(index, receiver);
+        if (storage == ADDRESSES) {
+            forgetElement(data[index]);
+            data[index].reset(); // В помощь GC
+        } else {
+            unmarkNull(index);
+        }
+        size = index;
+    }
+
+    /**
+     * Вставляет значение на место {@code index} из {@code [0, length()]}, сдвигая следующие элементы.
+     * В хранилище {@link #ADDRESSES} сдвигаются ссылки на адреса, а не значения.
+     */
+    public void insert(int index, Address value) {
+        beforeWrite();
+        ensureCapacity(size + 1);
+        switch (storage) {
+            case LONGS:
+                System.arraycopy(longs, index, longs, index + 1, size - index);
+                break;
+            case FLAGS:
+                moveBits(flags, index, size, 1);
+                break;
+            case ADDRESSES: {
+                Address slot = data[size];
+                if (slot == null) {
+                    slot = new Address();
+                }
+                System.arraycopy(data, index, data, index + 1, size - index);
+                data[index] = slot;
+                break;
+            }
+        }
+        if (nullCount != 0) {
+            // Бит места index остается копией сдвинутого, он не учтен в nullCount
+            moveBits(nulls, index, size, 1);
+            putBit(nulls, index, false);
+        }
+        size++;
+        storeNull(index);
+        store(index, value);
+    }
+
+    /** Удаляет элемент с места {@code index} и записывает его в {@code receiver}. */
+    public void removeAt(int index, Address receiver) {
+        beforeWrite();
+        load(index, receiver);
+        unmarkNull(index);
+        switch (storage) {
+            case LONGS:
+                System.arraycopy(longs, index + 1, longs, index, size - index - 1);
+                break;
+            case FLAGS:
+                moveBits(flags, index + 1, size, -1);
+                break;
+            case ADDRESSES: {
+                Address slot = data[index];
+                System.arraycopy(data, index + 1, data, index, size - index - 1);
+                data[size - 1] = slot;
+                break;
+            }
+        }
+        if (nullCount != 0) {
+            moveBits(nulls, index + 1, size, -1);
+            putBit(nulls, size - 1, false);
+        }
+        if (storage == ADDRESSES) {
+            forgetElement(data[size - 1]);
+            data[size - 1].reset(); // В помощь GC
+        }
+        size--;
     }
 
     public void set(int index, Address value, Address oldValueReceptor) {
         if (oldValueReceptor != null) {
-            oldValueReceptor.set(data[index]);
+            load(index, oldValueReceptor);
         }
-        data[index].set(value);
+        store(index, value);
     }
 
+    /** Записывает {@code null} во все элементы. */
     public void clear() {
-        if (data.length > 0) {
-            data[0].setNull();
-            AddressUtils.fill(data, 1, data.length, data[0]);
+        if (share != null) {
+            share.leave();
+            share = null;
         }
+        children = null;
+        storage = NULLS;
+        containers = 0;
+        longs = null;
+        flags = null;
+        nulls = null;
+        nullCount = 0;
+        data = null;
     }
 
     public boolean contains(Address value) {
-        for (Address e : data) {
-            if (e != null) {
-                if (e.fastCompareWith(value, -1) == 0) {
+        if (storage == LONGS && elementType == T_INT && value.getType() == T_INT) {
+            long bits = value.getLong();
+            for (int i = 0; i < size; i++) {
+                if (longs[i] == bits && !isNullAt(i)) {
                     return true;
                 }
             }
+            return false;
+        }
+        Address e = new Address();
+        for (int i = 0; i < size; i++) {
+            load(i, e);
+            if (e.fastCompareWith(value, -1) == 0) {
+                return true;
+            }
         }
         return false;
     }
 
     public boolean isPresentAt(int index) {
-        return index >= 0 && index < data.length
-                && data[index] != null
-                && !data[index].isNull();
+        return index >= 0 && index < size && typeAt(index) != T_NULL;
     }
 
     public int fastCompare(ListHeap that, int unexpected) {
@@ -97,23 +616,42 @@ public final class ListHeap extends Heap implements Iterable<Address> {
     }
 
     public int compare(ListHeap another, int except) {
-        Address[] te = this.data;
-        Address[] ae = another.data;
-        int minlen = Math.min(te.length, ae.length);
+        int minlen = Math.min(size, another.size);
+        if (isIntegers() && another.isIntegers()) {
+            for (int i = 0; i < minlen; i++) {
+                int cmp = Long.compare(longs[i], another.longs[i]);
+                if (cmp != 0) return cmp;
+            }
+            return size - another.size;
+        }
+        Address te = new Address();
+        Address ae = new Address();
         for (int i = 0; i < minlen; i++) {
-            if (te[i] == null || ae[i] == null) continue;
-            int cmp = te[i].fastCompareWith(ae[i], except);
+            load(i, te);
+            another.load(i, ae);
+            int cmp = te.fastCompareWith(ae, except);
             if (cmp != 0) return cmp;
         }
-        return te.length - ae.length;
+        return size - another.size;
     }
 
+    /** Все ли элементы целые числа. */
+    private boolean isIntegers() {
+        return storage == LONGS && elementType == T_INT && nullCount == 0;
+    }
+
+    /** Возвращает копии элементов в новых адресах. */
     public Address[] getArray() {
-        return data.clone();
+        Address[] array = new Address[size];
+        for (int i = 0; i < size; i++) {
+            array[i] = new Address();
+            load(i, array[i]);
+        }
+        return array;
     }
 
     /** Возвращает {@code true}, если список пуст, в противном случае {@code false}. */
-    public boolean isEmpty() { return data.length == 0; }
+    public boolean isEmpty() { return size == 0; }
 
     /** Возвращает {@code false}, если список пуст, в противном случае {@code true}. */
     public boolean nonEmpty() { return !isEmpty(); }
@@ -125,39 +663,89 @@ public final class ListHeap extends Heap implements Iterable<Address> {
 
     @Override
     public ListHeap deepCopy() {
-        int size = data.length;
         ListHeap copy = new ListHeap(size);
-        for (int i = 0; i < size; i++) {
-            Address src = data[i];
-            if (src != null) {
-                Address dst = copy.get(i);
-                src.clone(dst);
+        copy.storage = storage;
+        if (containers != 0) {
+            // Копии вложенных значений сами разделяют хранилища с оригиналами
+            copy.children = new Address[size];
+            for (int i = 0; i < size; i++) {
+                Address element = elementAt(i);
+                if (isContainer(element.getType())) {
+                    copy.children[i] = new Address();
+                    element.clone(copy.children[i]);
+                }
             }
+            copy.containers = containers;
+        }
+        if (share == null) {
+            share = new Share();
         }
+        copy.share = share.join();
+        copy.capacity = capacity;
+        copy.elementType = elementType;
+        copy.longs = longs;
+        copy.flags = flags;
+        copy.nulls = nulls;
+        copy.nullCount = nullCount;
+        copy.data = data;
         return copy;
     }
 
+    /** Перебирает копии элементов в новых адресах. */
     @Override
     public Iterator<Address> iterator() {
-        return Arrays.asList(data).iterator();
+        return new Iterator<Address>() {
+            int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public Address next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                Address element = new Address();
+                load(index++, element);
+                return element;
+            }
+        };
     }
 
     @Override
-    public int hashCode() { return Arrays.hashCode(data); }
+    public int hashCode() {
+        int result = 1;
+        Address e = new Address();
+        for (int i = 0; i < size; i++) {
+            load(i, e);
+            result = 31 * result + e.hashCode();
+        }
+        return result;
+    }
 
     @Override
     public boolean equals(Object o) {
         if (o == this) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ListHeap x = (ListHeap) o;
-        return Arrays.equals(data, x.data);
+        if (size != x.size) return false;
+        Address te = new Address();
+        Address xe = new Address();
+        for (int i = 0; i < size; i++) {
+            load(i, te);
+            x.load(i, xe);
+            if (!te.equals(xe)) return false;
+        }
+        return true;
     }
 
     @Override
     public String toString() {
         StringJoiner buffer = new StringJoiner(", ", "[", "]");
-        for (Address element : data) {
-            buffer.add(element.toString());
+        Address e = new Address();
+        for (int i = 0; i < size; i++) {
+            load(i, e);
+            buffer.add(e.toString());
         }
         return buffer.toString();
     }
@@ -0,0 +1,297 @@
+package jua.runtime.heap;
+
+import jua.runtime.interpreter.Address;
+
+import java.util.StringJoiner;
+
+import static jua.runtime.Types.*;
+
+/**
+ * Словарь. Хеш-таблица с открытой адресацией и линейным пробированием:
+ * ключи, значения и хеши ключей лежат в параллельных массивах, размер которых степень двойки.
+ * Удаление сдвигает следующие элементы цепочки назад, поэтому таблица обходится без удаленных меток.
+ * <p>
+ * Ключи сравниваются как в {@link Address#fastCompareWith(Address, int)}, поэтому {@code 1} и {@code 1.0}
+ * это один ключ, а логические значения равны только логическим.
+ * Вещественные ключи нормализуются как в {@link #hash(Address)}: все {@code NaN} это один ключ,
+ * а {@code -0.0} совпадает с {@code 0}.
+ * Ключами могут быть только {@code null} и скалярные значения: изменение списка в роли ключа
+ * незаметно для таблицы. Строки не изменяются, поэтому строковый ключ хранится без копирования.
+ */
+public final class MapHeap extends Heap {
+
+    private static final int MIN_CAPACITY = 8;
+
+    /** Ключи. {@code null} отмечает свободную ячейку. */
+    private Address[] keys;
+
+    private Address[] values;
+
+    private int[] hashes;
+
+    /** Число элементов. */
+    private int size;
+
+    public MapHeap() {
+        this(MIN_CAPACITY);
+    }
+
+    private MapHeap(int capacity) {
+        keys = new Address[capacity];
+        values = new Address[capacity];
+        hashes = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Возвращает {@code true}, если словарь пуст, в противном случае {@code false}. */
+    public boolean isEmpty() { return size == 0; }
+
+    /** Возвращает {@code false}, если словарь пуст, в противном случае {@code true}. */
+    public boolean nonEmpty() { return !isEmpty(); }
+
+    /** Может ли значение быть ключом словаря. */
+    public static boolean isValidKey(Address key) {
+        return key.isNull() || key.isScalar();
+    }
+
+    /**
+     * Хеш ключа. Целые вещественные числа хешируются как равные им целые.
+     * Хеши похожих строк и соседних чисел идут подряд, а линейное пробирование на таких
+     * хешах собирает длинные цепочки, поэтому хеш перемешивается (финализатор MurmurHash3).
+     * Тот же хеш использует {@link SetHeap}.
+     */
+    static int hash(Address key) {
+        int h;
+        if (key.getType() == T_FLOAT && key.getDouble() == (long) key.getDouble()) {
+            h = hashOfLong((long) key.getDouble());
+        } else {
+            h = key.hashCode();
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    static boolean sameKey(Address a, Address b) {
+        byte ta = a.getType(), tb = b.getType();
+        if (ta == T_BOOLEAN || tb == T_BOOLEAN) {
+            // fastCompareWith не сравнивает логические значения
+            return ta == tb && a.getBits() == b.getBits();
+        }
+        // fastCompareWith не находит NaN и отличает -0.0 от 0
+        if (ta == T_FLOAT && tb == T_FLOAT) {
+            return floatKeyBits(a.getDouble()) == floatKeyBits(b.getDouble());
+        }
+        if (ta == T_FLOAT && tb == T_INT) {
+            return a.getDouble() == b.getLong();
+        }
+        if (ta == T_INT && tb == T_FLOAT) {
+            return a.getLong() == b.getDouble();
+        }
+        return a.fastCompareWith(b, 1) == 0;
+    }
+
+    /** Биты вещественного ключа: {@link Double#doubleToLongBits} сводит все NaN к одному, нули сводятся к {@code +0.0}. */
+    private static long floatKeyBits(double d) {
+        return d == 0 ? 0L : Double.doubleToLongBits(d);
+    }
+
+    /** Возвращает ячейку ключа либо {@code -1}, если ключа нет. */
+    private int find(Address key, int hash) {
+        int mask = keys.length - 1;
+        for (int i = hash & mask; keys[i] != null; i = (i + 1) & mask) {
+            if (hashes[i] == hash && sameKey(keys[i], key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Записывает значение ключа в {@code receiver}. Если ключа нет, записывает {@code null}.
+     * Ключ должен удовлетворять {@link #isValidKey(Address)}.
+     */
+    public void load(Address key, Address receiver) {
+        int i = find(key, hash(key));
+        if (i >= 0) {
+            receiver.set(values[i]);
+        } else {
+            receiver.setNull();
+        }
+    }
+
+    /** Возвращает адрес значения ключа без копирования либо {@code null}, если ключа нет. */
+    public Address get(Address key) {
+        int i = find(key, hash(key));
+        return (i >= 0) ? values[i] : null;
+    }
+
+    /** Есть ли в словаре ключ. */
+    public boolean containsKey(Address key) {
+        return find(key, hash(key)) >= 0;
+    }
+
+    /** Записывает значение ключа, добавляя ключ при необходимости. */
+    public void store(Address key, Address value) {
+        int hash = hash(key);
+        int i = find(key, hash);
+        if (i >= 0) {
+            values[i].set(value);
+            return;
+        }
+        if ((size + 1) * 4 > keys.length * 3) {
+            resize(keys.length * 2);
+        }
+        Address k = new Address();
+        k.set(key);
+        Address v = new Address();
+        v.set(value);
+        insert(k, v, hash);
+        size++;
+    }
+
+    private void insert(Address key, Address value, int hash) {
+        int mask = keys.length - 1;
+        int i = hash & mask;
+        while (keys[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        hashes[i] = hash;
+    }
+
+    private void resize(int capacity) {
+        Address[] oldKeys = keys;
+        Address[] oldValues = values;
+        int[] oldHashes = hashes;
+        keys = new Address[capacity];
+        values = new Address[capacity];
+        hashes = new int[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                insert(oldKeys[i], oldValues[i], oldHashes[i]);
+            }
+        }
+    }
+
+    /**
+     * Удаляет ключ и записывает его значение в {@code receiver}.
+     * Возвращает {@code false}, если ключа нет.
+     */
+    public boolean remove(Address key, Address receiver) {
+        int i = find(key, hash(key));
+        if (i < 0) {
+            return false;
+        }
+        receiver.set(values[i]);
+        size--;
+        // Сдвигаем назад элементы цепочки, которые не стоят на своих местах
+        int mask = keys.length - 1;
+        int hole = i;
+        for (int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+            int home = hashes[j] & mask;
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hashes[hole] = hashes[j];
+                hole = j;
+            }
+        }
+        keys[hole] = null;
+        values[hole] = null;
+        return true;
+    }
+
+    /** Возвращает список копий ключей в порядке таблицы. */
+    public ListHeap keys() {
+        return collect(keys);
+    }
+
+    /** Возвращает список копий значений в порядке {@link #keys()}. */
+    public ListHeap values() {
+        return collect(values);
+    }
+
+    private ListHeap collect(Address[] source) {
+        ListHeap list = new ListHeap(0);
+        list.ensureCapacity(size);
+        for (int i = 0; i < source.length; i++) {
+            if (keys[i] != null) {
+                list.push(source[i]);
+            }
+        }
+        return list;
+    }
+
+    /** Возвращает {@code 0}, если словари содержат одни и те же пары, иначе {@code unexpected}. */
+    public int fastCompare(MapHeap that, int unexpected) {
+        return equals(that) ? 0 : unexpected;
+    }
+
+    @Override
+    public MapHeap refCopy() {
+        return this;
+    }
+
+    @Override
+    public MapHeap deepCopy() {
+        MapHeap copy = new MapHeap(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                Address k = new Address();
+                k.set(keys[i]);
+                Address v = new Address();
+                values[i].clone(v);
+                copy.keys[i] = k;
+                copy.values[i] = v;
+                copy.hashes[i] = hashes[i];
+            }
+        }
+        copy.size = size;
+        return copy;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                // Порядок пар не важен, поэтому хеши складываются
+                result += hashes[i] ^ values[i].hashCode();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        MapHeap x = (MapHeap) o;
+        if (size != x.size) return false;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                Address v = x.get(keys[i]);
+                if (v == null || !values[i].equals(v)) return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner buffer = new StringJoiner(", ", "{", "}");
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                buffer.add(keys[i] + ": " + values[i]);
+            }
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,266 @@
+package jua.runtime.heap;
+
+import jua.runtime.interpreter.Address;
+
+import java.util.StringJoiner;
+
+import static jua.runtime.Types.*;
+
+/**
+ * Множество. Хеш-таблица с открытой адресацией и линейным пробированием, как {@link MapHeap}:
+ * элементы и их хеши лежат в параллельных массивах, размер которых степень двойки.
+ * <p>
+ * Элементами, как и ключами словаря, могут быть только {@code null} и скалярные значения,
+ * хеш и равенство элементов те же, что у ключей словаря.
+ * Элементы не изменяются после добавления, поэтому объединение, пересечение и разность
+ * разделяют адреса элементов с исходными множествами и не пересчитывают хеши.
+ */
+public final class SetHeap extends Heap {
+
+    private static final int MIN_CAPACITY = 8;
+
+    /** Элементы. {@code null} отмечает свободную ячейку. */
+    private Address[] elements;
+
+    private int[] hashes;
+
+    /** Число элементов. */
+    private int size;
+
+    public SetHeap() {
+        this(MIN_CAPACITY);
+    }
+
+    private SetHeap(int capacity) {
+        elements = new Address[capacity];
+        hashes = new int[capacity];
+    }
+
+    /** Возвращает пустое множество, в которое {@code expectedSize} элементов добавятся без перестроения. */
+    public static SetHeap withExpectedSize(int expectedSize) {
+        return new SetHeap(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 < expectedSize * 4) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Возвращает {@code true}, если множество пусто, в противном случае {@code false}. */
+    public boolean isEmpty() { return size == 0; }
+
+    /** Возвращает {@code false}, если множество пусто, в противном случае {@code true}. */
+    public boolean nonEmpty() { return !isEmpty(); }
+
+    /** Может ли значение быть элементом множества. */
+    public static boolean isValidElement(Address value) {
+        return MapHeap.isValidKey(value);
+    }
+
+    /** Возвращает ячейку элемента либо {@code -1}, если элемента нет. */
+    private int find(Address value, int hash) {
+        int mask = elements.length - 1;
+        for (int i = hash & mask; elements[i] != null; i = (i + 1) & mask) {
+            if (hashes[i] == hash && MapHeap.sameKey(elements[i], value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Есть ли в множестве элемент.
+     * Значение должно удовлетворять {@link #isValidElement(Address)}.
+     */
+    public boolean contains(Address value) {
+        return find(value, MapHeap.hash(value)) >= 0;
+    }
+
+    /** Добавляет копию элемента. Возвращает {@code false}, если элемент уже был в множестве. */
+    public boolean add(Address value) {
+        int hash = MapHeap.hash(value);
+        if (find(value, hash) >= 0) {
+            return false;
+        }
+        Address element = new Address();
+        element.set(value);
+        append(element, hash);
+        return true;
+    }
+
+    /** Добавляет элемент, которого заведомо нет в множестве. */
+    private void append(Address element, int hash) {
+        if ((size + 1) * 4 > elements.length * 3) {
+            resize(elements.length * 2);
+        }
+        insert(element, hash);
+        size++;
+    }
+
+    private void insert(Address element, int hash) {
+        int mask = elements.length - 1;
+        int i = hash & mask;
+        while (elements[i] != null) {
+            i = (i + 1) & mask;
+        }
+        elements[i] = element;
+        hashes[i] = hash;
+    }
+
+    private void resize(int capacity) {
+        Address[] oldElements = elements;
+        int[] oldHashes = hashes;
+        elements = new Address[capacity];
+        hashes = new int[capacity];
+        for (int i = 0; i < oldElements.length; i++) {
+            if (oldElements[i] != null) {
+                insert(oldElements[i], oldHashes[i]);
+            }
+        }
+    }
+
+    /** Удаляет элемент. Возвращает {@code false}, если элемента нет. */
+    public boolean remove(Address value) {
+        int i = find(value, MapHeap.hash(value));
+        if (i < 0) {
+            return false;
+        }
+        size--;
+        // Сдвигаем назад элементы цепочки, которые не стоят на своих местах
+        int mask = elements.length - 1;
+        int hole = i;
+        for (int j = (i + 1) & mask; elements[j] != null; j = (j + 1) & mask) {
+            int home = hashes[j] & mask;
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                elements[hole] = elements[j];
+                hashes[hole] = hashes[j];
+                hole = j;
+            }
+        }
+        elements[hole] = null;
+        return true;
+    }
+
+    /** Возвращает множество элементов обоих множеств. */
+    public SetHeap union(SetHeap that) {
+        SetHeap larger = (size >= that.size) ? this : that;
+        SetHeap smaller = (larger == this) ? that : this;
+        SetHeap result = new SetHeap(capacityFor(size + that.size));
+        for (int i = 0; i < larger.elements.length; i++) {
+            if (larger.elements[i] != null) {
+                result.insert(larger.elements[i], larger.hashes[i]);
+            }
+        }
+        result.size = larger.size;
+        for (int i = 0; i < smaller.elements.length; i++) {
+            Address element = smaller.elements[i];
+            if (element != null && result.find(element, smaller.hashes[i]) < 0) {
+                result.insert(element, smaller.hashes[i]);
+                result.size++;
+            }
+        }
+        return result;
+    }
+
+    /** Возвращает множество общих элементов. */
+    public SetHeap intersection(SetHeap that) {
+        SetHeap smaller = (size <= that.size) ? this : that;
+        SetHeap larger = (smaller == this) ? that : this;
+        SetHeap result = new SetHeap(capacityFor(smaller.size));
+        for (int i = 0; i < smaller.elements.length; i++) {
+            Address element = smaller.elements[i];
+            if (element != null && larger.find(element, smaller.hashes[i]) >= 0) {
+                result.insert(element, smaller.hashes[i]);
+                result.size++;
+            }
+        }
+        return result;
+    }
+
+    /** Возвращает множество элементов, которых нет в {@code that}. */
+    public SetHeap difference(SetHeap that) {
+        SetHeap result = new SetHeap(capacityFor(size));
+        for (int i = 0; i < elements.length; i++) {
+            Address element = elements[i];
+            if (element != null && that.find(element, hashes[i]) < 0) {
+                result.insert(element, hashes[i]);
+                result.size++;
+            }
+        }
+        return result;
+    }
+
+    /** Возвращает список копий элементов в порядке таблицы. */
+    public ListHeap toList() {
+        ListHeap list = new ListHeap(0);
+        list.ensureCapacity(size);
+        for (Address element : elements) {
+            if (element != null) {
+                list.push(element);
+            }
+        }
+        return list;
+    }
+
+    /** Возвращает {@code 0}, если множества содержат одни и те же элементы, иначе {@code unexpected}. */
+    public int fastCompare(SetHeap that, int unexpected) {
+        return equals(that) ? 0 : unexpected;
+    }
+
+    @Override
+    public SetHeap refCopy() {
+        return this;
+    }
+
+    @Override
+    public SetHeap deepCopy() {
+        // Элементы не изменяются, поэтому копируются только таблицы
+        SetHeap copy = new SetHeap(0);
+        copy.elements = elements.clone();
+        copy.hashes = hashes.clone();
+        copy.size = size;
+        return copy;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 0;
+        for (int i = 0; i < elements.length; i++) {
+            if (elements[i] != null) {
+                // Порядок элементов не важен, поэтому хеши складываются
+                result += hashes[i];
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SetHeap x = (SetHeap) o;
+        if (size != x.size) return false;
+        for (int i = 0; i < elements.length; i++) {
+            if (elements[i] != null && x.find(elements[i], hashes[i]) < 0) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner buffer = new StringJoiner(", ", "{", "}");
+        for (Address element : elements) {
+            if (element != null) {
+                buffer.add(element.toString());
+            }
+        }
+        return buffer.toString();
+    }
+}
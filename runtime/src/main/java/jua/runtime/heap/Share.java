@@ -0,0 +1,27 @@
+package jua.runtime.heap;
+
+/**
+ * Счетчик владельцев хранилища, которое копии объекта кучи разделяют после {@link Heap#deepCopy()}.
+ * Владелец, который первым изменяет хранилище, копирует его себе, если у хранилища остались другие владельцы.
+ * <p>
+ * Владельцы, которых собрал GC, из счетчика не уходят: тогда последний живой владелец
+ * скопирует хранилище лишний раз, но не изменит чужое.
+ */
+final class Share {
+
+    private int owners = 1;
+
+    /** Добавляет владельца и возвращает этот же счетчик. */
+    Share join() {
+        owners++;
+        return this;
+    }
+
+    /**
+     * Убирает владельца перед изменением хранилища.
+     * Возвращает {@code true}, если хранилище осталось у других владельцев и его нужно скопировать.
+     */
+    boolean leave() {
+        return --owners > 0;
+    }
+}
@@ -1,10 +1,35 @@
 package jua.runtime.heap;
 
+import java.util.ArrayDeque;
 import java.util.stream.IntStream;
 
+/**
+ * Строка. Строка либо плоская, и ее символы лежат в {@link #data},
+ * либо является веревкой — конкатенацией двух строк {@link #left} и {@link #right}.
+ * <p>
+ * {@link #concat(StringHeap, StringHeap)} не копирует символы, а создает узел веревки,
+ * поэтому построение строки повторной конкатенацией стоит O(n), а не O(n^2).
+ * Веревка становится плоской при первом обращении к символам по индексу ({@link #charAt(int)} и т.п.);
+ * {@link #hashCode()}, {@link #compareTo(StringHeap)} и копирование символов в другую строку
+ * обходят отрезки веревки, не делая ее плоской.
+ * <p>
+ * Строка не изменяется после того, как построена: методы {@code append} дописывают только
+ * новую строку, которую еще никто не видел. Поэтому строки, в том числе части веревок
+ * и константы пула, разделяются без копирования, а {@link #deepCopy()} возвращает ту же строку.
+ */
 public final class StringHeap extends Heap implements CharSequence, Comparable<StringHeap> {
 
-    private final StringBuilder data;
+    /** Короткие строки склеиваются копированием: узел веревки для них дороже символов. */
+    private static final int SHORT_LENGTH = 64;
+
+    /** Символы плоской строки. Для веревки {@code null}, пока она не станет плоской. */
+    private StringBuilder data;
+
+    /** Части веревки. Для плоской строки {@code null}. */
+    private StringHeap left, right;
+
+    /** Длина веревки. */
+    private int ropeLength;
 
     private volatile boolean hcCalculated;
     private volatile int hcValue;
@@ -18,7 +43,7 @@ public final class StringHeap extends Heap implements CharSequence, Comparable<S
     public StringHeap(CharSequence csq) {
         if (csq instanceof StringHeap) {
             StringHeap h = (StringHeap) csq;
-            data = new StringBuilder(h.data);
+            data = h.appendTo(new StringBuilder(h.length()));
             hcCalculated = h.hcCalculated;
             hcValue = h.hcValue;
         } else {
@@ -28,10 +53,18 @@ public final class StringHeap extends Heap implements CharSequence, Comparable<S
         }
     }
 
+    private StringHeap(StringHeap left, StringHeap right) {
+        this.left = left;
+        this.right = right;
+        ropeLength = left.length() + right.length();
+        hcCalculated = false;
+        hcValue = 0;
+    }
+
     public StringHeap(CharSequence csq, int start, int end) {
         if (csq instanceof StringHeap) {
             StringHeap h = (StringHeap) csq;
-            data = new StringBuilder().append(h.data, start, end);
+            data = new StringBuilder().append(h.flat(), start, end);
         } else {
             data = new StringBuilder().append(csq, start, end);
         }
@@ -39,14 +72,86 @@ public final class StringHeap extends Heap implements CharSequence, Comparable<S
         hcValue = 0;
     }
 
+    /** Возвращает строку {@code left + right}. Результат может ссылаться на исходные строки. */
+    public static StringHeap concat(StringHeap left, StringHeap right) {
+        if (right.isEmpty()) return left;
+        if (left.isEmpty()) return right;
+        int length = left.length() + right.length();
+        if (length < 0) {
+            throw new OutOfMemoryError("string length exceeds " + Integer.MAX_VALUE);
+        }
+        if (length <= SHORT_LENGTH) {
+            return new StringHeap().append(left).append(right);
+        }
+        if (right.length() < SHORT_LENGTH && left.data == null
+                && left.right.data != null && left.right.length() + right.length() <= SHORT_LENGTH) {
+            // Короткие куски, дописанные по одному, собираются в один отрезок
+            return new StringHeap(left.left, new StringHeap().append(left.right).append(right));
+        }
+        return new StringHeap(left, right);
+    }
+
+    /** Является ли строка веревкой, которая еще не стала плоской. */
+    private boolean isRope() {
+        return data == null;
+    }
+
+    /** Делает веревку плоской и возвращает символы строки. */
+    private StringBuilder flat() {
+        if (isRope()) {
+            data = appendTo(new StringBuilder(ropeLength));
+            left = null;
+            right = null;
+        }
+        return data;
+    }
+
+    /** Дописывает символы строки в {@code sb} и возвращает {@code sb}. */
+    private StringBuilder appendTo(StringBuilder sb) {
+        if (!isRope()) {
+            return sb.append(data);
+        }
+        Segments segments = new Segments(this);
+        for (StringBuilder s = segments.next(); s != null; s = segments.next()) {
+            sb.append(s);
+        }
+        return sb;
+    }
+
+    /**
+     * Перебирает плоские отрезки строки слева направо.
+     * Обход идет без рекурсии: веревка, собранная конкатенацией в цикле, глубиной с число итераций.
+     */
+    private static final class Segments {
+
+        private final ArrayDeque<StringHeap> pending = new ArrayDeque<>();
+
+        Segments(StringHeap heap) {
+            pending.push(heap);
+        }
+
+        /** Возвращает следующий отрезок либо {@code null}, если отрезков больше нет. */
+        StringBuilder next() {
+            while (!pending.isEmpty()) {
+                StringHeap heap = pending.pop();
+                if (!heap.isRope()) {
+                    return heap.data;
+                }
+                pending.push(heap.right);
+                pending.push(heap.left);
+            }
+            return null;
+        }
+    }
+
     @Override
     public int length() {
-        return data.length();
+        return isRope() ? ropeLength : data.length();
     }
 
     @Override
     public char charAt(int index) {
-        return data.charAt(index);
+        return flat().charAt(index);
     }
 
     @Override
@@ -63,19 +168,19 @@ public final class StringHeap extends Heap implements CharSequence, Comparable<S
     }
 
     public int codePointAt(int index) {
-        return data.codePointAt(index);
+        return flat().codePointAt(index);
     }
 
     public int codePointBefore(int index) {
-        return data.codePointBefore(index);
+        return flat().codePointBefore(index);
     }
 
     public IntStream codePoints() {
-        return data.codePoints();
+        return flat().codePoints();
     }
 
     public IntStream chars() {
-        return data.chars();
+        return flat().chars();
     }
 
     public void setLength(int newLength) {
@@ -104,8 +209,7 @@ public final class StringHeap extends Heap implements CharSequence, Comparable<S
     public StringHeap append(CharSequence value) {
         resetCaches();
         if (value instanceof StringHeap) {
-            StringHeap h = (StringHeap) value;
-            data.append(h.data);
+            ((StringHeap) value).appendTo(data);
         } else {
             data.append(value);
         }
@@ -141,7 +245,7 @@ public final class StringHeap extends Heap implements CharSequence, Comparable<S
 
     @Override
     public StringHeap deepCopy() {
-        return new StringHeap(this);
+        return this;
     }
 
     @Override
@@ -149,9 +253,31 @@ public final class StringHeap extends Heap implements CharSequence, Comparable<S
         int len1 = length();
         int len2 = o.length();
         if (len1 != len2) return len1 - len2;
+        if (this == o) return 0;
+        if (!isRope() && !o.isRope()) {
+            for (int i = 0; i < len1; i++) {
+                char c1 = data.charAt(i);
+                char c2 = o.data.charAt(i);
+                if (c1 != c2) return c1 - c2;
+            }
+            return 0;
+        }
+        Segments segments1 = new Segments(this);
+        Segments segments2 = new Segments(o);
+        StringBuilder s1 = segments1.next();
+        StringBuilder s2 = segments2.next();
+        int i1 = 0, i2 = 0;
         for (int i = 0; i < len1; i++) {
-            char c1 = charAt(i);
-            char c2 = o.charAt(i);
+            while (i1 == s1.length()) {
+                s1 = segments1.next();
+                i1 = 0;
+            }
+            while (i2 == s2.length()) {
+                s2 = segments2.next();
+                i2 = 0;
+            }
+            char c1 = s1.charAt(i1++);
+            char c2 = s2.charAt(i2++);
             if (c1 != c2) return c1 - c2;
         }
         return 0;
@@ -161,8 +287,13 @@ public final class StringHeap extends Heap implements CharSequence, Comparable<S
     public int hashCode() {
         if (!hcCalculated) {
             int hc = 0;
-            for (int i = 0; i < data.length(); i++) {
-                hc = hc * 17 + Character.hashCode(data.charAt(i));
+            if (!isRope()) {
+                hc = hashCode(hc, data);
+            } else {
+                Segments segments = new Segments(this);
+                for (StringBuilder s = segments.next(); s != null; s = segments.next()) {
+                    hc = hashCode(hc, s);
+                }
             }
             hcValue = hc;
             hcCalculated = true;
@@ -170,6 +301,13 @@ public final class StringHeap extends Heap implements CharSequence, Comparable<S
         return hcValue;
     }
 
+    private static int hashCode(int hc, StringBuilder s) {
+        for (int i = 0; i < s.length(); i++) {
+            hc = hc * 17 + Character.hashCode(s.charAt(i));
+        }
+        return hc;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof StringHeap)) {
@@ -181,6 +319,6 @@ public final class StringHeap extends Heap implements CharSequence, Comparable<S
 
     @Override
     public String toString() {
-        return data.toString();
+        return flat().toString();
     }
 }
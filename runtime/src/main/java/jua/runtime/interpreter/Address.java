@@ -4,6 +4,8 @@ import jua.runtime.Operations;
 import jua.runtime.Types;
 import jua.runtime.heap.Heap;
 import jua.runtime.heap.ListHeap;
+import jua.runtime.heap.MapHeap;
+import jua.runtime.heap.SetHeap;
 import jua.runtime.heap.StringHeap;
 
 import static jua.runtime.Operations.toResultCode;
@@ -15,8 +17,15 @@ public final class Address implements Comparable<Address> {
     /** Тип текущего значения. */
     private byte type;
 
-    private long l;
-    private double d;
+    /**
+     * Значение скалярного типа: целое, логическое ({@code 0} или {@code 1})
+     * или вещественное в виде {@link Double#doubleToRawLongBits(double)}.
+     * Одно поле на все скалярные типы вместо отдельных {@code long} и {@code double}
+     * уменьшает адрес с 40 до 32 байт (со сжатыми ссылками), а вместе с ним и элемент списка.
+     */
+    private long bits;
+
+    /** Объект кучи для строк, списков, словарей и множеств. */
     private Heap a;
 
     /** Возвращает тип текущего значения. */
@@ -32,9 +41,12 @@ public final class Address implements Comparable<Address> {
      *               ГЕТТЕРЫ               *
      * * * * * * * * * * * * * * * * * * * */
 
-    public long getLong() { return l; }
+    public long getLong() { return bits; }
 
-    public double getDouble() { return d; }
+    public double getDouble() { return Double.longBitsToDouble(bits); }
+
+    /** Возвращает значение скалярного типа как есть, без преобразования. */
+    public long getBits() { return bits; }
 
     public boolean getBoolean() {
         return l2b(getLong());
@@ -46,6 +58,10 @@ public final class Address implements Comparable<Address> {
 
     public ListHeap getListHeap() { return (ListHeap) getHeap(); }
 
+    public MapHeap getMapHeap() { return (MapHeap) getHeap(); }
+
+    public SetHeap getSetHeap() { return (SetHeap) getHeap(); }
+
     /* * * * * * * * * * * * * * * * * * * *
      *           ПРЕОБРАЗОВАНИЯ            *
      * * * * * * * * * * * * * * * * * * * */
@@ -111,6 +127,10 @@ public final class Address implements Comparable<Address> {
                 return s2b(getStringHeap());
             case T_LIST:
                 return e2b(getListHeap());
+            case T_MAP:
+                return m2b(getMapHeap());
+            case T_SET:
+                return s2b(getSetHeap());
             default:
                 // Любой валидный тип можно преобразовать в логический
                 throw new AssertionError(getTypeName());
@@ -177,17 +197,17 @@ public final class Address implements Comparable<Address> {
 
     public void set(long _l) {
         type = T_INT;
-        l = _l;
+        bits = _l;
     }
 
     public void set(boolean b) {
         type = T_BOOLEAN;
-        l = b2l(b);
+        bits = b2l(b);
     }
 
     public void set(double _d) {
         type = T_FLOAT;
-        d = _d;
+        bits = Double.doubleToRawLongBits(_d);
     }
 
     public void set(StringHeap s) {
@@ -200,34 +220,55 @@ public final class Address implements Comparable<Address> {
         a = l;
     }
 
+    public void set(MapHeap m) {
+        type = T_MAP;
+        a = m;
+    }
+
+    public void set(SetHeap s) {
+        type = T_SET;
+        a = s;
+    }
+
     @Deprecated
     public void quickSet(Address source) {
         type = source.type;
-        l = source.getLong();
-        d = source.getDouble();
-        a = source.getHeap();
+        bits = source.bits;
+        a = source.a;
     }
 
+    /**
+     * Копирует значение из {@code source}. Скалярные значения копируются здесь,
+     * остальные в {@link #setReference(Address)}: метод остается маленьким,
+     * и HotSpot встраивает его даже в большие циклы интерпретатора.
+     */
     public void set(Address source) {
+        byte t = source.type;
+        if (t >= T_INT && t <= T_BOOLEAN) {
+            type = t;
+            bits = source.bits;
+        } else {
+            setReference(source);
+        }
+    }
+
+    private void setReference(Address source) {
         switch (source.type) {
             case T_NULL:
                 setNull();
                 break;
-            case T_INT:
-                set(source.getLong());
-                break;
-            case T_FLOAT:
-                set(source.getDouble());
-                break;
-            case T_BOOLEAN:
-                set(source.getBoolean());
-                break;
             case T_STRING:
                 set(source.getStringHeap().refCopy());
                 break;
             case T_LIST:
                 set(source.getListHeap().refCopy());
                 break;
+            case T_MAP:
+                set(source.getMapHeap().refCopy());
+                break;
+            case T_SET:
+                set(source.getSetHeap().refCopy());
+                break;
             default:
                 throw new AssertionError(source.type);
         }
@@ -236,13 +277,10 @@ public final class Address implements Comparable<Address> {
     public void clone(Address receiver) {
         switch (type) {
             case T_INT:
-                receiver.set(getLong());
-                break;
             case T_FLOAT:
-                receiver.set(getDouble());
-                break;
             case T_BOOLEAN:
-                receiver.set(getBoolean());
+                receiver.type = type;
+                receiver.bits = bits;
                 break;
             case T_STRING:
                 receiver.set(getStringHeap().deepCopy());
@@ -250,6 +288,12 @@ public final class Address implements Comparable<Address> {
             case T_LIST:
                 receiver.set(getListHeap().deepCopy());
                 break;
+            case T_MAP:
+                receiver.set(getMapHeap().deepCopy());
+                break;
+            case T_SET:
+                receiver.set(getSetHeap().deepCopy());
+                break;
             case T_NULL:
                 receiver.setNull();
                 break;
@@ -299,11 +343,7 @@ public final class Address implements Comparable<Address> {
         }
 
         if (getTypeUnion(T_STRING, T_STRING) == union) {
-            if (this == result) {
-                getStringHeap().append(rhs.getStringHeap());
-            } else {
-                result.set(new StringHeap().append(getStringHeap()).append(getStringHeap()));
-            }
+            result.set(StringHeap.concat(getStringHeap(), rhs.getStringHeap()));
             return true;
         }
 
@@ -312,7 +352,7 @@ public final class Address implements Comparable<Address> {
             if (!rhs.stringVal(tmp)) {
                 return false;
             }
-            result.set(new StringHeap().append(getStringHeap()).append(tmp.getStringHeap()));
+            result.set(StringHeap.concat(getStringHeap(), tmp.getStringHeap()));
             return true;
         }
 
@@ -321,7 +361,7 @@ public final class Address implements Comparable<Address> {
             if (!stringVal(tmp)) {
                 return false;
             }
-            result.set(new StringHeap().append(tmp.getStringHeap()).append(rhs.getStringHeap()));
+            result.set(StringHeap.concat(tmp.getStringHeap(), rhs.getStringHeap()));
             return true;
         }
 
@@ -569,12 +609,12 @@ public final class Address implements Comparable<Address> {
 
     public boolean inc() {
         if (type == T_INT) {
-            l++;
+            bits++;
             return true;
         }
 
         if (type == T_FLOAT) {
-            d++;
+            bits = Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + 1);
             return true;
         }
 
@@ -583,12 +623,12 @@ public final class Address implements Comparable<Address> {
 
     public boolean dec() {
         if (type == T_INT) {
-            l--;
+            bits--;
             return true;
         }
 
         if (type == T_FLOAT) {
-            d--;
+            bits = Double.doubleToRawLongBits(Double.longBitsToDouble(bits) - 1);
             return true;
         }
 
@@ -599,9 +639,15 @@ public final class Address implements Comparable<Address> {
         if (type == T_LIST) {
             int index = validateIndex(key, true);
             if (index >= 0) {
-                Address element = getListHeap().get(index);
-                oldValueReceptor.set(element);
-                return element.inc();
+                return getListHeap().inc(index, oldValueReceptor);
+            }
+            return false;
+        }
+        if (type == T_MAP) {
+            Address value = mapValue(key);
+            if (value != null) {
+                oldValueReceptor.set(value);
+                return value.inc();
             }
             return false;
         }
@@ -613,9 +659,15 @@ public final class Address implements Comparable<Address> {
         if (type == T_LIST) {
             int index = validateIndex(key, true);
             if (index >= 0) {
-                Address element = getListHeap().get(index);
-                oldValueReceptor.set(element);
-                return element.dec();
+                return getListHeap().dec(index, oldValueReceptor);
+            }
+            return false;
+        }
+        if (type == T_MAP) {
+            Address value = mapValue(key);
+            if (value != null) {
+                oldValueReceptor.set(value);
+                return value.dec();
             }
             return false;
         }
@@ -633,7 +685,26 @@ public final class Address implements Comparable<Address> {
         if (type == T_LIST) {
             int index = validateIndex(key, true);
             if (index >= 0) {
-                getListHeap().set(index, value, null);
+                getListHeap().store(index, value);
+                return true;
+            }
+            return false;
+        }
+        if (type == T_MAP) {
+            if (validateKey(key)) {
+                getMapHeap().store(key, value);
+                return true;
+            }
+            return false;
+        }
+        if (type == T_SET) {
+            // Истинное значение добавляет элемент, ложное удаляет
+            if (validateElement(key)) {
+                if (value.booleanVal()) {
+                    getSetHeap().add(key);
+                } else {
+                    getSetHeap().remove(key);
+                }
                 return true;
             }
             return false;
@@ -646,7 +717,21 @@ public final class Address implements Comparable<Address> {
         if (type == T_LIST) {
             int index = validateIndex(key, true);
             if (index >= 0) {
-                receptor.set(getListHeap().get(index));
+                getListHeap().load(index, receptor);
+                return true;
+            }
+            return false;
+        }
+        if (type == T_MAP) {
+            if (validateKey(key)) {
+                getMapHeap().load(key, receptor);
+                return true;
+            }
+            return false;
+        }
+        if (type == T_SET) {
+            if (validateElement(key)) {
+                receptor.set(getSetHeap().contains(key));
                 return true;
             }
             return false;
@@ -663,10 +748,54 @@ public final class Address implements Comparable<Address> {
             }
             return Operations.RESULT_FAILURE;
         }
+        if (type == T_MAP) {
+            if (validateKey(key)) {
+                Address value = getMapHeap().get(key);
+                return toResultCode(value != null && !value.isNull());
+            }
+            return Operations.RESULT_FAILURE;
+        }
+        if (type == T_SET) {
+            if (validateElement(key)) {
+                return toResultCode(getSetHeap().contains(key));
+            }
+            return Operations.RESULT_FAILURE;
+        }
         threadError("trying to check array-element from %s", getTypeName());
         return Operations.RESULT_FAILURE;
     }
 
+    private boolean validateKey(Address key) {
+        if (MapHeap.isValidKey(key)) {
+            return true;
+        }
+        threadError("%s cannot be a map key", key.getTypeName());
+        return false;
+    }
+
+    private boolean validateElement(Address value) {
+        if (SetHeap.isValidElement(value)) {
+            return true;
+        }
+        threadError("%s cannot be a set element", value.getTypeName());
+        return false;
+    }
+
+    /**
+     * Возвращает адрес значения ключа словаря для изменения на месте.
+     * Если ключа нет, сообщает об ошибке, как при изменении {@code null}, и возвращает {@code null}.
+     */
+    private Address mapValue(Address key) {
+        if (!validateKey(key)) {
+            return null;
+        }
+        Address value = getMapHeap().get(key);
+        if (value == null) {
+            threadError("key %s is not present in the map", key.toBeautifulString());
+        }
+        return value;
+    }
+
     private int validateIndex(Address indexAddress, boolean validateBounds) {
         if (indexAddress.getType() == T_INT) {
             long longIndex = indexAddress.getLong();
@@ -692,6 +821,16 @@ public final class Address implements Comparable<Address> {
             return true;
         }
 
+        if (type == T_MAP) {
+            receptor.set(getMapHeap().size());
+            return true;
+        }
+
+        if (type == T_SET) {
+            receptor.set(getSetHeap().size());
+            return true;
+        }
+
         threadError("trying to calculate the length of %s", getTypeName());
         return false;
     }
@@ -778,6 +917,14 @@ public final class Address implements Comparable<Address> {
             return getListHeap().fastCompare(a.getListHeap(), unexpected);
         }
 
+        if (getTypeUnion(T_MAP, T_MAP) == union) {
+            return getMapHeap().fastCompare(a.getMapHeap(), unexpected);
+        }
+
+        if (getTypeUnion(T_SET, T_SET) == union) {
+            return getSetHeap().fastCompare(a.getSetHeap(), unexpected);
+        }
+
         if (getTypeUnion(T_NULL, T_NULL) == union) {
             return 0;
         }
@@ -798,6 +945,8 @@ public final class Address implements Comparable<Address> {
             case T_BOOLEAN:   c = 'Z'; break;
             case T_STRING:    c = 'S'; break;
             case T_LIST:      c = 'L'; break;
+            case T_MAP:       c = 'M'; break;
+            case T_SET:       c = 'H'; break;
             default: throw new AssertionError(type);
         }
         int h = hashCode();
@@ -814,6 +963,8 @@ public final class Address implements Comparable<Address> {
             case T_BOOLEAN: return hashOfBoolean(getBoolean());
             case T_STRING:  return hashOfString(getStringHeap());
             case T_LIST:    return hashOfList(getListHeap());
+            case T_MAP:     return hashOfMap(getMapHeap());
+            case T_SET:     return hashOfSet(getSetHeap());
             default: throw new AssertionError(type);
         }
     }
@@ -844,6 +995,8 @@ public final class Address implements Comparable<Address> {
             case T_BOOLEAN:   return Boolean.toString(getBoolean());
             case T_STRING:    return '"' + getStringHeap().toString() + '"';
             case T_LIST:      return  getListHeap().toString();
+            case T_MAP:       return  getMapHeap().toString();
+            case T_SET:       return  getSetHeap().toString();
             case T_UNDEFINED: // fallthrough
             default: throw new AssertionError(type);
         }
@@ -874,6 +1027,8 @@ public final class Address implements Comparable<Address> {
             case T_BOOLEAN:   return "B" + getBoolean();
             case T_STRING:    return "S" + getStringHeap();
             case T_LIST:      return "E" + getListHeap();
+            case T_MAP:       return "M" + getMapHeap();
+            case T_SET:       return "H" + getSetHeap();
             default: throw new AssertionError(type);
         }
     }
@@ -0,0 +1,68 @@
+package jua.runtime.interpreter;
+
+import java.util.Arrays;
+
+/**
+ * Сегменты адресов, из которых собираются {@link ThreadStack} и {@link ThreadMemory}.
+ * Сегменты подключаются по одному, когда в текущем не хватает места, поэтому рост стоит
+ * одного сегмента, а не копирования всего стека. Окно фрейма всегда лежит в одном сегменте,
+ * и интерпретаторы адресуют его как обычный массив.
+ * <p>
+ * Покинутый сегмент остается в запасе, чтобы вызовы на границе сегментов не создавали его заново,
+ * а сегмент над ним освобождается. Так после глубокой рекурсии поток возвращает память,
+ * удерживая не больше одного лишнего сегмента.
+ */
+final class AddressSegments {
+
+    /** Размер сегмента в адресах. Окна больше этого размера получают сегмент по своему размеру. */
+    static final int SEGMENT_SIZE = 256;
+
+    private Address[][] segments = new Address[4][];
+
+    /** Вершина каждого сегмента на момент перехода в следующий. */
+    private int[] savedTops = new int[4];
+
+    /** Номер текущего сегмента. */
+    private int current = 0;
+
+    AddressSegments() {
+        segments[0] = AddressUtils.allocateMemory(SEGMENT_SIZE, 0);
+    }
+
+    Address[] first() {
+        return segments[0];
+    }
+
+    /**
+     * Переходит в следующий сегмент, в котором помещается хотя бы {@code capacity} адресов.
+     *
+     * @param top Вершина текущего сегмента, к которой вернет {@link #leave()}.
+     */
+    Address[] enter(int top, int capacity) {
+        savedTops[current] = top;
+        current++;
+        if (current == segments.length) {
+            segments = Arrays.copyOf(segments, current * 2);
+            savedTops = Arrays.copyOf(savedTops, current * 2);
+        }
+        Address[] segment = segments[current];
+        if (segment == null || segment.length < capacity) {
+            segment = segments[current] = AddressUtils.allocateMemory(Math.max(SEGMENT_SIZE, capacity), 0);
+        }
+        return segment;
+    }
+
+    /** Возвращается в предыдущий сегмент. Его вершина доступна через {@link #savedTop()}. */
+    Address[] leave() {
+        if (current + 1 < segments.length) {
+            segments[current + 1] = null;
+        }
+        current--;
+        return segments[current];
+    }
+
+    /** Вершина текущего сегмента, запомненная при переходе в следующий. */
+    int savedTop() {
+        return savedTops[current];
+    }
+}
@@ -1,6 +1,8 @@
 package jua.runtime.interpreter;
 
 import jua.runtime.heap.ListHeap;
+import jua.runtime.heap.MapHeap;
+import jua.runtime.heap.SetHeap;
 import jua.runtime.heap.StringHeap;
 
 import static jua.runtime.Types.*;
@@ -34,13 +36,19 @@ public class AddressSupport {
             address.set(sh);
         } else if (o instanceof ListHeap) {
             address.set((ListHeap) o);
+        } else if (o instanceof MapHeap) {
+            address.set((MapHeap) o);
+        } else if (o instanceof SetHeap) {
+            address.set((SetHeap) o);
         } else if (o instanceof Address) {
             address.set((Address) o);
         } else if (o instanceof Object[]) {
             Object[] javaArray = (Object[]) o;
             ListHeap array = new ListHeap(javaArray.length);
+            Address element = new Address();
             for (int i = 0; i < javaArray.length; i++) {
-                assignObject(array.get(i), javaArray[i]);
+                assignObject(element, javaArray[i]);
+                array.store(i, element);
             }
             address.set(array);
         } else {
@@ -60,6 +68,10 @@ public class AddressSupport {
                 return a.getStringHeap();
             case T_LIST:
                 return a.getListHeap();
+            case T_MAP:
+                return a.getMapHeap();
+            case T_SET:
+                return a.getSetHeap();
             case T_NULL:
                 return null;
             default:
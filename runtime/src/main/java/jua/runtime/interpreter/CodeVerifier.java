@@ -0,0 +1,176 @@
+package jua.runtime.interpreter;
+
+import jua.runtime.code.NewConstantPool;
+
+/**
+ * Проверка плотного кода при загрузке функции.
+ * <p>
+ * Доказывает, что код не выходит за свои пределы: глубина стека в каждой точке
+ * не зависит от пути к ней, не опускается ниже нуля и не превышает объявленного размера окна стека,
+ * номера регистров меньше числа регистров функции, переходы ведут на начала инструкций,
+ * а номера констант указывают на значения подходящего вида.
+ * <p>
+ * Плотный код строится для каждой функции при любом интерпретаторе. Он кодирует те же инструкции,
+ * что и объекты инструкций, с теми же операндами и переходами, поэтому проверка распространяется и на них.
+ * Проверенный код выполняется без проверок: окно стека резервируется один раз при входе во фрейм,
+ * а регистры и ячейки стека адресуются напрямую. Код, который проверку не прошел,
+ * выполняется объектами инструкций с проверкой окна стека после каждой инструкции.
+ */
+public final class CodeVerifier {
+
+    /** Код не прошел проверку. */
+    public static final class VerifyException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        VerifyException(String message) {
+            super(message);
+        }
+    }
+
+    private final int[] c;
+    private final int stackWide;
+    private final int regNumber;
+    private final NewConstantPool pool;
+
+    /** Начала инструкций. */
+    private final boolean[] starts;
+
+    private CodeVerifier(int[] c, int stackWide, int regNumber, NewConstantPool pool) {
+        this.c = c;
+        this.stackWide = stackWide;
+        this.regNumber = regNumber;
+        this.pool = pool;
+        this.starts = new boolean[c.length];
+    }
+
+    /**
+     * Проверяет плотный код функции.
+     *
+     * @return Глубины стека кода, которые затем используют интерпретаторы.
+     * @throws VerifyException Если код не прошел проверку.
+     */
+    public static DenseCodeAnalysis verify(int[] c, int stackWide, int regNumber, NewConstantPool pool) {
+        return new CodeVerifier(c, stackWide, regNumber, pool).run();
+    }
+
+    private DenseCodeAnalysis run() {
+        for (int pc = 0; pc < c.length; ) {
+            starts[pc] = true;
+            int length = DenseCodeAnalysis.instructionLength(c, pc);
+            // Длина switch-инструкции зависит от операнда
+            if (length <= 0 || pc + length > c.length) {
+                throw new VerifyException("truncated instruction at " + pc);
+            }
+            pc += length;
+        }
+        for (int pc = 0; pc < c.length; pc += DenseCodeAnalysis.instructionLength(c, pc)) {
+            checkOperands(pc);
+        }
+
+        DenseCodeAnalysis analysis;
+        try {
+            analysis = DenseCodeAnalysis.analyze(c);
+        } catch (IllegalStateException | UnsupportedOperationException e) {
+            throw new VerifyException(e.getMessage());
+        }
+        if (analysis.maxDepth > stackWide) {
+            throw new VerifyException("stack depth " + analysis.maxDepth + " exceeds declared " + stackWide);
+        }
+        for (int pc = 0; pc < c.length; pc += DenseCodeAnalysis.instructionLength(c, pc)) {
+            if (c[pc] == OPCodes.Return && analysis.depths[pc] == 0) {
+                throw new VerifyException("nothing to return at " + pc);
+            }
+        }
+        return analysis;
+    }
+
+    private void checkOperands(int pc) {
+        int op = c[pc];
+        switch (op) {
+            case OPCodes.Push:
+                checkValue(c[pc + 1], pc);
+                break;
+            case OPCodes.Load: case OPCodes.Store:
+            case OPCodes.Inc: case OPCodes.Dec:
+                checkRegister(c[pc + 1], pc);
+                break;
+            case OPCodes.Load0: case OPCodes.Load1: case OPCodes.Load2:
+                checkRegister(op - OPCodes.Load0, pc);
+                break;
+            case OPCodes.Store0: case OPCodes.Store1: case OPCodes.Store2:
+                checkRegister(op - OPCodes.Store0, pc);
+                break;
+            case OPCodes.Goto:
+                checkTarget(c[pc + 1], pc);
+                break;
+            case OPCodes.Call: case OPCodes.TailCall:
+                if (!isConstant(c[pc + 1]) || !pool.isCallee(c[pc + 1])) {
+                    throw new VerifyException("bad callee at " + pc);
+                }
+                if (c[pc + 2] < 0) {
+                    throw new VerifyException("negative argument count at " + pc);
+                }
+                break;
+            case OPCodes.LinearSwitch: case OPCodes.BinarySwitch: {
+                int count = c[pc + 1];
+                checkTarget(c[pc + 2], pc);
+                for (int i = 0; i < count; i++) {
+                    checkValue(c[pc + 3 + i], pc);
+                    checkTarget(c[pc + 3 + count + i], pc);
+                }
+                break;
+            }
+            case OPCodes.RAdd: case OPCodes.RSub: case OPCodes.RMul: case OPCodes.RDiv: case OPCodes.RRem:
+            case OPCodes.RAnd: case OPCodes.ROr: case OPCodes.RXor: case OPCodes.RShl: case OPCodes.RShr:
+                checkRegister(c[pc + 1], pc);
+                checkOperand(c[pc + 2], pc);
+                checkOperand(c[pc + 3], pc);
+                break;
+            case OPCodes.RMove:
+                checkRegister(c[pc + 1], pc);
+                checkOperand(c[pc + 2], pc);
+                break;
+            default:
+                if (DenseCodeAnalysis.isConditionalJump(op)) {
+                    checkTarget(c[pc + 1], pc);
+                    if (op >= OPCodes.RIfEq) {
+                        checkOperand(c[pc + 2], pc);
+                        checkOperand(c[pc + 3], pc);
+                    }
+                }
+                break;
+        }
+    }
+
+    private void checkRegister(int register, int pc) {
+        if (register < 0 || register >= regNumber) {
+            throw new VerifyException("register " + register + " out of range at " + pc);
+        }
+    }
+
+    /** Операнд регистровой инструкции: регистр либо константа {@code -1 - index}. */
+    private void checkOperand(int operand, int pc) {
+        if (operand >= 0) {
+            checkRegister(operand, pc);
+        } else {
+            checkValue(-1 - operand, pc);
+        }
+    }
+
+    private boolean isConstant(int index) {
+        return index >= 0 && index < pool.size();
+    }
+
+    private void checkValue(int index, int pc) {
+        if (!isConstant(index) || pool.isCallee(index)) {
+            throw new VerifyException("bad constant " + index + " at " + pc);
+        }
+    }
+
+    private void checkTarget(int target, int pc) {
+        if (target < 0 || target >= c.length || !starts[target]) {
+            throw new VerifyException("bad jump target " + target + " at " + pc);
+        }
+    }
+}
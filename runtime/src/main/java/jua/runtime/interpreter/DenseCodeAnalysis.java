@@ -0,0 +1,209 @@
+package jua.runtime.interpreter;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Глубина стека перед каждой инструкцией плотного кода и начала линейных участков.
+ * Нужна тем, кто адресует ячейки стека фрейма постоянными номерами, а не вершиной стека.
+ */
+public final class DenseCodeAnalysis {
+
+    /** Глубина стека перед инструкцией, -1 у недостижимых инструкций. */
+    public final int[] depths;
+
+    /** Начала линейных участков: точки перехода и инструкции за переходами, вызовами и возвратами. */
+    public final boolean[] leaders;
+
+    /** Наибольшая глубина стека. */
+    public final int maxDepth;
+
+    private DenseCodeAnalysis(int[] depths, boolean[] leaders, int maxDepth) {
+        this.depths = depths;
+        this.leaders = leaders;
+        this.maxDepth = maxDepth;
+    }
+
+    /** Длина инструкции плотного кода вместе с операндами. */
+    public static int instructionLength(int[] c, int pc) {
+        switch (c[pc]) {
+            case OPCodes.Push:
+            case OPCodes.Load: case OPCodes.Store:
+            case OPCodes.Inc: case OPCodes.Dec:
+            case OPCodes.Goto:
+            case OPCodes.IfEq: case OPCodes.IfNe: case OPCodes.IfGt:
+            case OPCodes.IfGe: case OPCodes.IfLt: case OPCodes.IfLe:
+            case OPCodes.IfZ: case OPCodes.IfNz: case OPCodes.IfNull: case OPCodes.IfNonNull:
+            case OPCodes.IfPresent: case OPCodes.IfAbsent:
+                return 2;
+            case OPCodes.Call: case OPCodes.TailCall:
+                return 3;
+            case OPCodes.LinearSwitch: case OPCodes.BinarySwitch:
+                return 3 + 2 * c[pc + 1];
+            case OPCodes.RAdd: case OPCodes.RSub: case OPCodes.RMul: case OPCodes.RDiv: case OPCodes.RRem:
+            case OPCodes.RAnd: case OPCodes.ROr: case OPCodes.RXor: case OPCodes.RShl: case OPCodes.RShr:
+            case OPCodes.RMove:
+            case OPCodes.RIfEq: case OPCodes.RIfNe: case OPCodes.RIfGt:
+            case OPCodes.RIfGe: case OPCodes.RIfLt: case OPCodes.RIfLe:
+                return 4;
+            default:
+                return 1;
+        }
+    }
+
+    /** Условный переход: IfEq..IfAbsent или RIfEq..RIfLe. Точка перехода лежит в {@code c[pc + 1]}. */
+    public static boolean isConditionalJump(int op) {
+        return (OPCodes.IfEq <= op && op <= OPCodes.IfAbsent) || (OPCodes.RIfEq <= op && op <= OPCodes.RIfLe);
+    }
+
+    /**
+     * Анализирует плотный код.
+     *
+     * @throws UnsupportedOperationException Если код содержит неизвестную инструкцию или выходит за свой конец.
+     * @throws IllegalStateException         Если глубина стека в точке зависит от пути к ней.
+     */
+    public static DenseCodeAnalysis analyze(int[] c) {
+        return new Analyzer(c).run();
+    }
+
+    private static final class Analyzer {
+
+        final int[] c;
+        final int[] depths;
+        final boolean[] leaders;
+        int maxDepth = 0;
+        final Deque<Integer> worklist = new ArrayDeque<>();
+
+        Analyzer(int[] c) {
+            this.c = c;
+            this.depths = new int[c.length + 1];
+            this.leaders = new boolean[c.length + 1];
+        }
+
+        DenseCodeAnalysis run() {
+            Arrays.fill(depths, -1);
+            leaders[0] = true;
+            flow(0, 0);
+            while (!worklist.isEmpty()) {
+                int pc = worklist.pop();
+                int depth = depths[pc];
+                while (true) {
+                    int op = c[pc];
+                    int next = pc + instructionLength(c, pc);
+                    if (op == OPCodes.Goto) {
+                        branch(c[pc + 1], depth);
+                        leaders[next] = true;
+                        break;
+                    } else if (isConditionalJump(op)) {
+                        depth -= jumpPops(op);
+                        checkDepth(depth);
+                        branch(c[pc + 1], depth);
+                        branch(next, depth);
+                        break;
+                    } else if (op == OPCodes.LinearSwitch || op == OPCodes.BinarySwitch) {
+                        int count = c[pc + 1];
+                        checkDepth(--depth);
+                        branch(c[pc + 2], depth);
+                        for (int i = 0; i < count; i++) {
+                            branch(c[pc + 3 + count + i], depth);
+                        }
+                        leaders[next] = true;
+                        break;
+                    } else if (op == OPCodes.Call || op == OPCodes.TailCall) {
+                        depth -= c[pc + 2];
+                        checkDepth(depth);
+                        branch(next, depth + 1);
+                        break;
+                    } else if (op == OPCodes.Return || op == OPCodes.Leave) {
+                        leaders[next] = true;
+                        break;
+                    }
+                    depth += stackEffect(op);
+                    checkDepth(depth);
+                    if (depths[next] >= 0) {
+                        if (depths[next] != depth) {
+                            throw new IllegalStateException("inconsistent stack depth at " + next);
+                        }
+                        break;
+                    }
+                    if (next >= c.length) {
+                        throw new UnsupportedOperationException("code falls off the end");
+                    }
+                    depths[next] = depth;
+                    pc = next;
+                }
+            }
+            return new DenseCodeAnalysis(depths, leaders, maxDepth);
+        }
+
+        void branch(int target, int depth) {
+            leaders[target] = true;
+            flow(target, depth);
+        }
+
+        void flow(int pc, int depth) {
+            if (pc >= c.length) {
+                throw new UnsupportedOperationException("jump past the end of code");
+            }
+            if (depths[pc] < 0) {
+                depths[pc] = depth;
+                maxDepth = Math.max(maxDepth, depth);
+                worklist.push(pc);
+            } else if (depths[pc] != depth) {
+                throw new IllegalStateException("inconsistent stack depth at " + pc);
+            }
+        }
+
+        void checkDepth(int depth) {
+            if (depth < 0) {
+                throw new IllegalStateException("stack underflow");
+            }
+            maxDepth = Math.max(maxDepth, depth);
+        }
+    }
+
+    private static int jumpPops(int op) {
+        if (OPCodes.RIfEq <= op && op <= OPCodes.RIfLe) return 0;
+        switch (op) {
+            case OPCodes.IfZ: case OPCodes.IfNz: case OPCodes.IfNull: case OPCodes.IfNonNull:
+                return 1;
+            default:
+                return 2;
+        }
+    }
+
+    /** Изменение глубины стека инструкцией, которая не передает управление. */
+    private static int stackEffect(int op) {
+        switch (op) {
+            case OPCodes.Nop:
+            case OPCodes.Length: case OPCodes.Pos: case OPCodes.Neg: case OPCodes.Not:
+            case OPCodes.Inc: case OPCodes.Dec:
+            case OPCodes.NewList:
+            case OPCodes.RAdd: case OPCodes.RSub: case OPCodes.RMul: case OPCodes.RDiv: case OPCodes.RRem:
+            case OPCodes.RAnd: case OPCodes.ROr: case OPCodes.RXor: case OPCodes.RShl: case OPCodes.RShr:
+            case OPCodes.RMove:
+                return 0;
+            case OPCodes.ConstNull: case OPCodes.ConstTrue: case OPCodes.ConstFalse:
+            case OPCodes.ConstIntM1: case OPCodes.ConstInt0: case OPCodes.ConstInt1: case OPCodes.ConstInt2:
+            case OPCodes.Push: case OPCodes.NewMap:
+            case OPCodes.Dup: case OPCodes.DupX1: case OPCodes.DupX2:
+            case OPCodes.Load: case OPCodes.Load0: case OPCodes.Load1: case OPCodes.Load2:
+                return 1;
+            case OPCodes.Dup2: case OPCodes.Dup2X1: case OPCodes.Dup2X2:
+                return 2;
+            case OPCodes.Pop:
+            case OPCodes.Add: case OPCodes.Sub: case OPCodes.Mul: case OPCodes.Div: case OPCodes.Rem:
+            case OPCodes.And: case OPCodes.Or: case OPCodes.Xor: case OPCodes.Shl: case OPCodes.Shr:
+            case OPCodes.ArrayLoad: case OPCodes.ArrayInc: case OPCodes.ArrayDec:
+            case OPCodes.Store: case OPCodes.Store0: case OPCodes.Store1: case OPCodes.Store2:
+                return -1;
+            case OPCodes.Pop2:
+                return -2;
+            case OPCodes.ArrayStore:
+                return -3;
+            default:
+                throw new UnsupportedOperationException(OPCodes.NAMES[op]);
+        }
+    }
+}
@@ -4,21 +4,33 @@ import jua.runtime.Function;
 import jua.runtime.JuaEnvironment;
 import jua.runtime.Types;
 import jua.runtime.code.CodeData;
-import jua.runtime.code.ConstantPool;
+import jua.runtime.code.NewConstantPool;
 import jua.runtime.code.ResolvableCallee;
 import jua.runtime.heap.ListHeap;
+import jua.runtime.heap.MapHeap;
+import jua.runtime.interpreter.closure.ClosureCode;
+import jua.runtime.interpreter.closure.ClosureCompiler;
 import jua.runtime.interpreter.instruction.Instruction;
+import jua.runtime.jit.CompiledCode;
+import jua.runtime.jit.JitCompiler;
 
 import static jua.runtime.Operations.isResultFalse;
 import static jua.runtime.Operations.isResultTrue;
 
 public final class ExecutionContext {
 
+    private final InterpreterThread thread;
+
     private final ThreadStack stack;
 
     private final ThreadMemory memory;
 
-    private ConstantPool constantPool;
+    private final FrameStack frames;
+
+    private NewConstantPool constantPool;
+
+    /** Код выполняемой функции. Нужен самоизменяющимся инструкциям, см. {@link #rewrite(Instruction)}. */
+    private Instruction[] instructions;
 
     private int nextCP;
 
@@ -26,11 +38,29 @@ public final class ExecutionContext {
     private Function msgCallee;
     private int msgArgc = 0;
 
-    private final Address tmp = new Address();
+    /** Число обратных переходов, выполненных плотным кодом текущего фрейма. */
+    private int backEdges = 0;
+
+    /**
+     * Число обратных переходов, после которого плотный код прерывается для замещения
+     * на стеке (OSR): функция компилируется и продолжает цикл уже скомпилированной.
+     * Равно {@link #NO_BACK_EDGE_LIMIT}, если JIT для функции не работает: тогда переходы не считаются.
+     */
+    private int backEdgeLimit = NO_BACK_EDGE_LIMIT;
+
+    private static final int NO_BACK_EDGE_LIMIT = Integer.MAX_VALUE;
+
+    /**
+     * Внутреннее сообщение: цикл стал горячим. Обрабатывается в {@link #executeTiered}
+     * и до потока не доходит.
+     */
+    private static final int MSG_HOT_LOOP = -1;
 
-    public ExecutionContext(ThreadStack stack, ThreadMemory memory) {
+    public ExecutionContext(InterpreterThread thread, ThreadStack stack, ThreadMemory memory, FrameStack frames) {
+        this.thread = thread;
         this.stack = stack;
         this.memory = memory;
+        this.frames = frames;
     }
 
     public ThreadStack getStack() {
@@ -45,36 +75,675 @@ public final class ExecutionContext {
         this.msg = msg;
     }
 
-    public int execute(InterpreterFrame frame) {
-        msg = 0;
-        msgCallee = null;
-        msgArgc = 0;
+    /**
+     * Выполняет фрейм до тех пор, пока не потребуется помощь потока.
+     * Вызовы пользовательских функций и возвраты из них в пользовательские функции
+     * обрабатываются здесь же: поток только переключает фрейм, а выполнение продолжается
+     * без выхода в цикл сообщений {@link InterpreterThread}.
+     */
+    public int execute() {
+        while (true) {
+            int frame = frames.current();
+            msg = 0;
+            msgCallee = null;
+            msgArgc = 0;
+
+            CodeData code = frames.getFunction(frame).getCode();
+            constantPool = code.getConstantPool();
+            if (code.isVerified() && code.hasDenseCode()) {
+                if (JitCompiler.isEnabled()) {
+                    executeTiered(frame, code);
+                } else if (ClosureCompiler.isEnabled()) {
+                    executeClosures(frame, code);
+                } else {
+                    executeDense(frame, code);
+                }
+            } else if (code.isVerified() && !Histogram.isEnabled()) {
+                executeInstructions(frame, code);
+            } else {
+                executeCheckedInstructions(frame, code);
+            }
+            constantPool = null;
+
+            if (msg == InterpreterThread.MSG_CALLING_FRAME) {
+                if (!thread.enterUserFrame(msgCallee, msgArgc)) break;
+            } else if (msg == InterpreterThread.MSG_TAIL_CALLING_FRAME) {
+                thread.replaceUserFrame(msgCallee, msgArgc);
+            } else if (msg == InterpreterThread.MSG_POPPING_FRAME) {
+                if (!thread.leaveUserFrame()) break;
+            } else {
+                break;
+            }
+        }
+        return msg;
+    }
 
-        CodeData code = frame.getFunction().getCode();
-        constantPool = code.getConstantPool();
+    /** Выполняет проверенный ({@link CodeData#isVerified()}) код объектами инструкций. */
+    private void executeInstructions(int frame, CodeData code) {
         Instruction[] instructions = code.getCode();
+        this.instructions = instructions;
 
-        int cp = frame.getCP();
+        int cp = frames.getCP(frame);
         while (true) {
             nextCP = cp + 1;
-//            Histogram.get().start(instructions[cp].opcode());
             instructions[cp].execute(this);
-//            Histogram.get().end(instructions[cp].opcode());
+            if (msg != 0) {
+                // При ошибке точка выполнения указывает сразу за сбойной инструкцией,
+                // чтобы номер строки в трассировке стека относился именно к ней.
+                frames.setCP(frame, (msg != InterpreterThread.MSG_CRASHED) ? nextCP : cp + 1);
+                break;
+            }
             cp = nextCP;
+            frames.setCP(frame, cp);
+        }
+
+        this.instructions = null;
+    }
+
+    /**
+     * Выполняет код объектами инструкций и собирает последовательности опкодов для {@link Histogram}.
+     * Код мог не пройти проверку ({@link CodeData#isVerified()}), поэтому после каждой инструкции
+     * проверяется, что вершина стека не вышла из окна фрейма.
+     */
+    private void executeCheckedInstructions(int frame, CodeData code) {
+        Instruction[] instructions = code.getCode();
+        this.instructions = instructions;
+        int stackBase = frames.getStackBase(frame);
+        int stackLimit = stackBase + code.getStackWide();
+
+        int cp = frames.getCP(frame);
+        boolean profile = Histogram.isEnabled();
+        if (profile) {
+            Histogram.get().breakSequence();
+        }
+        while (true) {
+            nextCP = cp + 1;
+            if (profile) {
+                Histogram.get().sequence(instructions[cp].opcode());
+            }
+            instructions[cp].execute(this);
+            if (stack.tos() < stackBase || stack.tos() > stackLimit) {
+                throw new InterpreterException("Stack window of " + frames.getFunction(frame).getName()
+                        + " is violated at " + cp + ": depth " + (stack.tos() - stackBase) + " of " + code.getStackWide());
+            }
             if (msg != 0) {
-                if (msg != InterpreterThread.MSG_CRASHED) {
-                    frame.setCP(cp);
-                }
+                // При ошибке точка выполнения указывает сразу за сбойной инструкцией,
+                // чтобы номер строки в трассировке стека относился именно к ней.
+                frames.setCP(frame, (msg != InterpreterThread.MSG_CRASHED) ? nextCP : cp + 1);
                 break;
             }
-            frame.setCP(cp);
+            cp = nextCP;
+            frames.setCP(frame, cp);
         }
 
-        constantPool = null;
-        return msg;
+        this.instructions = null;
+    }
+
+    /**
+     * Выполняет плотный код на одном из двух уровней: скомпилированным
+     * ({@link CodeData#getCompiledCode()}), если функция уже стала горячей, иначе интерпретатором.
+     * Если горячим стал цикл функции, которая вызывается редко (например, {@code <main>}),
+     * функция компилируется посреди выполнения и продолжает работу с начала цикла:
+     * стек и регистры у обоих уровней общие, поэтому переносить фрейм не нужно.
+     */
+    private void executeTiered(int frame, CodeData code) {
+        CompiledCode compiled = code.getCompiledCode();
+        if (compiled == null) {
+            // Продолжения после вызовов не считаются, иначе рекурсия учитывалась бы дважды
+            if (frames.getCP(frame) == 0) {
+                compiled = JitCompiler.countInvocation(frames.getFunction(frame));
+            }
+            while (compiled == null) {
+                Function function = frames.getFunction(frame);
+                backEdgeLimit = code.isNotCompilable() ? NO_BACK_EDGE_LIMIT
+                        : (int) Math.max(1, JitCompiler.COMPILE_THRESHOLD - function.invocationCounter - function.backEdgeCounter);
+                executeDense(frame, code);
+                backEdgeLimit = NO_BACK_EDGE_LIMIT;
+                if (msg != MSG_HOT_LOOP) {
+                    return;
+                }
+                msg = 0;
+                compiled = JitCompiler.compileHot(function);
+            }
+        }
+        long state = compiled.run(this, stack.array(), stack.tos(), memory.array(), memory.top() - 1, frames.getCP(frame));
+        stack.tos((int) state);
+        frames.setCP(frame, (int) (state >>> 32));
+    }
+
+    /**
+     * Выполняет плотный код, собранный в дерево узлов ({@link ClosureCompiler}).
+     * Функции, которые собрать не удалось, выполняются switch-интерпретатором.
+     */
+    private void executeClosures(int frame, CodeData code) {
+        ClosureCode closures = ClosureCompiler.getClosureCode(code);
+        if (closures == null) {
+            executeDense(frame, code);
+            return;
+        }
+        long state = closures.run(this, stack.array(), stack.tos(), memory.array(), memory.top() - 1, frames.getCP(frame));
+        stack.tos((int) state);
+        frames.setCP(frame, (int) (state >>> 32));
+    }
+
+    /**
+     * Выполняет плотный код ({@link CodeData#getDenseCode()}) одним циклом со switch.
+     * Точка выполнения и вершина стека хранятся в локальных переменных
+     * и записываются обратно только при выходе из цикла.
+     */
+    void executeDense(int frame, CodeData code) {
+        int[] c = code.getDenseCode();
+        Address[] s = stack.array();
+        int sp = stack.tos();
+        Address[] m = memory.array();
+        int lb = memory.top() - 1; // Регистр i лежит по смещению lb - i
+        int pc = frames.getCP(frame);
+
+        while (msg == 0) {
+            switch (c[pc]) {
+                case OPCodes.Nop:
+                    pc++;
+                    break;
+
+                case OPCodes.ConstNull:
+                    s[sp++].setNull();
+                    pc++;
+                    break;
+
+                case OPCodes.ConstTrue:
+                    s[sp++].set(true);
+                    pc++;
+                    break;
+
+                case OPCodes.ConstFalse:
+                    s[sp++].set(false);
+                    pc++;
+                    break;
+
+                case OPCodes.ConstIntM1:
+                case OPCodes.ConstInt0:
+                case OPCodes.ConstInt1:
+                case OPCodes.ConstInt2:
+                    s[sp++].set((long) (c[pc] - OPCodes.ConstInt0));
+                    pc++;
+                    break;
+
+                case OPCodes.Push:
+                    constantPool.readToAddress(c[pc + 1], s[sp++]);
+                    pc += 2;
+                    break;
+
+                case OPCodes.Dup:
+                    s[sp].set(s[sp - 1]);
+                    sp++;
+                    pc++;
+                    break;
+
+                case OPCodes.DupX1:
+                    s[sp].set(s[sp - 1]);
+                    s[sp - 1].set(s[sp - 2]);
+                    s[sp - 2].set(s[sp]);
+                    sp++;
+                    pc++;
+                    break;
+
+                case OPCodes.DupX2:
+                    s[sp].set(s[sp - 1]);
+                    s[sp - 1].set(s[sp - 2]);
+                    s[sp - 2].set(s[sp - 3]);
+                    s[sp - 3].set(s[sp]);
+                    sp++;
+                    pc++;
+                    break;
+
+                case OPCodes.Dup2:
+                    s[sp].set(s[sp - 2]);
+                    s[sp + 1].set(s[sp - 1]);
+                    sp += 2;
+                    pc++;
+                    break;
+
+                case OPCodes.Dup2X1:
+                    s[sp + 1].set(s[sp - 1]);
+                    s[sp].set(s[sp - 2]);
+                    s[sp - 1].set(s[sp - 3]);
+                    s[sp - 2].set(s[sp + 1]);
+                    s[sp - 3].set(s[sp]);
+                    sp += 2;
+                    pc++;
+                    break;
+
+                case OPCodes.Dup2X2:
+                    s[sp + 1].set(s[sp - 1]);
+                    s[sp].set(s[sp - 2]);
+                    s[sp - 1].set(s[sp - 3]);
+                    s[sp - 2].set(s[sp - 4]);
+                    s[sp - 3].set(s[sp + 1]);
+                    s[sp - 4].set(s[sp]);
+                    sp += 2;
+                    pc++;
+                    break;
+
+                case OPCodes.Pop:
+                    sp--;
+                    pc++;
+                    break;
+
+                case OPCodes.Pop2:
+                    sp -= 2;
+                    pc++;
+                    break;
+
+                case OPCodes.Add:
+                    s[sp - 2].add(s[sp - 1], s[sp - 2]);
+                    sp--;
+                    pc++;
+                    break;
+
+                case OPCodes.Sub:
+                    s[sp - 2].sub(s[sp - 1], s[sp - 2]);
+                    sp--;
+                    pc++;
+                    break;
+
+                case OPCodes.Mul:
+                    s[sp - 2].mul(s[sp - 1], s[sp - 2]);
+                    sp--;
+                    pc++;
+                    break;
+
+                case OPCodes.Div:
+                    s[sp - 2].div(s[sp - 1], s[sp - 2]);
+                    sp--;
+                    pc++;
+                    break;
+
+                case OPCodes.Rem:
+                    s[sp - 2].rem(s[sp - 1], s[sp - 2]);
+                    sp--;
+                    pc++;
+                    break;
+
+                case OPCodes.And:
+                    s[sp - 2].and(s[sp - 1], s[sp - 2]);
+                    sp--;
+                    pc++;
+                    break;
+
+                case OPCodes.Or:
+                    s[sp - 2].or(s[sp - 1], s[sp - 2]);
+                    sp--;
+                    pc++;
+                    break;
+
+                case OPCodes.Xor:
+                    s[sp - 2].xor(s[sp - 1], s[sp - 2]);
+                    sp--;
+                    pc++;
+                    break;
+
+                case OPCodes.Shl:
+                    s[sp - 2].shl(s[sp - 1], s[sp - 2]);
+                    sp--;
+                    pc++;
+                    break;
+
+                case OPCodes.Shr:
+                    s[sp - 2].shr(s[sp - 1], s[sp - 2]);
+                    sp--;
+                    pc++;
+                    break;
+
+                case OPCodes.Length:
+                    s[sp - 1].length(s[sp - 1]);
+                    pc++;
+                    break;
+
+                case OPCodes.Pos:
+                    s[sp - 1].pos(s[sp - 1]);
+                    pc++;
+                    break;
+
+                case OPCodes.Neg:
+                    s[sp - 1].neg(s[sp - 1]);
+                    pc++;
+                    break;
+
+                case OPCodes.Not:
+                    s[sp - 1].not(s[sp - 1]);
+                    pc++;
+                    break;
+
+                case OPCodes.Load:
+                    s[sp++].set(m[lb - c[pc + 1]]);
+                    pc += 2;
+                    break;
+
+                case OPCodes.Load0:
+                case OPCodes.Load1:
+                case OPCodes.Load2:
+                    s[sp++].set(m[lb - (c[pc] - OPCodes.Load0)]);
+                    pc++;
+                    break;
+
+                case OPCodes.Store:
+                    m[lb - c[pc + 1]].set(s[--sp]);
+                    pc += 2;
+                    break;
+
+                case OPCodes.Store0:
+                case OPCodes.Store1:
+                case OPCodes.Store2:
+                    m[lb - (c[pc] - OPCodes.Store0)].set(s[--sp]);
+                    pc++;
+                    break;
+
+                case OPCodes.Inc:
+                    m[lb - c[pc + 1]].inc();
+                    pc += 2;
+                    break;
+
+                case OPCodes.Dec:
+                    m[lb - c[pc + 1]].dec();
+                    pc += 2;
+                    break;
+
+                case OPCodes.ArrayLoad:
+                    s[sp - 2].load(s[sp - 1], s[sp - 2]);
+                    sp--;
+                    pc++;
+                    break;
+
+                case OPCodes.ArrayStore:
+                    s[sp - 3].store(s[sp - 2], s[sp - 1]);
+                    sp -= 3;
+                    pc++;
+                    break;
+
+                case OPCodes.ArrayInc:
+                    s[sp - 2].arrayInc(s[sp - 1], s[sp - 2]);
+                    sp--;
+                    pc++;
+                    break;
+
+                case OPCodes.ArrayDec:
+                    s[sp - 2].arrayDec(s[sp - 1], s[sp - 2]);
+                    sp--;
+                    pc++;
+                    break;
+
+                case OPCodes.NewList:
+                    stack.tos(sp);
+                    doNewList();
+                    pc++;
+                    break;
+
+                case OPCodes.NewMap:
+                    s[sp++].set(new MapHeap());
+                    pc++;
+                    break;
+
+                case OPCodes.Goto:
+                    pc = jump(c[pc + 1], pc);
+                    break;
+
+                case OPCodes.IfEq:
+                    sp -= 2;
+                    pc = (s[sp].fastCompareWith(s[sp + 1], 1) == 0) ? jump(c[pc + 1], pc) : pc + 2;
+                    break;
+
+                case OPCodes.IfNe:
+                    sp -= 2;
+                    pc = (s[sp].fastCompareWith(s[sp + 1], 1) != 0) ? jump(c[pc + 1], pc) : pc + 2;
+                    break;
+
+                case OPCodes.IfGt:
+                    sp -= 2;
+                    pc = (s[sp].fastCompareWith(s[sp + 1], -1) > 0) ? jump(c[pc + 1], pc) : pc + 2;
+                    break;
+
+                case OPCodes.IfGe:
+                    sp -= 2;
+                    pc = (s[sp].fastCompareWith(s[sp + 1], -1) >= 0) ? jump(c[pc + 1], pc) : pc + 2;
+                    break;
+
+                case OPCodes.IfLt:
+                    sp -= 2;
+                    pc = (s[sp].fastCompareWith(s[sp + 1], 1) < 0) ? jump(c[pc + 1], pc) : pc + 2;
+                    break;
+
+                case OPCodes.IfLe:
+                    sp -= 2;
+                    pc = (s[sp].fastCompareWith(s[sp + 1], 1) <= 0) ? jump(c[pc + 1], pc) : pc + 2;
+                    break;
+
+                case OPCodes.IfZ:
+                    pc = !s[--sp].booleanVal() ? jump(c[pc + 1], pc) : pc + 2;
+                    break;
+
+                case OPCodes.IfNz:
+                    pc = s[--sp].booleanVal() ? jump(c[pc + 1], pc) : pc + 2;
+                    break;
+
+                case OPCodes.IfNull:
+                    pc = s[--sp].isNull() ? jump(c[pc + 1], pc) : pc + 2;
+                    break;
+
+                case OPCodes.IfNonNull:
+                    pc = !s[--sp].isNull() ? jump(c[pc + 1], pc) : pc + 2;
+                    break;
+
+                case OPCodes.IfPresent: {
+                    sp -= 2;
+                    int responseCode = s[sp].contains(s[sp + 1]);
+                    pc = isResultTrue(responseCode) ? jump(c[pc + 1], pc) : pc + 2;
+                    break;
+                }
+
+                case OPCodes.IfAbsent: {
+                    sp -= 2;
+                    int responseCode = s[sp].contains(s[sp + 1]);
+                    pc = isResultFalse(responseCode) ? jump(c[pc + 1], pc) : pc + 2;
+                    break;
+                }
+
+                case OPCodes.LinearSwitch:
+                    pc = denseLinearSwitch(c, pc, s[--sp]);
+                    break;
+
+                case OPCodes.BinarySwitch:
+                    pc = denseBinarySwitch(c, pc, s[--sp]);
+                    break;
+
+                case OPCodes.Call:
+                    doCall(c[pc + 1], c[pc + 2]);
+                    pc += 3;
+                    break;
+
+                case OPCodes.TailCall:
+                    doTailCall(c[pc + 1], c[pc + 2]);
+                    pc += 3;
+                    break;
+
+                case OPCodes.Return:
+                    msg = InterpreterThread.MSG_POPPING_FRAME;
+                    pc++;
+                    break;
+
+                case OPCodes.Leave:
+                    s[sp++].setNull();
+                    msg = InterpreterThread.MSG_POPPING_FRAME;
+                    pc++;
+                    break;
+
+                case OPCodes.RAdd:
+                    operand(c[pc + 2]).add(operand(c[pc + 3]), m[lb - c[pc + 1]]);
+                    pc += 4;
+                    break;
+
+                case OPCodes.RSub:
+                    operand(c[pc + 2]).sub(operand(c[pc + 3]), m[lb - c[pc + 1]]);
+                    pc += 4;
+                    break;
+
+                case OPCodes.RMul:
+                    operand(c[pc + 2]).mul(operand(c[pc + 3]), m[lb - c[pc + 1]]);
+                    pc += 4;
+                    break;
+
+                case OPCodes.RDiv:
+                    operand(c[pc + 2]).div(operand(c[pc + 3]), m[lb - c[pc + 1]]);
+                    pc += 4;
+                    break;
+
+                case OPCodes.RRem:
+                    operand(c[pc + 2]).rem(operand(c[pc + 3]), m[lb - c[pc + 1]]);
+                    pc += 4;
+                    break;
+
+                case OPCodes.RAnd:
+                    operand(c[pc + 2]).and(operand(c[pc + 3]), m[lb - c[pc + 1]]);
+                    pc += 4;
+                    break;
+
+                case OPCodes.ROr:
+                    operand(c[pc + 2]).or(operand(c[pc + 3]), m[lb - c[pc + 1]]);
+                    pc += 4;
+                    break;
+
+                case OPCodes.RXor:
+                    operand(c[pc + 2]).xor(operand(c[pc + 3]), m[lb - c[pc + 1]]);
+                    pc += 4;
+                    break;
+
+                case OPCodes.RShl:
+                    operand(c[pc + 2]).shl(operand(c[pc + 3]), m[lb - c[pc + 1]]);
+                    pc += 4;
+                    break;
+
+                case OPCodes.RShr:
+                    operand(c[pc + 2]).shr(operand(c[pc + 3]), m[lb - c[pc + 1]]);
+                    pc += 4;
+                    break;
+
+                case OPCodes.RMove:
+                    m[lb - c[pc + 1]].set(operand(c[pc + 2]));
+                    pc += 4;
+                    break;
+
+                case OPCodes.RIfEq:
+                    pc = (operand(c[pc + 2]).fastCompareWith(operand(c[pc + 3]), 1) == 0) ? jump(c[pc + 1], pc) : pc + 4;
+                    break;
+
+                case OPCodes.RIfNe:
+                    pc = (operand(c[pc + 2]).fastCompareWith(operand(c[pc + 3]), 1) != 0) ? jump(c[pc + 1], pc) : pc + 4;
+                    break;
+
+                case OPCodes.RIfGt:
+                    pc = (operand(c[pc + 2]).fastCompareWith(operand(c[pc + 3]), -1) > 0) ? jump(c[pc + 1], pc) : pc + 4;
+                    break;
+
+                case OPCodes.RIfGe:
+                    pc = (operand(c[pc + 2]).fastCompareWith(operand(c[pc + 3]), -1) >= 0) ? jump(c[pc + 1], pc) : pc + 4;
+                    break;
+
+                case OPCodes.RIfLt:
+                    pc = (operand(c[pc + 2]).fastCompareWith(operand(c[pc + 3]), 1) < 0) ? jump(c[pc + 1], pc) : pc + 4;
+                    break;
+
+                case OPCodes.RIfLe:
+                    pc = (operand(c[pc + 2]).fastCompareWith(operand(c[pc + 3]), 1) <= 0) ? jump(c[pc + 1], pc) : pc + 4;
+                    break;
+
+                default:
+                    throw new InterpreterException("Unknown opcode " + c[pc] + " at " + pc);
+            }
+        }
+
+        stack.tos(sp);
+        frames.setCP(frame, pc);
+        if (backEdges != 0) {
+            frames.getFunction(frame).backEdgeCounter += backEdges;
+            backEdges = 0;
+        }
     }
 
-    public ConstantPool getConstantPool() {
+    /**
+     * Возвращает точку перехода и считает обратные переходы для {@link JitCompiler}.
+     * Когда цикл становится горячим, плотный код прерывается в начале цикла.
+     * Без JIT переходы не считаются, и выполнение не прерывается, как бы долго ни шел цикл.
+     */
+    private int jump(int target, int pc) {
+        if (target <= pc && backEdgeLimit != NO_BACK_EDGE_LIMIT && ++backEdges >= backEdgeLimit) {
+            msg = MSG_HOT_LOOP;
+        }
+        return target;
+    }
+
+    /**
+     * Возвращает операнд регистровой инструкции: регистр текущего фрейма или константу.
+     */
+    private Address operand(int operand) {
+        return (operand >= 0) ? memory.get(operand) : constantPool.getAddress(-1 - operand);
+    }
+
+    /*
+     * Плотная форма *switch-инструкций:
+     *   opcode, count, defaultPc, label[0..count), pc[0..count)
+     */
+
+    public int denseLinearSwitch(int[] c, int pc, Address selector) {
+        int count = c[pc + 1];
+        int defaultPc = c[pc + 2];
+
+        // Не скалярные значения семантически запрещены
+        if (!selector.isScalar()) {
+            return defaultPc;
+        }
+
+        int selectorHash = selector.hashCode();
+        NewConstantPool pool = getConstantPool();
+
+        for (int i = 0; i < count; i++) {
+            int k = c[pc + 3 + i];
+            if (selectorHash == pool.getHash(k) && selector.fastCompareWith(pool.getAddress(k), 1) == 0) {
+                return c[pc + 3 + count + i];
+            }
+        }
+        return defaultPc;
+    }
+
+    public int denseBinarySwitch(int[] c, int pc, Address selector) {
+        int count = c[pc + 1];
+        int defaultPc = c[pc + 2];
+
+        // Не скалярные значения семантически запрещены
+        if (!selector.isScalar()) {
+            return defaultPc;
+        }
+
+        NewConstantPool pool = getConstantPool();
+        int l = 0;
+        int h = count - 1;
+
+        while (l <= h) {
+            int x = (l + h) >> 1;
+            Address k = pool.getAddress(c[pc + 3 + x]);
+            int d = selector.compareTo(k);
+
+            if (d > 0) {
+                l = x + 1;
+            } else if (d < 0) {
+                h = x - 1;
+            } else {
+                // Если selector != k, значит один из операндов это NaN и поиск все равно завершен.
+                return (selector.fastCompareWith(k, 1) == 0) ? c[pc + 3 + count + x] : defaultPc;
+            }
+        }
+        return defaultPc;
+    }
+
+    public NewConstantPool getConstantPool() {
         return constantPool;
     }
 
@@ -122,7 +791,7 @@ public final class ExecutionContext {
     }
 
     public void doPush(int cpi) { // Constant Pool Index
-        getConstantPool().load(cpi, getStack().pushGet());
+        getConstantPool().readToAddress(cpi, getStack().pushGet());
     }
 
     public void doDup() {
@@ -305,6 +974,10 @@ public final class ExecutionContext {
         value.set(new ListHeap((int) a));
     }
 
+    public void doNewMap() {
+        getStack().pushGet().set(new MapHeap());
+    }
+
     public void doJumpIfEq(int nextCp) {
         Address lhs = getStack().getStackAddress(-2);
         Address rhs = getStack().getStackAddress(-1);
@@ -417,11 +1090,10 @@ public final class ExecutionContext {
         }
 
         int selectorHash = selector.hashCode();
+        NewConstantPool pool = getConstantPool();
 
         for (int i = 0; i < labels.length; i++) {
-            getConstantPool().load(labels[i], tmp);
-            int kHash = tmp.hashCode();
-            if (selectorHash == kHash && selector.fastCompareWith(tmp, 1) == 0) {
+            if (selectorHash == pool.getHash(labels[i]) && selector.fastCompareWith(pool.getAddress(labels[i]), 1) == 0) {
                 setNextCp(cps[i]);
                 return;
             }
@@ -438,13 +1110,14 @@ public final class ExecutionContext {
             return;
         }
 
+        NewConstantPool pool = getConstantPool();
         int l = 0;
         int h = labels.length - 1;
 
         while (l <= h) {
             int x = (l + h) >> 1;
-            getConstantPool().load(labels[x], tmp);
-            int d = selector.compareTo(tmp);
+            Address k = pool.getAddress(labels[x]);
+            int d = selector.compareTo(k);
 
             if (d > 0) {
                 l = x + 1;
@@ -455,7 +1128,7 @@ public final class ExecutionContext {
                 /* assert d != 2; */
 
                 // Если selector != k, значит один из операндов это NaN и цикл все равно завершен.
-                if (selector.fastCompareWith(tmp, 1) == 0) {
+                if (selector.fastCompareWith(k, 1) == 0) {
                     setNextCp(cps[x]);
                 }
                 return;
@@ -468,19 +1141,36 @@ public final class ExecutionContext {
     public void doCall(int calleeId, int argCount) {
 //        Histogram.get().start(OPCodes._JoinNativeFrame);
 //        Histogram.get().start(OPCodes._JoinFrame);
+        msg = InterpreterThread.MSG_CALLING_FRAME;
+        msgCallee = resolveCallee(calleeId);
+        msgArgc = argCount;
+    }
+
+    /**
+     * Хвостовой вызов: фрейм текущей функции подменяется фреймом вызываемой.
+     * Нативные и "once" функции вызываются обычным образом, после чего
+     * выполняется следующая за хвостовым вызовом инструкция возврата.
+     */
+    public void doTailCall(int calleeId, int argCount) {
+        Function fn = resolveCallee(calleeId);
+        msg = (fn.isUserDefined() && !fn.isOnce())
+                ? InterpreterThread.MSG_TAIL_CALLING_FRAME
+                : InterpreterThread.MSG_CALLING_FRAME;
+        msgCallee = fn;
+        msgArgc = argCount;
+    }
+
+    private Function resolveCallee(int calleeId) {
         ResolvableCallee callee = getConstantPool().getCallee(calleeId);
         Function fn;
         if (callee.isResolved()) {
             fn = callee.getResolved();
         } else {
-            String name = getConstantPool().getUtf8(callee.getUtf8());
+            String name = getConstantPool().getString(callee.getUtf8());
             fn = JuaEnvironment.getEnvironment().lookupFunction(name);
             callee.setResolved(fn);
         }
-
-        msg = InterpreterThread.MSG_CALLING_FRAME;
-        msgCallee = fn;
-        msgArgc = argCount;
+        return fn;
     }
 
     public void doReturn() {
@@ -493,4 +1183,269 @@ public final class ExecutionContext {
         msg = InterpreterThread.MSG_POPPING_FRAME;
 //        Histogram.get().start(OPCodes._PopFrame);
     }
+
+    public void doRAdd(int dst, int lhs, int rhs) {
+        operand(lhs).add(operand(rhs), getMemory().get(dst));
+    }
+
+    public void doRSub(int dst, int lhs, int rhs) {
+        operand(lhs).sub(operand(rhs), getMemory().get(dst));
+    }
+
+    public void doRMul(int dst, int lhs, int rhs) {
+        operand(lhs).mul(operand(rhs), getMemory().get(dst));
+    }
+
+    public void doRDiv(int dst, int lhs, int rhs) {
+        operand(lhs).div(operand(rhs), getMemory().get(dst));
+    }
+
+    public void doRRem(int dst, int lhs, int rhs) {
+        operand(lhs).rem(operand(rhs), getMemory().get(dst));
+    }
+
+    public void doRAnd(int dst, int lhs, int rhs) {
+        operand(lhs).and(operand(rhs), getMemory().get(dst));
+    }
+
+    public void doROr(int dst, int lhs, int rhs) {
+        operand(lhs).or(operand(rhs), getMemory().get(dst));
+    }
+
+    public void doRXor(int dst, int lhs, int rhs) {
+        operand(lhs).xor(operand(rhs), getMemory().get(dst));
+    }
+
+    public void doRShl(int dst, int lhs, int rhs) {
+        operand(lhs).shl(operand(rhs), getMemory().get(dst));
+    }
+
+    public void doRShr(int dst, int lhs, int rhs) {
+        operand(lhs).shr(operand(rhs), getMemory().get(dst));
+    }
+
+    public void doRMove(int dst, int src) {
+        getMemory().get(dst).set(operand(src));
+    }
+
+    public void doRJumpIfEq(int lhs, int rhs, int nextCp) {
+        if (operand(lhs).fastCompareWith(operand(rhs), 1) == 0) {
+            setNextCp(nextCp);
+        }
+    }
+
+    public void doRJumpIfNe(int lhs, int rhs, int nextCp) {
+        if (operand(lhs).fastCompareWith(operand(rhs), 1) != 0) {
+            setNextCp(nextCp);
+        }
+    }
+
+    public void doRJumpIfGt(int lhs, int rhs, int nextCp) {
+        if (operand(lhs).fastCompareWith(operand(rhs), -1) > 0) {
+            setNextCp(nextCp);
+        }
+    }
+
+    public void doRJumpIfGe(int lhs, int rhs, int nextCp) {
+        if (operand(lhs).fastCompareWith(operand(rhs), -1) >= 0) {
+            setNextCp(nextCp);
+        }
+    }
+
+    public void doRJumpIfLt(int lhs, int rhs, int nextCp) {
+        if (operand(lhs).fastCompareWith(operand(rhs), 1) < 0) {
+            setNextCp(nextCp);
+        }
+    }
+
+    public void doRJumpIfLe(int lhs, int rhs, int nextCp) {
+        if (operand(lhs).fastCompareWith(operand(rhs), 1) <= 0) {
+            setNextCp(nextCp);
+        }
+    }
+
+    /*
+     * Суперинструкции. Каждая заменяет собой несколько подряд идущих инструкций
+     * и сама переносит точку выполнения за конец заменённой последовательности.
+     */
+
+    /** load a; load b; add */
+    public void doLoadLoadAdd(int a, int b) {
+        Address result = getStack().pushGet();
+        result.set(getMemory().get(a));
+        result.add(getMemory().get(b), result);
+        nextCP += 2;
+    }
+
+    /** load a; load b; aload */
+    public void doLoadLoadArrayLoad(int a, int b) {
+        getMemory().get(a).load(getMemory().get(b), getStack().pushGet());
+        nextCP += 2;
+    }
+
+    /** load a; const_i1; add; store b */
+    public void doLoadAdd1Store(int a, int b, Address one) {
+        getMemory().get(a).add(one, getMemory().get(b));
+        nextCP += 3;
+    }
+
+    /** load a; load b; iflt */
+    public void doLoadLoadJumpIfLt(int a, int b, int thenCp) {
+        if (getMemory().get(a).fastCompareWith(getMemory().get(b), 1) < 0) {
+            nextCP = thenCp;
+        } else {
+            nextCP += 2;
+        }
+    }
+
+    /** load a; load b; ifge */
+    public void doLoadLoadJumpIfGe(int a, int b, int thenCp) {
+        if (getMemory().get(a).fastCompareWith(getMemory().get(b), -1) >= 0) {
+            nextCP = thenCp;
+        } else {
+            nextCP += 2;
+        }
+    }
+
+    /** load a; push cpi; iflt */
+    public void doLoadPushJumpIfLt(int a, int cpi, int thenCp) {
+        if (getMemory().get(a).fastCompareWith(getConstantPool().getAddress(cpi), 1) < 0) {
+            nextCP = thenCp;
+        } else {
+            nextCP += 2;
+        }
+    }
+
+    /** load a; push cpi; ifge */
+    public void doLoadPushJumpIfGe(int a, int cpi, int thenCp) {
+        if (getMemory().get(a).fastCompareWith(getConstantPool().getAddress(cpi), -1) >= 0) {
+            nextCP = thenCp;
+        } else {
+            nextCP += 2;
+        }
+    }
+
+    /*
+     * Ускоренные (quickened) инструкции. Инструкция, которая видела только целые операнды,
+     * заменяет себя в коде функции специализированной версией с одной проверкой типов.
+     * Если проверка не проходит, специализированная версия возвращает на место общую.
+     */
+
+    /** Заменяет инструкцию в точке {@code cp} кода выполняемой функции другой. */
+    public void rewrite(int cp, Instruction instruction) {
+        instructions[cp] = instruction;
+    }
+
+    /** Проверяет, что на вершине стека лежат два целых числа. */
+    public boolean isIntIntOnTop() {
+        return getStack().peek(-2).getType() == Types.T_INT
+                && getStack().peek(-1).getType() == Types.T_INT;
+    }
+
+    /** Проверяет, что на вершине стека лежат список и целый индекс. */
+    public boolean isListIntOnTop() {
+        return getStack().peek(-2).getType() == Types.T_LIST
+                && getStack().peek(-1).getType() == Types.T_INT;
+    }
+
+    public boolean doAddIntInt() {
+        if (!isIntIntOnTop()) return false;
+        Address lhs = getStack().peek(-2);
+        lhs.set(lhs.getLong() + getStack().peek(-1).getLong());
+        getStack().pop();
+        return true;
+    }
+
+    public boolean doSubIntInt() {
+        if (!isIntIntOnTop()) return false;
+        Address lhs = getStack().peek(-2);
+        lhs.set(lhs.getLong() - getStack().peek(-1).getLong());
+        getStack().pop();
+        return true;
+    }
+
+    public boolean doMulIntInt() {
+        if (!isIntIntOnTop()) return false;
+        Address lhs = getStack().peek(-2);
+        lhs.set(lhs.getLong() * getStack().peek(-1).getLong());
+        getStack().pop();
+        return true;
+    }
+
+    public boolean doJumpIfEqIntInt(int nextCp) {
+        if (!isIntIntOnTop()) return false;
+        long lhs = getStack().peek(-2).getLong();
+        long rhs = getStack().peek(-1).getLong();
+        getStack().pop2();
+        if (lhs == rhs) {
+            setNextCp(nextCp);
+        }
+        return true;
+    }
+
+    public boolean doJumpIfNeIntInt(int nextCp) {
+        if (!isIntIntOnTop()) return false;
+        long lhs = getStack().peek(-2).getLong();
+        long rhs = getStack().peek(-1).getLong();
+        getStack().pop2();
+        if (lhs != rhs) {
+            setNextCp(nextCp);
+        }
+        return true;
+    }
+
+    public boolean doJumpIfGtIntInt(int nextCp) {
+        if (!isIntIntOnTop()) return false;
+        long lhs = getStack().peek(-2).getLong();
+        long rhs = getStack().peek(-1).getLong();
+        getStack().pop2();
+        if (lhs > rhs) {
+            setNextCp(nextCp);
+        }
+        return true;
+    }
+
+    public boolean doJumpIfGeIntInt(int nextCp) {
+        if (!isIntIntOnTop()) return false;
+        long lhs = getStack().peek(-2).getLong();
+        long rhs = getStack().peek(-1).getLong();
+        getStack().pop2();
+        if (lhs >= rhs) {
+            setNextCp(nextCp);
+        }
+        return true;
+    }
+
+    public boolean doJumpIfLtIntInt(int nextCp) {
+        if (!isIntIntOnTop()) return false;
+        long lhs = getStack().peek(-2).getLong();
+        long rhs = getStack().peek(-1).getLong();
+        getStack().pop2();
+        if (lhs < rhs) {
+            setNextCp(nextCp);
+        }
+        return true;
+    }
+
+    public boolean doJumpIfLeIntInt(int nextCp) {
+        if (!isIntIntOnTop()) return false;
+        long lhs = getStack().peek(-2).getLong();
+        long rhs = getStack().peek(-1).getLong();
+        getStack().pop2();
+        if (lhs <= rhs) {
+            setNextCp(nextCp);
+        }
+        return true;
+    }
+
+    public boolean doArrayLoadList() {
+        if (!isListIntOnTop()) return false;
+        Address arr = getStack().peek(-2);
+        ListHeap list = arr.getListHeap();
+        long index = getStack().peek(-1).getLong();
+        if (index < 0 || index >= list.length()) return false;
+        list.load((int) index, arr);
+        getStack().pop();
+        return true;
+    }
 }
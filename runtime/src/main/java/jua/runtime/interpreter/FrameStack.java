@@ -0,0 +1,133 @@
+package jua.runtime.interpreter;
+
+import jua.runtime.Function;
+
+import java.util.Arrays;
+
+/**
+ * Стек фреймов потока. Фрейм это номер в параллельных массивах: функция, точка выполнения,
+ * начало регистров в {@link ThreadMemory} и начало окна в {@link ThreadStack}.
+ * Вызывающий фрейм лежит под вызываемым, поэтому ссылка на него не нужна.
+ * Массивы растут вдвое и не сжимаются, так что вызов и возврат ничего не создают.
+ * Флаги фрейма отмечают, что при входе в него регистры или окно стека перешли в новый сегмент
+ * (см. {@link AddressSegments}), и при выходе нужно вернуться в предыдущий.
+ */
+public final class FrameStack {
+
+    /** Номер фрейма, которого нет. Возвращается, когда стек пуст, и как вызывающий нижнего фрейма. */
+    public static final int NO_FRAME = -1;
+
+    /** Регистры фрейма лежат в сегменте, открытом при входе в него. */
+    static final byte MEMORY_SEGMENT = 1;
+
+    /** Окно стека фрейма лежит в сегменте, открытом при входе в него. */
+    static final byte STACK_SEGMENT = 2;
+
+    private Function[] functions;
+    private int[] cps;
+    private int[] regBases;
+    private int[] stackBases;
+    private byte[] flags;
+
+    /** Номер текущего фрейма. */
+    private int top = NO_FRAME;
+
+    public FrameStack() {
+        this(128);
+    }
+
+    public FrameStack(int capacity) {
+        functions = new Function[capacity];
+        cps = new int[capacity];
+        regBases = new int[capacity];
+        stackBases = new int[capacity];
+        flags = new byte[capacity];
+    }
+
+    /** Добавляет фрейм с точкой выполнения 0 и делает его текущим. */
+    public int push(Function function, int regBase, int stackBase) {
+        int frame = ++top;
+        if (frame == functions.length) {
+            grow();
+        }
+        functions[frame] = function;
+        cps[frame] = 0;
+        regBases[frame] = regBase;
+        stackBases[frame] = stackBase;
+        flags[frame] = 0;
+        return frame;
+    }
+
+    /** Снимает текущий фрейм, текущим становится вызывающий. */
+    public void pop() {
+        functions[top] = null; // В помощь GC
+        top--;
+    }
+
+    private void grow() {
+        int newCapacity = functions.length * 2;
+        functions = Arrays.copyOf(functions, newCapacity);
+        cps = Arrays.copyOf(cps, newCapacity);
+        regBases = Arrays.copyOf(regBases, newCapacity);
+        stackBases = Arrays.copyOf(stackBases, newCapacity);
+        flags = Arrays.copyOf(flags, newCapacity);
+    }
+
+    /** Возвращает номер текущего фрейма или {@link #NO_FRAME}. */
+    public int current() {
+        return top;
+    }
+
+    public boolean isEmpty() {
+        return top == NO_FRAME;
+    }
+
+    /** Возвращает номер вызывающего фрейма или {@link #NO_FRAME}. */
+    public int getCaller(int frame) {
+        return frame - 1;
+    }
+
+    public Function getFunction(int frame) {
+        return functions[frame];
+    }
+
+    public void setFunction(int frame, Function function) {
+        functions[frame] = function;
+    }
+
+    public int getCP(int frame) {
+        return cps[frame];
+    }
+
+    public void setCP(int frame, int cp) {
+        cps[frame] = cp;
+    }
+
+    public int getRegBase(int frame) {
+        return regBases[frame];
+    }
+
+    public void setRegBase(int frame, int regBase) {
+        regBases[frame] = regBase;
+    }
+
+    public int getStackBase(int frame) {
+        return stackBases[frame];
+    }
+
+    public void setStackBase(int frame, int stackBase) {
+        stackBases[frame] = stackBase;
+    }
+
+    boolean hasFlag(int frame, byte flag) {
+        return (flags[frame] & flag) != 0;
+    }
+
+    void setFlag(int frame, byte flag, boolean value) {
+        if (value) {
+            flags[frame] |= flag;
+        } else {
+            flags[frame] &= ~flag;
+        }
+    }
+}
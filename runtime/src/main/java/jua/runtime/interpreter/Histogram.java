@@ -1,5 +1,8 @@
 package jua.runtime.interpreter;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class Histogram {
 
     private static class NoOpHistogram extends Histogram {
@@ -12,6 +15,14 @@ public class Histogram {
         public void end(int opcode) {
         }
 
+        @Override
+        public void sequence(int opcode) {
+        }
+
+        @Override
+        public void breakSequence() {
+        }
+
         @Override
         public void print() {
         }
@@ -48,6 +59,15 @@ public class Histogram {
     private long start;
     private int state = 1; // 0 start, 1 = end
 
+    /** Частоты пар опкодов, индекс {@code a * _InstrCount + b}. */
+    private long[] pairs;
+
+    /** Частоты троек опкодов, индекс {@code (a * _InstrCount + b) * _InstrCount + c}. */
+    private long[] triples;
+
+    /** Два последних выполненных опкода, -1 если последовательность прервана. */
+    private int prev1 = -1, prev2 = -1;
+
     public void start(int opcode) {
         if (state != 0) {
             start = System.nanoTime();
@@ -68,6 +88,32 @@ public class Histogram {
         }
     }
 
+    /**
+     * Учитывает выполнение опкода в частотах пар и троек подряд идущих опкодов.
+     */
+    public void sequence(int opcode) {
+        if (pairs == null) {
+            pairs = new long[OPCodes._InstrCount * OPCodes._InstrCount];
+            triples = new long[OPCodes._InstrCount * OPCodes._InstrCount * OPCodes._InstrCount];
+        }
+        if (prev1 >= 0) {
+            pairs[prev1 * OPCodes._InstrCount + opcode]++;
+            if (prev2 >= 0) {
+                triples[(prev2 * OPCodes._InstrCount + prev1) * OPCodes._InstrCount + opcode]++;
+            }
+        }
+        prev2 = prev1;
+        prev1 = opcode;
+    }
+
+    /**
+     * Прерывает последовательность опкодов, например, при смене фрейма.
+     */
+    public void breakSequence() {
+        prev1 = -1;
+        prev2 = -1;
+    }
+
     public void print() {
         System.out.println("=== HISTOGRAM BEGIN ===");
         int limit = 100;
@@ -96,6 +142,63 @@ public class Histogram {
             System.out.printf("%-20s: %-10s | %-51s %d ns/op%n", OPCodes.NAMES[i] + ':', counters[i] + "x", buf, avg);
             buf.setLength(0);
         }
+        if (pairs != null) {
+            System.out.println("--- Top opcode pairs ---");
+            printTopSequences(2, 20);
+            System.out.println("--- Top opcode triples ---");
+            printTopSequences(3, 20);
+        }
         System.out.println("===  HISTOGRAM END  ===");
     }
+
+    private void printTopSequences(int length, int limit) {
+        StringBuilder buf = new StringBuilder();
+        for (long[] sequence : topSequences(length, limit)) {
+            for (int k = 0; k < length; k++) {
+                if (k > 0) buf.append(", ");
+                buf.append(OPCodes.NAMES[(int) sequence[k]]);
+            }
+            System.out.printf("%-50s: %dx%n", buf, sequence[length]);
+            buf.setLength(0);
+        }
+    }
+
+    /**
+     * Возвращает не больше {@code limit} самых частых пар ({@code length == 2}) или троек ({@code length == 3})
+     * опкодов по убыванию частоты. Каждая последовательность — это опкоды, за которыми идет число ее выполнений.
+     */
+    public List<long[]> topSequences(int length, int limit) {
+        if (length != 2 && length != 3) {
+            throw new IllegalArgumentException("length = " + length);
+        }
+        List<long[]> result = new ArrayList<>();
+        if (pairs == null) {
+            return result;
+        }
+        long[] counts = (length == 2) ? pairs : triples;
+        int[] top = new int[limit];
+        int n = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) continue;
+            // Вставка в упорядоченный по убыванию массив лучших индексов.
+            if (n == limit && counts[top[n - 1]] >= counts[i]) continue;
+            int j = (n < limit) ? n++ : n - 1;
+            while (j > 0 && counts[top[j - 1]] < counts[i]) {
+                top[j] = top[j - 1];
+                j--;
+            }
+            top[j] = i;
+        }
+        for (int i = 0; i < n; i++) {
+            int index = top[i];
+            long[] sequence = new long[length + 1];
+            for (int k = length - 1; k >= 0; k--) {
+                sequence[k] = index % OPCodes._InstrCount;
+                index /= OPCodes._InstrCount;
+            }
+            sequence[length] = counts[top[i]];
+            result.add(sequence);
+        }
+        return result;
+    }
 }
@@ -1,6 +1,7 @@
 package jua.runtime.interpreter;
 
 import jua.runtime.interpreter.instruction.Instruction;
+import jua.runtime.Context;
 import jua.runtime.Function;
 import jua.runtime.JuaEnvironment;
 import jua.runtime.RuntimeErrorException;
@@ -10,6 +11,7 @@ import jua.runtime.utils.Assert;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Objects;
 
 public final class InterpreterThread {
@@ -19,7 +21,9 @@ public final class InterpreterThread {
     public static final int MSG_UNSTARTED         = 0; /* Поток создан, но не запущен */
     public static final int MSG_RUNNING_FRAME     = 1; /* Поток выполняет фрейм */
     public static final int MSG_CALLING_FRAME     = 2; /* Поток вызывает фрейм */
+    public static final int MSG_TAIL_CALLING_FRAME = 3; /* Поток подменяет текущий фрейм вызываемым */
     public static final int MSG_POPPING_FRAME     = 4; /* Поток возвращает фрейм */
+    public static final int MSG_RETURNED          = 5; /* Поток вернулся в нативную функцию, вызвавшую callAndWait */
     public static final int MSG_CRASHED           = 6; /* В потоке произошла ошибка */
     public static final int MSG_HALTED            = 7; /* Поток прерван */
 
@@ -45,8 +49,9 @@ public final class InterpreterThread {
 
     private final JuaEnvironment environment;
 
-    public InterpreterFrame currentFrame() {
-        return  current;
+    /** Возвращает номер текущего фрейма в {@link #frames()} или {@link FrameStack#NO_FRAME}. */
+    public int currentFrame() {
+        return frames.current();
     }
 
     private Function callee;
@@ -59,8 +64,10 @@ public final class InterpreterThread {
 
     private final ThreadStack stack = new ThreadStack();
     private final ThreadMemory memory = new ThreadMemory();
-    private final FrameFactory frameFactory = new FrameFactory();
-    private InterpreterFrame current = null;
+    private final FrameStack frames = new FrameStack();
+
+    private Context[] nativeContexts = new Context[4];
+    private int nativeDepth = 0;
 
     private final ExecutionContext executionContext;
 
@@ -70,7 +77,7 @@ public final class InterpreterThread {
         bind();
         this.jvmThread = jvmThread;
         this.environment = environment;
-        executionContext = new ExecutionContext(stack(), memory());
+        executionContext = new ExecutionContext(this, stack(), memory(), frames);
     }
 
     public ThreadStack stack() {
@@ -81,6 +88,10 @@ public final class InterpreterThread {
         return memory;
     }
 
+    public FrameStack frames() {
+        return frames;
+    }
+
     private void bind() {
         if (THREADED_INSTANCE.get() != null) {
             throw new IllegalStateException("Thread already present");
@@ -101,51 +112,63 @@ public final class InterpreterThread {
     }
 
     private void pushFrame() {
-        InterpreterFrame frame = frameFactory.allocate();
-        frame.setCaller(currentFrame());
-        frame.setFunction(callee);
-        frame.setCP(0);
-        current = frame;
+        // Окно стека откроется, когда аргументы будут сняты в регистры
+        frames.push(callee, memory.top(), stack.tos());
     }
 
     private void popFrame() {
-        current = current.getCaller();
+        frames.pop();
     }
 
     private void enterFrame() {
         Assert.checkNonNull(callee, "callee is not set");
         pushFrame();
         if (callee.isUserDefined()) {
-            memory.acquire(callee.getCode().getRegNumber());
+            acquireRegisters();
             if (callee.isOnce()) {
+                // У "once" функций не должно быть параметров
+                openStackWindow();
                 if (callee.onceCondition) {
                     stack.pushGet().set(callee.onceContainer);
                     set_msg(MSG_POPPING_FRAME);
                     return;
                 }
-                // У "once" функций не должно быть параметров
             } else {
-                for (int i = 0; i < numArgs; i++) {
-                    memory.get(numArgs - i - 1).set(stack().popGet());
-                }
-                for (int i = numArgs; i < callee.getMaxArgc(); i++) {
-                    memory.get(i).set(callee.getDefaults()[i - callee.getMinArgc()]);
-                }
+                bindArguments();
+                openStackWindow();
             }
 //            Histogram.get().end(OPCodes._JoinFrame);
             set_msg(MSG_RUNNING_FRAME);
         } else {
-            Address[] args = AddressUtils.allocateMemory(callee.getMaxArgc(), 0);
-            for (int i = 0; i < numArgs; i++) {
-                args[numArgs - i - 1].set(stack().popGet());
-            }
+            // Аргументы остаются на стеке, недостающие дополняются значениями по умолчанию.
+            // Функция читает их прямо из стека, а результат пишет в ячейку над ними.
+            // Аргументы переносятся в новый сегмент вместе с окном, если в текущем не хватает места
+            boolean segment = stack.reserve(callee.getMaxArgc() - numArgs + 1, numArgs);
             for (int i = numArgs; i < callee.getMaxArgc(); i++) {
-                args[i].set(callee.getDefaults()[i - callee.getMinArgc()]);
+                stack.push(callee.getDefaults()[i - callee.getMinArgc()]);
             }
+            int base = stack.tos() - callee.getMaxArgc();
+            Address returnAddress = stack.pushGet();
+            returnAddress.setNull(); // Функции, которые ничего не возвращают, возвращают null
+            Context context = acquireNativeContext();
+            context.bind(stack.array(), base, numArgs);
 //            Histogram.get().end(OPCodes._JoinNativeFrame);
             set_msg(MSG_RUNNING_FRAME);
-            boolean success = callee.nativeExecutor().execute(args, numArgs, stack().pushGet());
+            // Нативная функция может вызвать другую функцию, и поле callee будет перезаписано
+            Function nativeFn = callee;
+            boolean success = nativeFn.nativeExecutor().execute(context, returnAddress);
+            context.unbind();
+            releaseNativeContext();
             if (success) {
+                stack.tos(base);
+                Address result = stack.pushGet();
+                if (result != returnAddress) { // У функции без параметров результат уже на месте
+                    result.set(returnAddress);
+                }
+                stack.cleanup(base + nativeFn.getMaxArgc() + 1);
+                if (segment) {
+                    stack.leaveSegment(1);
+                }
 //                Histogram.get().start(OPCodes._PopNativeFrame);
                 set_msg(MSG_POPPING_FRAME);
             } else {
@@ -154,11 +177,142 @@ public final class InterpreterThread {
         }
     }
 
+    /**
+     * Открывает окно стека текущего фрейма от вершины стека (аргументы уже сняты в регистры).
+     * Операции стека внутри фрейма не проверяют его размер.
+     */
+    private void openStackWindow() {
+        int frame = frames.current();
+        boolean segment = stack.reserve(frames.getFunction(frame).getCode().getStackWide(), 0);
+        frames.setFlag(frame, FrameStack.STACK_SEGMENT, segment);
+        frames.setStackBase(frame, stack.tos());
+    }
+
+    /**
+     * Очищает остаток окна стека текущего фрейма над вершиной стека. Если окно открыло
+     * свой сегмент, значения в окне (результат фрейма) переносятся в предыдущий.
+     */
+    private void closeStackWindow() {
+        int frame = frames.current();
+        int base = frames.getStackBase(frame);
+        stack.cleanup(base + frames.getFunction(frame).getCode().getStackWide());
+        if (frames.hasFlag(frame, FrameStack.STACK_SEGMENT)) {
+            stack.leaveSegment(stack.tos() - base);
+        }
+    }
+
+    /** Занимает регистры вызываемой функции для текущего фрейма. */
+    private void acquireRegisters() {
+        int frame = frames.current();
+        int regs = callee.getCode().getRegNumber();
+        boolean segment = memory.acquire(regs);
+        frames.setFlag(frame, FrameStack.MEMORY_SEGMENT, segment);
+        frames.setRegBase(frame, memory.top() - regs);
+    }
+
+    /** Освобождает регистры текущего фрейма. */
+    private void releaseRegisters() {
+        int frame = frames.current();
+        memory.release(frames.getRegBase(frame));
+        if (frames.hasFlag(frame, FrameStack.MEMORY_SEGMENT)) {
+            memory.leaveSegment();
+        }
+    }
+
+    private void bindArguments() {
+        for (int i = 0; i < numArgs; i++) {
+            memory.get(numArgs - i - 1).set(stack().popGet());
+        }
+        for (int i = numArgs; i < callee.getMaxArgc(); i++) {
+            memory.get(i).set(callee.getDefaults()[i - callee.getMinArgc()]);
+        }
+    }
+
+    /**
+     * Входит в пользовательскую функцию, минуя цикл сообщений потока.
+     * Вызывается из {@link ExecutionContext#execute()}, который продолжает выполнение
+     * уже в новом фрейме. Возвращает {@code false}, если вызов должен пройти обычным путем:
+     * нативные и "once" функции обрабатываются только в {@link #enterFrame()}.
+     */
+    boolean enterUserFrame(Function calleeFn, int argCount) {
+        if (!calleeFn.isUserDefined() || calleeFn.isOnce()) {
+            return false;
+        }
+        callee = calleeFn;
+        numArgs = argCount;
+        pushFrame();
+        acquireRegisters();
+        bindArguments();
+        openStackWindow();
+        return true;
+    }
+
+    /**
+     * Выполняет хвостовой вызов пользовательской функции: текущий фрейм и его регистры
+     * переиспользуются для вызываемой функции, поэтому глубина стека вызовов не растет.
+     * Аргументы лежат на вершине стека.
+     */
+    void replaceUserFrame(Function calleeFn, int argCount) {
+        Assert.check(calleeFn.isUserDefined() && !calleeFn.isOnce());
+        int frame = frames.current();
+        Assert.check(!frames.getFunction(frame).isOnce());
+        releaseRegisters();
+        callee = calleeFn;
+        numArgs = argCount;
+        acquireRegisters();
+        bindArguments();
+        // Окно подменяемого фрейма очищается до смены функции: новое окно начнется с той же вершины
+        closeStackWindow();
+        frames.setFunction(frame, callee);
+        frames.setCP(frame, 0);
+        openStackWindow();
+    }
+
+    /**
+     * Возвращается из пользовательской функции в вызвавшую ее пользовательскую функцию,
+     * минуя цикл сообщений потока. Возвращает {@code false}, если возврат должен пройти
+     * обычным путем через {@link #leaveFrame()}.
+     */
+    boolean leaveUserFrame() {
+        int frame = frames.current();
+        int caller = frames.getCaller(frame);
+        if (frames.getFunction(frame).isOnce() || caller == FrameStack.NO_FRAME
+                || !frames.getFunction(caller).isUserDefined()) {
+            return false;
+        }
+        closeStackWindow();
+        releaseRegisters();
+        popFrame();
+        return true;
+    }
+
+    /**
+     * Возвращает контекст для вызова нативной функции. Нативная функция может вызвать
+     * другую функцию через {@link #callAndWait(Function, Address[], Address)},
+     * поэтому на каждую глубину вложенности приходится свой контекст.
+     */
+    private Context acquireNativeContext() {
+        if (nativeDepth == nativeContexts.length) {
+            nativeContexts = Arrays.copyOf(nativeContexts, nativeDepth * 2);
+        }
+        Context context = nativeContexts[nativeDepth];
+        if (context == null) {
+            context = nativeContexts[nativeDepth] = new Context();
+        }
+        nativeDepth++;
+        return context;
+    }
+
+    private void releaseNativeContext() {
+        nativeDepth--;
+    }
+
     private void leaveFrame() {
-        Function fn = currentFrame().getFunction();
+        int frame = frames.current();
+        Function fn = frames.getFunction(frame);
         if (fn.isUserDefined()) {
-            stack.cleanup();
-            memory.release(fn.getCode().getRegNumber());
+            closeStackWindow();
+            releaseRegisters();
             if (fn.isOnce()) {
                 if (!fn.onceCondition) {
                     // Запоминаем возвращаемое значение
@@ -172,8 +326,11 @@ public final class InterpreterThread {
         popFrame();
 //        Histogram.get().end(OPCodes._PopFrame);
 //        Histogram.get().end(OPCodes._PopNativeFrame);
-        if (current == null) {
+        if (frames.isEmpty()) {
             interrupt(); // Выполнять более нечего
+        } else if (!frames.getFunction(frames.current()).isUserDefined()) {
+            // Фрейм вызвала нативная функция через callAndWait, она и продолжит выполнение
+            set_msg(MSG_RETURNED);
         } else {
             set_msg(MSG_RUNNING_FRAME);
         }
@@ -228,6 +385,7 @@ public final class InterpreterThread {
      */
     public boolean callAndWait(Function function, Address[] args, Address returnAddress) {
         prepareCall(function, args.length);
+        boolean segment = stack().reserve(args.length, 0);
         for (Address arg : args) {
             stack().push(arg);
         }
@@ -235,7 +393,12 @@ public final class InterpreterThread {
         if (isCrashed()) {
             return false;
         } else {
-            returnAddress.set(stack().popGet());
+            Address result = stack().popGet();
+            returnAddress.set(result);
+            result.reset();
+            if (segment) {
+                stack().leaveSegment(0);
+            }
             return true;
         }
     }
@@ -253,14 +416,14 @@ public final class InterpreterThread {
 
         ArrayList<StackTraceElement> stackTrace = new ArrayList<>(limit);
 
-        InterpreterFrame frame = currentFrame();
+        int frame = frames.current();
         int i = limit;
 
-        while (frame != null && i > 0) {
-            if (!frame.getFunction().isHidden()) {
+        while (frame != FrameStack.NO_FRAME && i > 0) {
+            if (!frames.getFunction(frame).isHidden()) {
                 stackTrace.add(toStackTraceElement(frame));
             }
-            frame = frame.getCaller();
+            frame = frames.getCaller(frame);
             i--;
         }
 
@@ -268,15 +431,16 @@ public final class InterpreterThread {
     }
 
     /** Возвращает номер строки, которая сейчас выполняется. */
-    int executingLineNumber(InterpreterFrame frame) {
-        if (!frame.getFunction().isUserDefined()) return -1; // native function
-        int cp = frame.getCP() - 1;
-        return frame.getFunction().userCode().getLineNumberTable().getLineNumber(cp);
+    int executingLineNumber(int frame) {
+        if (!frames.getFunction(frame).isUserDefined()) return -1; // native function
+        CodeData code = frames.getFunction(frame).userCode();
+        int cp = code.toInstructionIndex(frames.getCP(frame) - 1);
+        return code.getLineNumberTable().getLineNumber(cp);
     }
 
-    StackTraceElement toStackTraceElement(InterpreterFrame frame) {
-        return new StackTraceElement(frame.getFunction().getModule(),
-                frame.getFunction().getName(), executingLineNumber(frame));
+    StackTraceElement toStackTraceElement(int frame) {
+        return new StackTraceElement(frames.getFunction(frame).getModule(),
+                frames.getFunction(frame).getName(), executingLineNumber(frame));
     }
 
     public void printStackTrace() {
@@ -314,12 +478,12 @@ public final class InterpreterThread {
             runInternal();
         } catch (Throwable t) {
             String details;
-            if (currentFrame() == null) {
+            if (frames.isEmpty()) {
                 details = "<NO FRAME>";
-            } else if (!currentFrame().getFunction().isUserDefined()) {
+            } else if (!frames.getFunction(frames.current()).isUserDefined()) {
                 details = "<NATIVE>";
             } else {
-                details = "CP=" + currentFrame().getCP() +
+                details = "CP=" + frames.getCP(frames.current()) +
                         ", SP=" + (stack().tos());
             }
             printStackTrace();
@@ -356,8 +520,12 @@ public final class InterpreterThread {
                     jvmThread.interrupt();
                     return;
 
+                case MSG_RETURNED:
+                    set_msg(MSG_RUNNING_FRAME);
+                    return;
+
                 case MSG_RUNNING_FRAME:
-                    msg = executionContext.execute(currentFrame());
+                    msg = executionContext.execute();
                     callee = executionContext.getMsgCallee();
                     numArgs = executionContext.getMsgArgc();
                     break;
@@ -68,11 +68,38 @@ public interface OPCodes {
             Call = 63,
             Return = 64,
             Leave = 65,
+            // Регистровые инструкции
+            RAdd = 66,
+            RSub = 67,
+            RMul = 68,
+            RDiv = 69,
+            RRem = 70,
+            RAnd = 71,
+            ROr = 72,
+            RXor = 73,
+            RShl = 74,
+            RShr = 75,
+            RMove = 76,
+            RIfEq = 77,
+            RIfNe = 78,
+            RIfGe = 79,
+            RIfLt = 80,
+            RIfGt = 81,
+            RIfLe = 82,
+            TailCall = 83,
+            // Суперинструкции, которые создаются только при трансляции кода
+            LoadLoadAdd = 84,
+            LoadLoadArrayLoad = 85,
+            LoadAdd1Store = 86,
+            LoadLoadIfLt = 87,
+            LoadLoadIfGe = 88,
+            LoadPushIfLt = 89,
+            LoadPushIfGe = 90,
             // Мнимые инструкции, которые нужны лишь для гистограммы
-            _JoinFrame = 66,
-            _PopFrame = 67,
-            _JoinNativeFrame = 68,
-            _PopNativeFrame = 69,
+            _JoinFrame = 91,
+            _PopFrame = 92,
+            _JoinNativeFrame = 93,
+            _PopNativeFrame = 94,
 
     _InstrCount = _PopNativeFrame + 1;
 
@@ -85,15 +112,16 @@ public interface OPCodes {
             "ConstInt0",
             "ConstInt1",
             "ConstInt2",
-            "Push",
-            "NewList",
-            "NewMap",
             "Dup",
+            "DupX1",
+            "DupX2",
+            "Swap",
             "Dup2",
             "Dup2X1",
             "Dup2X2",
-            "DupX1",
-            "DupX2",
+            "Push",
+            "NewList",
+            "NewMap",
             "Pop",
             "Pop2",
             "Add",
@@ -139,10 +167,34 @@ public interface OPCodes {
             "IfAbsent",
             "LinearSwitch",
             "BinarySwitch",
-            "", // skipped
             "Call",
             "Return",
             "Leave",
+            "RAdd",
+            "RSub",
+            "RMul",
+            "RDiv",
+            "RRem",
+            "RAnd",
+            "ROr",
+            "RXor",
+            "RShl",
+            "RShr",
+            "RMove",
+            "RIfEq",
+            "RIfNe",
+            "RIfGe",
+            "RIfLt",
+            "RIfGt",
+            "RIfLe",
+            "TailCall",
+            "LoadLoadAdd",
+            "LoadLoadArrayLoad",
+            "LoadAdd1Store",
+            "LoadLoadIfLt",
+            "LoadLoadIfGe",
+            "LoadPushIfLt",
+            "LoadPushIfGe",
             "_JoinFrame",
             "_PopFrame",
             "_JoinNativeFrame",
@@ -2,34 +2,63 @@ package jua.runtime.interpreter;
 
 public final class ThreadMemory {
 
-    private Address[] data;
+    private final AddressSegments segments = new AddressSegments();
 
-    private int top = 0;
+    /** Текущий сегмент регистров. */
+    private Address[] data = segments.first();
 
-    public ThreadMemory() {
-        data = AddressUtils.allocateMemory(32, 0);
-    }
+    /** Смещение за последним занятым регистром в текущем сегменте. */
+    private int top = 0;
 
     public Address get(int offset) {
         return data[top - offset - 1];
     }
 
-    public void acquire(int capacity) {
-        checkAndGrow(capacity);
-        top += capacity;
+    /**
+     * Возвращает текущий сегмент памяти. Ссылка действительна до следующего {@link #acquire(int)}
+     * или {@link #leaveSegment()}.
+     */
+    Address[] array() {
+        return data;
     }
 
-    private void checkAndGrow(int capacity) {
+    /**
+     * Возвращает смещение, следующее за последним занятым регистром.
+     * Регистр {@code i} текущего фрейма лежит по смещению {@code top() - i - 1}.
+     */
+    int top() {
+        return top;
+    }
+
+    /**
+     * Занимает {@code capacity} регистров. Регистры фрейма всегда лежат в одном сегменте:
+     * если в текущем места нет, память переходит в следующий.
+     *
+     * @return {@code true}, если память перешла в новый сегмент. Тогда после {@link #release(int)}
+     * нужно вызвать {@link #leaveSegment()}.
+     */
+    public boolean acquire(int capacity) {
+        boolean entered = false;
         if (data.length - top < capacity) {
-            data = AddressUtils.reallocateWithNewLength(data, (top + capacity) * 2);
+            data = segments.enter(top, capacity);
+            top = 0;
+            entered = true;
         }
+        top += capacity;
+        return entered;
+    }
+
+    /** Возвращается в предыдущий сегмент. */
+    public void leaveSegment() {
+        data = segments.leave();
+        top = segments.savedTop();
     }
 
-    public void release(int capacity) {
-        int a = top - capacity;
-        for (int t = a; t < top; t++) {
+    /** Освобождает регистры, начиная со смещения {@code base}, которое вернул {@link #top()} перед {@link #acquire(int)}. */
+    public void release(int base) {
+        for (int t = base; t < top; t++) {
             data[t].reset();
         }
-        top = a;
+        top = base;
     }
 }
@@ -4,16 +4,13 @@ import jua.runtime.Types;
 
 public final class ThreadStack {
 
-    private Address[] data;
+    private final AddressSegments segments = new AddressSegments();
 
-    private int tos = 0;
+    /** Текущий сегмент стека. */
+    private Address[] data = segments.first();
 
-    public ThreadStack() {
-        // todo: настройка изначального размера стека опцией.
-        // С текущим подходом к заполнению памяти стека, стек заполняется ОЧЕНЬ медленно,
-        // поэтому 16 для начала, думаю, хватит за глаза.
-        data = AddressUtils.allocateMemory(16, 0);
-    }
+    /** Вершина стека в текущем сегменте. */
+    private int tos = 0;
 
     public void validate() {
         if (tos < 0) {
@@ -34,7 +31,6 @@ public final class ThreadStack {
      * @deprecated Use {@link #peek(int)}
      */
     public Address getStackAddress(int offset) {
-        ensureCapacity(offset + 1);
         return peek(offset);
     }
 
@@ -49,10 +45,12 @@ public final class ThreadStack {
     }
 
     /**
-     * Очищает все адреса по адресам >= заданного значения.
+     * Очищает адреса от вершины стека до {@code limit}, то есть остаток окна фрейма.
+     * Адреса за окном не трогаются, поэтому цена возврата не зависит от того,
+     * насколько глубоким стек был раньше.
      */
-    public void cleanup() {
-        for (int i = tos; i < data.length; i++) {
+    public void cleanup(int limit) {
+        for (int i = tos; i < limit; i++) {
             data[i].reset();
         }
     }
@@ -69,7 +67,6 @@ public final class ThreadStack {
 
     public Address popGet() {
         tos--;
-        checkAndShrink();
         return data[tos];
     }
 
@@ -91,8 +88,11 @@ public final class ThreadStack {
         pushGet().set(value);
     }
 
+    /**
+     * Место под значение не проверяется: фрейм резервирует окно стека при входе ({@link #reserve(int, int)}),
+     * а то, что код не выходит из окна, доказывает {@link CodeVerifier} или проверяет интерпретатор объектов инструкций.
+     */
     public Address pushGet() {
-        ensureCapacity(1);
         Address a = data[tos];
         tos++;
         return a;
@@ -102,22 +102,54 @@ public final class ThreadStack {
         pushGet().set(address);
     }
 
-    private void checkAndShrink() {
-        // todo: чтобы добавлять оптимизацию с сокращением стека,
-        //  нужно убедиться, что это не приведет к гарантированной деградации в некоторых случаях.
-        //  Для этого нужны метки из исходного кода, наподобие: тут цикл, после сокращения может опять
-        //  потребоваться расширение...
+    /**
+     * Возвращает текущий сегмент стека. Ссылка действительна до перехода в другой сегмент,
+     * то есть до входа во фрейм или выхода из него.
+     */
+    Address[] array() {
+        return data;
+    }
+
+    /**
+     * Гарантирует, что над вершиной стека есть место ещё под {@code count} значений.
+     * Вызывается при входе во фрейм, после чего операции стека не проверяют его размер.
+     * Если в текущем сегменте места нет, стек переходит в следующий сегмент и переносит туда
+     * {@code carry} верхних значений (аргументы нативной функции).
+     *
+     * @return {@code true}, если стек перешел в новый сегмент. Тогда при выходе
+     * нужно вызвать {@link #leaveSegment(int)}.
+     */
+    boolean reserve(int count, int carry) {
+        if (data.length - tos >= count) {
+            return false;
+        }
+        Address[] segment = segments.enter(tos - carry, carry + count);
+        move(data, tos - carry, segment, 0, carry);
+        data = segment;
+        tos = carry;
+        return true;
+    }
+
+    /**
+     * Возвращается в предыдущий сегмент и переносит туда {@code carry} верхних значений
+     * (результат фрейма), которые ложатся на вершину, запомненную при переходе.
+     */
+    void leaveSegment(int carry) {
+        Address[] segment = segments.leave();
+        int top = segments.savedTop();
+        move(data, tos - carry, segment, top, carry);
+        data = segment;
+        tos = top + carry;
     }
 
-    private void ensureCapacity(int cap) {
-        // Если вызывать этот метод заранее, то получится ленивое расширение. +100 к оптимизации
-        if (data.length - tos < cap) {
-            data = AddressUtils.reallocateWithNewLength(data, (tos + cap) * 2);
+    private static void move(Address[] src, int srcOffset, Address[] dst, int dstOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            dst[dstOffset + i].set(src[srcOffset + i]);
+            src[srcOffset + i].reset();
         }
     }
 
     public void dup() {
-        ensureCapacity(1);
         // -1  0
         //  A
         //  A  A
@@ -126,7 +158,6 @@ public final class ThreadStack {
     }
 
     public void dupX1() {
-        ensureCapacity(1);
         // Нужно переместить 2 элемента на 1 позицию вправо
         // Затем последний элемент скопировать в элемент на 2 позиции левее.
 
@@ -140,7 +171,6 @@ public final class ThreadStack {
     }
 
     public void dupX2() {
-        ensureCapacity(1);
         // Нужно переместить 3 элемента на 2 позиции вправо
         // Затем последний элемент скопировать в элемент на 3 позиции левее.
 
@@ -155,14 +185,12 @@ public final class ThreadStack {
     }
 
     public void dup2() {
-        ensureCapacity(2);
         peek(0).set(peek(-2));
         peek(1).set(peek(-1));
         tos += 2;
     }
 
     public void dup2X1() {
-        ensureCapacity(2);
         // Нужно переместить 3 элемента на 2 позиции вправо
         // Затем 2 последних элементах скопировать в элементы на 3 позиции левее.
 
@@ -179,7 +207,6 @@ public final class ThreadStack {
     }
 
     public void dup2X2() {
-        ensureCapacity(2);
         // Нужно переместить 4 элемента на 2 позиции вправо
         // Затем 2 последних элементах скопировать в элементы на 4 позиции левее.
 
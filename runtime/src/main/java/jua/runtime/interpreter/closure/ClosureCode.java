@@ -0,0 +1,45 @@
+package jua.runtime.interpreter.closure;
+
+import jua.runtime.interpreter.Address;
+import jua.runtime.interpreter.ExecutionContext;
+import jua.runtime.interpreter.InterpreterException;
+import jua.runtime.interpreter.closure.ClosureNodes.Block;
+
+/**
+ * Код функции в виде блоков заранее связанных узлов ({@link ClosureCompiler}).
+ * Работает с теми же стеком и регистрами потока, что и интерпретатор плотного кода,
+ * и так же выходит из кода на каждом вызове, возврате и ошибке.
+ */
+public final class ClosureCode {
+
+    private final int[] code;
+    private final int[] depths;
+    private final int[] blockIndexes;
+    private final Block[] blocks;
+    private final Address[] constants;
+
+    ClosureCode(int[] code, int[] depths, int[] blockIndexes, Block[] blocks, Address[] constants) {
+        this.code = code;
+        this.depths = depths;
+        this.blockIndexes = blockIndexes;
+        this.blocks = blocks;
+        this.constants = constants;
+    }
+
+    /**
+     * Выполняет код, начиная с точки {@code pc} плотного кода, до вызова, возврата или ошибки.
+     * Параметры и результат те же, что у {@link jua.runtime.jit.CompiledCode#run}.
+     */
+    public long run(ExecutionContext context, Address[] s, int sp, Address[] m, int lb, int pc) {
+        int b = blockIndexes[pc];
+        if (b < 0) {
+            throw new InterpreterException("Closure code has no entry at " + pc);
+        }
+        ClosureFrame f = new ClosureFrame(context, s, sp - depths[pc], m, lb, constants, code, depths);
+        Block[] blocks = this.blocks;
+        do {
+            b = blocks[b].run(f);
+        } while (b >= 0);
+        return ((long) f.exitPc << 32) | (f.sb + f.exitDepth);
+    }
+}
@@ -0,0 +1,549 @@
+package jua.runtime.interpreter.closure;
+
+import jua.runtime.code.CodeData;
+import jua.runtime.code.NewConstantPool;
+import jua.runtime.interpreter.Address;
+import jua.runtime.interpreter.DenseCodeAnalysis;
+import jua.runtime.interpreter.OPCodes;
+import jua.runtime.interpreter.closure.ClosureNodes.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static jua.runtime.interpreter.DenseCodeAnalysis.instructionLength;
+import static jua.runtime.interpreter.closure.ClosureFrame.*;
+
+/**
+ * Собирает из плотного кода функции дерево заранее связанных узлов ({@link ClosureCode}).
+ * <p>
+ * Код делится на блоки по точкам перехода и вызова. Глубина стека перед каждой инструкцией
+ * известна заранее, поэтому каждая ячейка стека получает постоянный номер. Загрузки регистров
+ * и констант не копируются на стек, а подставляются операндами в использующий их узел;
+ * результат операции, за которой следует Store, пишется прямо в регистр.
+ * Отложенные загрузки записываются на стек перед изменением их регистра, перед вызовами
+ * и в конце блока, где стек должен совпадать с тем, что видит интерпретатор.
+ */
+public final class ClosureCompiler {
+
+    private static boolean enabled = false;
+
+    public static void enable() {
+        enabled = true;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Возвращает код функции из узлов, собирая его при первом выполнении.
+     * Возвращает {@code null}, если код содержит инструкции, которых сборка не поддерживает.
+     */
+    public static ClosureCode getClosureCode(CodeData code) {
+        ClosureCode closures = code.getClosureCode();
+        if (closures == null && !code.isNotCompilable()) {
+            try {
+                closures = new ClosureCompiler(code.getDenseCode(), code.getConstantPool())
+                        .compile(code.getDenseCodeAnalysis());
+                code.setClosureCode(closures);
+            } catch (UnsupportedOperationException | IllegalStateException e) {
+                // Функция выполняется switch-интерпретатором
+                code.setNotCompilable();
+            }
+        }
+        return closures;
+    }
+
+    private final int[] c;
+    private final NewConstantPool constantPool;
+
+    /** Глубина стека перед инструкцией, -1 у недостижимых инструкций. */
+    private int[] depths;
+    /** Начала блоков. */
+    private boolean[] leaders;
+    /** Номер блока, начинающегося в точке, иначе -1. */
+    private final int[] blockIndexes;
+
+    private final List<Address> constants = new ArrayList<>();
+    private final Map<Integer, Integer> constantIndexes = new HashMap<>();
+
+    // Стек времени сборки: операнд каждой ячейки и номер константы пула, если ячейка получена Push
+    private int[] operands;
+    private int[] poolIndexes;
+    private int top;
+
+    private final List<Node> body = new ArrayList<>();
+    /** Точка за транслируемой инструкцией. */
+    private int nextPc;
+
+    private ClosureCompiler(int[] c, NewConstantPool constantPool) {
+        this.c = c;
+        this.constantPool = constantPool;
+        this.blockIndexes = new int[c.length + 1];
+    }
+
+    ClosureCode compile(DenseCodeAnalysis analysis) {
+        depths = analysis.depths;
+        leaders = analysis.leaders;
+
+        operands = new int[analysis.maxDepth];
+        poolIndexes = new int[analysis.maxDepth];
+        Arrays.fill(blockIndexes, -1);
+        int blockCount = 0;
+        for (int pc = 0; pc < c.length; pc++) {
+            if (leaders[pc] && depths[pc] >= 0) {
+                blockIndexes[pc] = blockCount++;
+            }
+        }
+        Block[] blocks = new Block[blockCount];
+        for (int pc = 0; pc < c.length; pc++) {
+            if (blockIndexes[pc] >= 0) {
+                blocks[blockIndexes[pc]] = block(pc);
+            }
+        }
+        return new ClosureCode(c, depths, blockIndexes, blocks, constants.toArray(new Address[0]));
+    }
+
+    /* ================================ СБОРКА ================================ */
+
+    private Block block(int start) {
+        int depth = depths[start];
+        top = depth;
+        for (int i = 0; i < depth; i++) {
+            operands[i] = slot(i);
+            poolIndexes[i] = -1;
+        }
+        body.clear();
+
+        Terminator terminator;
+        int pc = start;
+        while (true) {
+            if (pc != start && leaders[pc]) {
+                materializeAll();
+                terminator = new Goto(blockIndexes[pc]);
+                break;
+            }
+            nextPc = pc + instructionLength(c, pc);
+            terminator = translate(pc);
+            if (terminator != null) {
+                break;
+            }
+            pc = nextPc;
+        }
+        return new Block(body.toArray(new Node[0]), terminator);
+    }
+
+    /** Транслирует одну инструкцию. Возвращает завершение блока, если инструкция передает управление. */
+    private Terminator translate(int pc) {
+        int op = c[pc];
+        switch (op) {
+            case OPCodes.Nop:
+                return null;
+
+            case OPCodes.ConstNull:
+            case OPCodes.ConstTrue:
+            case OPCodes.ConstFalse:
+            case OPCodes.ConstIntM1:
+            case OPCodes.ConstInt0:
+            case OPCodes.ConstInt1:
+            case OPCodes.ConstInt2:
+                push(literal(op), -1);
+                return null;
+
+            case OPCodes.Push:
+                push(poolConstant(c[pc + 1]), c[pc + 1]);
+                return null;
+
+            case OPCodes.Dup:
+                materializeAll();
+                move(top, top - 1);
+                pushSlot();
+                return null;
+
+            case OPCodes.DupX1:
+                materializeAll();
+                move(top, top - 1);
+                move(top - 1, top - 2);
+                move(top - 2, top);
+                pushSlot();
+                return null;
+
+            case OPCodes.DupX2:
+                materializeAll();
+                move(top, top - 1);
+                move(top - 1, top - 2);
+                move(top - 2, top - 3);
+                move(top - 3, top);
+                pushSlot();
+                return null;
+
+            case OPCodes.Dup2:
+                materializeAll();
+                move(top, top - 2);
+                move(top + 1, top - 1);
+                pushSlot();
+                pushSlot();
+                return null;
+
+            case OPCodes.Dup2X1:
+                materializeAll();
+                move(top + 1, top - 1);
+                move(top, top - 2);
+                move(top - 1, top - 3);
+                move(top - 2, top + 1);
+                move(top - 3, top);
+                pushSlot();
+                pushSlot();
+                return null;
+
+            case OPCodes.Dup2X2:
+                materializeAll();
+                move(top + 1, top - 1);
+                move(top, top - 2);
+                move(top - 1, top - 3);
+                move(top - 2, top - 4);
+                move(top - 3, top + 1);
+                move(top - 4, top);
+                pushSlot();
+                pushSlot();
+                return null;
+
+            case OPCodes.Pop:
+                top--;
+                return null;
+
+            case OPCodes.Pop2:
+                top -= 2;
+                return null;
+
+            case OPCodes.Add:
+            case OPCodes.Sub:
+            case OPCodes.Mul:
+            case OPCodes.Div:
+            case OPCodes.Rem:
+            case OPCodes.And:
+            case OPCodes.Or:
+            case OPCodes.Xor:
+            case OPCodes.Shl:
+            case OPCodes.Shr:
+            case OPCodes.ArrayLoad:
+            case OPCodes.ArrayInc:
+            case OPCodes.ArrayDec: {
+                int rhs = pop();
+                int lhs = pop();
+                int pcAfter = nextPc;
+                body.add(binary(op, pcAfter, result(), lhs, rhs));
+                return null;
+            }
+
+            case OPCodes.Length:
+            case OPCodes.Pos:
+            case OPCodes.Neg:
+            case OPCodes.Not: {
+                int src = pop();
+                int pcAfter = nextPc;
+                body.add(unary(op, pcAfter, result(), src));
+                return null;
+            }
+
+            case OPCodes.Load:
+                push(reg(c[pc + 1]), -1);
+                return null;
+
+            case OPCodes.Load0:
+            case OPCodes.Load1:
+            case OPCodes.Load2:
+                push(reg(op - OPCodes.Load0), -1);
+                return null;
+
+            case OPCodes.Store:
+                store(c[pc + 1]);
+                return null;
+
+            case OPCodes.Store0:
+            case OPCodes.Store1:
+            case OPCodes.Store2:
+                store(op - OPCodes.Store0);
+                return null;
+
+            case OPCodes.Inc:
+            case OPCodes.Dec:
+                materializeRegister(c[pc + 1]);
+                body.add(op == OPCodes.Inc
+                        ? new Inc(nextPc, reg(c[pc + 1]))
+                        : new Dec(nextPc, reg(c[pc + 1])));
+                return null;
+
+            case OPCodes.ArrayStore: {
+                // Значение попадает в список, поэтому константа пула копируется, как при Push
+                if (poolIndexes[top - 1] >= 0) {
+                    materialize(top - 1);
+                }
+                int value = pop();
+                int key = pop();
+                int array = pop();
+                body.add(new ArrayStore(nextPc, array, key, value));
+                return null;
+            }
+
+            case OPCodes.NewList:
+                materializeAll();
+                body.add(new NewList(nextPc, top));
+                return null;
+
+            case OPCodes.NewMap:
+                body.add(new NewMap(nextPc, slot(top)));
+                pushSlot();
+                return null;
+
+            case OPCodes.Goto:
+                materializeAll();
+                return new Goto(blockIndexes[c[pc + 1]]);
+
+            case OPCodes.IfEq:
+            case OPCodes.IfNe:
+            case OPCodes.IfGt:
+            case OPCodes.IfGe:
+            case OPCodes.IfLt:
+            case OPCodes.IfLe: {
+                int rhs = pop();
+                int lhs = pop();
+                materializeAll();
+                return compare(op - OPCodes.IfEq, lhs, rhs, pc);
+            }
+
+            case OPCodes.IfPresent:
+            case OPCodes.IfAbsent: {
+                int rhs = pop();
+                int lhs = pop();
+                materializeAll();
+                return new Contains(op == OPCodes.IfPresent, lhs, rhs,
+                        blockIndexes[c[pc + 1]], blockIndexes[nextPc], nextPc, top);
+            }
+
+            case OPCodes.IfZ:
+            case OPCodes.IfNz:
+            case OPCodes.IfNull:
+            case OPCodes.IfNonNull: {
+                int operand = pop();
+                materializeAll();
+                int target = blockIndexes[c[pc + 1]];
+                int fallthrough = blockIndexes[nextPc];
+                switch (op) {
+                    case OPCodes.IfZ: return new IfZ(operand, target, fallthrough);
+                    case OPCodes.IfNz: return new IfNz(operand, target, fallthrough);
+                    case OPCodes.IfNull: return new IfNull(operand, target, fallthrough);
+                    default: return new IfNonNull(operand, target, fallthrough);
+                }
+            }
+
+            case OPCodes.LinearSwitch:
+            case OPCodes.BinarySwitch: {
+                int selector = pop();
+                materializeAll();
+                return new Switch(op == OPCodes.LinearSwitch, pc, selector, blockIndexes);
+            }
+
+            case OPCodes.Call:
+            case OPCodes.TailCall:
+                materializeAll();
+                return new Call(op == OPCodes.TailCall, c[pc + 1], c[pc + 2], nextPc, top);
+
+            case OPCodes.Return:
+            case OPCodes.Leave:
+                materializeAll();
+                return new Return(op == OPCodes.Leave, nextPc, top);
+
+            case OPCodes.RAdd:
+            case OPCodes.RSub:
+            case OPCodes.RMul:
+            case OPCodes.RDiv:
+            case OPCodes.RRem:
+            case OPCodes.RAnd:
+            case OPCodes.ROr:
+            case OPCodes.RXor:
+            case OPCodes.RShl:
+            case OPCodes.RShr:
+                materializeRegister(c[pc + 1]);
+                body.add(binary(op - OPCodes.RAdd + OPCodes.Add, nextPc,
+                        reg(c[pc + 1]), registerOperand(c[pc + 2]), registerOperand(c[pc + 3])));
+                return null;
+
+            case OPCodes.RMove:
+                materializeRegister(c[pc + 1]);
+                body.add(new Move(nextPc, reg(c[pc + 1]), registerOperand(c[pc + 2])));
+                return null;
+
+            case OPCodes.RIfEq:
+            case OPCodes.RIfNe:
+            case OPCodes.RIfGt:
+            case OPCodes.RIfGe:
+            case OPCodes.RIfLt:
+            case OPCodes.RIfLe:
+                materializeAll();
+                return compare(op - OPCodes.RIfEq, registerOperand(c[pc + 2]), registerOperand(c[pc + 3]), pc);
+
+            default:
+                throw new UnsupportedOperationException(OPCodes.NAMES[op]);
+        }
+    }
+
+    private Node binary(int op, int pcAfter, int dst, int lhs, int rhs) {
+        switch (op) {
+            case OPCodes.Add: return new Add(pcAfter, dst, lhs, rhs);
+            case OPCodes.Sub: return new Sub(pcAfter, dst, lhs, rhs);
+            case OPCodes.Mul: return new Mul(pcAfter, dst, lhs, rhs);
+            case OPCodes.Div: return new Div(pcAfter, dst, lhs, rhs);
+            case OPCodes.Rem: return new Rem(pcAfter, dst, lhs, rhs);
+            case OPCodes.And: return new And(pcAfter, dst, lhs, rhs);
+            case OPCodes.Or: return new Or(pcAfter, dst, lhs, rhs);
+            case OPCodes.Xor: return new Xor(pcAfter, dst, lhs, rhs);
+            case OPCodes.Shl: return new Shl(pcAfter, dst, lhs, rhs);
+            case OPCodes.Shr: return new Shr(pcAfter, dst, lhs, rhs);
+            case OPCodes.ArrayLoad: return new ArrayLoad(pcAfter, dst, lhs, rhs);
+            case OPCodes.ArrayInc: return new ArrayInc(pcAfter, dst, lhs, rhs);
+            case OPCodes.ArrayDec: return new ArrayDec(pcAfter, dst, lhs, rhs);
+            default: throw new AssertionError(op);
+        }
+    }
+
+    private Node unary(int op, int pcAfter, int dst, int src) {
+        switch (op) {
+            case OPCodes.Length: return new Length(pcAfter, dst, src);
+            case OPCodes.Pos: return new Pos(pcAfter, dst, src);
+            case OPCodes.Neg: return new Neg(pcAfter, dst, src);
+            case OPCodes.Not: return new Not(pcAfter, dst, src);
+            default: throw new AssertionError(op);
+        }
+    }
+
+    /** Сравнение с переходом. {@code kind} это смещение кода от IfEq (RIfEq), порядок у них одинаковый. */
+    private Terminator compare(int kind, int lhs, int rhs, int pc) {
+        int target = blockIndexes[c[pc + 1]];
+        int fallthrough = blockIndexes[nextPc];
+        switch (kind + OPCodes.IfEq) {
+            case OPCodes.IfEq: return new IfEq(lhs, rhs, target, fallthrough);
+            case OPCodes.IfNe: return new IfNe(lhs, rhs, target, fallthrough);
+            case OPCodes.IfGt: return new IfGt(lhs, rhs, target, fallthrough);
+            case OPCodes.IfGe: return new IfGe(lhs, rhs, target, fallthrough);
+            case OPCodes.IfLt: return new IfLt(lhs, rhs, target, fallthrough);
+            case OPCodes.IfLe: return new IfLe(lhs, rhs, target, fallthrough);
+            default: throw new AssertionError(kind);
+        }
+    }
+
+    /**
+     * Возвращает операнд для результата операции и снимает операнды со стека.
+     * Если за операцией в том же блоке следует Store, результат пишется прямо в регистр.
+     */
+    private int result() {
+        int store = leaders[nextPc] ? -1 : storeRegister(nextPc);
+        if (store < 0) {
+            pushSlot();
+            return slot(top - 1);
+        }
+        nextPc += instructionLength(c, nextPc);
+        materializeRegister(store);
+        return reg(store);
+    }
+
+    private int storeRegister(int pc) {
+        switch (c[pc]) {
+            case OPCodes.Store: return c[pc + 1];
+            case OPCodes.Store0: case OPCodes.Store1: case OPCodes.Store2: return c[pc] - OPCodes.Store0;
+            default: return -1;
+        }
+    }
+
+    private void store(int register) {
+        int value = pop();
+        int poolIndex = poolIndexes[top];
+        materializeRegister(register);
+        if (value == reg(register)) {
+            return;
+        }
+        body.add(poolIndex >= 0
+                ? new LoadConstant(nextPc, constantPool, poolIndex, reg(register))
+                : new Move(nextPc, reg(register), value));
+    }
+
+    private void push(int operand, int poolIndex) {
+        operands[top] = operand;
+        poolIndexes[top] = poolIndex;
+        top++;
+    }
+
+    private void pushSlot() {
+        push(slot(top), -1);
+    }
+
+    private int pop() {
+        return operands[--top];
+    }
+
+    private void move(int dst, int src) {
+        body.add(new Move(nextPc, slot(dst), slot(src)));
+    }
+
+    /** Записывает отложенную загрузку в ее ячейку стека. */
+    private void materialize(int i) {
+        if (operands[i] == slot(i)) {
+            return;
+        }
+        body.add(poolIndexes[i] >= 0
+                ? new LoadConstant(nextPc, constantPool, poolIndexes[i], slot(i))
+                : new Move(nextPc, slot(i), operands[i]));
+        operands[i] = slot(i);
+        poolIndexes[i] = -1;
+    }
+
+    private void materializeAll() {
+        for (int i = 0; i < top; i++) {
+            materialize(i);
+        }
+    }
+
+    /** Записывает отложенные загрузки регистра перед его изменением. */
+    private void materializeRegister(int register) {
+        int operand = reg(register);
+        for (int i = 0; i < top; i++) {
+            if (operands[i] == operand) {
+                materialize(i);
+            }
+        }
+    }
+
+    /** Операнд регистровой инструкции: регистр либо константа пула, которая только читается. */
+    private int registerOperand(int operand) {
+        return (operand >= 0) ? reg(operand) : poolConstant(-1 - operand);
+    }
+
+    private int poolConstant(int index) {
+        return constant(index, constantPool.getAddress(index));
+    }
+
+    private int literal(int op) {
+        Address address = new Address();
+        switch (op) {
+            case OPCodes.ConstNull: address.setNull(); break;
+            case OPCodes.ConstTrue: address.set(true); break;
+            case OPCodes.ConstFalse: address.set(false); break;
+            default: address.set((long) (op - OPCodes.ConstInt0)); break;
+        }
+        // Ключи литералов отрицательные, чтобы не пересекаться с номерами пула
+        return constant(-1 - op, address);
+    }
+
+    private int constant(int key, Address address) {
+        Integer index = constantIndexes.get(key);
+        if (index == null) {
+            index = constants.size();
+            constants.add(address);
+            constantIndexes.put(key, index);
+        }
+        return konst(index);
+    }
+}
@@ -0,0 +1,84 @@
+package jua.runtime.interpreter.closure;
+
+import jua.runtime.interpreter.Address;
+import jua.runtime.interpreter.ExecutionContext;
+
+/**
+ * Состояние одного выполнения {@link ClosureCode}: стек и регистры потока.
+ * <p>
+ * Операнды узлов закодированы числом: младшие два бита это вид операнда
+ * ({@link #REG}, {@link #SLOT} или {@link #CONST}), остальные это индекс.
+ * Номер ячейки стека отсчитывается от основания стека фрейма и известен при сборке,
+ * поэтому узлы не ведут вершину стека.
+ */
+final class ClosureFrame {
+
+    static final int REG = 0;
+    static final int SLOT = 1;
+    static final int CONST = 2;
+
+    static int reg(int index) {
+        return (index << 2) | REG;
+    }
+
+    static int slot(int index) {
+        return (index << 2) | SLOT;
+    }
+
+    static int konst(int index) {
+        return (index << 2) | CONST;
+    }
+
+    final ExecutionContext context;
+    final Address[] s;
+    final int sb;
+    final Address[] m;
+    final int lb;
+    final Address[] k;
+    final int[] code;
+    /** Глубина стека перед каждой инструкцией плотного кода. */
+    final int[] depths;
+
+    /** Точка выполнения и глубина стека при выходе из кода. */
+    int exitPc;
+    int exitDepth;
+
+    ClosureFrame(ExecutionContext context, Address[] s, int sb, Address[] m, int lb, Address[] k, int[] code, int[] depths) {
+        this.context = context;
+        this.s = s;
+        this.sb = sb;
+        this.m = m;
+        this.lb = lb;
+        this.k = k;
+        this.code = code;
+        this.depths = depths;
+    }
+
+    Address get(int operand) {
+        int index = operand >> 2;
+        switch (operand & 3) {
+            case REG: return m[lb - index];
+            case SLOT: return s[sb + index];
+            default: return k[index];
+        }
+    }
+
+    Address slotAt(int depth) {
+        return s[sb + depth];
+    }
+
+    /** Запоминает точку выхода. Всегда возвращает -1, признак выхода для {@link ClosureCode}. */
+    int exit(int pc, int depth) {
+        exitPc = pc;
+        exitDepth = depth;
+        return -1;
+    }
+
+    /**
+     * Выход при ошибке в инструкции, за которой лежит точка {@code nextPc}.
+     * Глубина стека та же, что оставил бы интерпретатор плотного кода.
+     */
+    int crash(int nextPc) {
+        return exit(nextPc, depths[nextPc]);
+    }
+}
@@ -0,0 +1,530 @@
+package jua.runtime.interpreter.closure;
+
+import jua.runtime.code.NewConstantPool;
+import jua.runtime.heap.MapHeap;
+import jua.runtime.interpreter.Address;
+import jua.runtime.interpreter.ExecutionContext;
+
+import static jua.runtime.Operations.isResultFalse;
+import static jua.runtime.Operations.isResultTrue;
+
+/**
+ * Узлы, из которых {@link ClosureCompiler} собирает код функции.
+ * Все операнды, константы и переходы узла вычислены при сборке и хранятся в его полях.
+ */
+final class ClosureNodes {
+
+    private ClosureNodes() {
+    }
+
+    /** Узел тела блока. Возвращает {@code false} при ошибке, о которой поток уже знает. */
+    abstract static class Node {
+
+        /** Точка выполнения за инструкцией плотного кода, из которой получен узел. */
+        final int nextPc;
+
+        Node(int nextPc) {
+            this.nextPc = nextPc;
+        }
+
+        abstract boolean exec(ClosureFrame f);
+    }
+
+    /** Завершение блока. Возвращает номер следующего блока или -1 для выхода из кода. */
+    abstract static class Terminator {
+
+        abstract int next(ClosureFrame f);
+    }
+
+    /** Линейный участок кода: тело без переходов и завершение. */
+    static final class Block {
+
+        final Node[] body;
+        final Terminator terminator;
+
+        Block(Node[] body, Terminator terminator) {
+            this.body = body;
+            this.terminator = terminator;
+        }
+
+        int run(ClosureFrame f) {
+            for (Node node : body) {
+                if (!node.exec(f)) {
+                    // Как и в интерпретаторе, при ошибке точка выполнения указывает за сбойную инструкцию
+                    return f.crash(node.nextPc);
+                }
+            }
+            return terminator.next(f);
+        }
+    }
+
+    /* ================================ ПЕРЕСЫЛКИ ================================ */
+
+    static final class Move extends Node {
+
+        final int dst, src;
+
+        Move(int nextPc, int dst, int src) {
+            super(nextPc);
+            this.dst = dst;
+            this.src = src;
+        }
+
+        @Override
+        boolean exec(ClosureFrame f) {
+            f.get(dst).set(f.get(src));
+            return true;
+        }
+    }
+
+    /** Копия константы из пула, как у инструкции Push: изменяемые значения не разделяются с пулом. */
+    static final class LoadConstant extends Node {
+
+        final NewConstantPool constantPool;
+        final int index;
+        final int dst;
+
+        LoadConstant(int nextPc, NewConstantPool constantPool, int index, int dst) {
+            super(nextPc);
+            this.constantPool = constantPool;
+            this.index = index;
+            this.dst = dst;
+        }
+
+        @Override
+        boolean exec(ClosureFrame f) {
+            constantPool.readToAddress(index, f.get(dst));
+            return true;
+        }
+    }
+
+    /* ================================ ОПЕРАЦИИ ================================ */
+
+    abstract static class Binary extends Node {
+
+        final int dst, lhs, rhs;
+
+        Binary(int nextPc, int dst, int lhs, int rhs) {
+            super(nextPc);
+            this.dst = dst;
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+    }
+
+    static final class Add extends Binary {
+        Add(int nextPc, int dst, int lhs, int rhs) { super(nextPc, dst, lhs, rhs); }
+
+        @Override
+        boolean exec(ClosureFrame f) { return f.get(lhs).add(f.get(rhs), f.get(dst)); }
+    }
+
+    static final class Sub extends Binary {
+        Sub(int nextPc, int dst, int lhs, int rhs) { super(nextPc, dst, lhs, rhs); }
+
+        @Override
+        boolean exec(ClosureFrame f) { return f.get(lhs).sub(f.get(rhs), f.get(dst)); }
+    }
+
+    static final class Mul extends Binary {
+        Mul(int nextPc, int dst, int lhs, int rhs) { super(nextPc, dst, lhs, rhs); }
+
+        @Override
+        boolean exec(ClosureFrame f) { return f.get(lhs).mul(f.get(rhs), f.get(dst)); }
+    }
+
+    static final class Div extends Binary {
+        Div(int nextPc, int dst, int lhs, int rhs) { super(nextPc, dst, lhs, rhs); }
+
+        @Override
+        boolean exec(ClosureFrame f) { return f.get(lhs).div(f.get(rhs), f.get(dst)); }
+    }
+
+    static final class Rem extends Binary {
+        Rem(int nextPc, int dst, int lhs, int rhs) { super(nextPc, dst, lhs, rhs); }
+
+        @Override
+        boolean exec(ClosureFrame f) { return f.get(lhs).rem(f.get(rhs), f.get(dst)); }
+    }
+
+    static final class And extends Binary {
+        And(int nextPc, int dst, int lhs, int rhs) { super(nextPc, dst, lhs, rhs); }
+
+        @Override
+        boolean exec(ClosureFrame f) { return f.get(lhs).and(f.get(rhs), f.get(dst)); }
+    }
+
+    static final class Or extends Binary {
+        Or(int nextPc, int dst, int lhs, int rhs) { super(nextPc, dst, lhs, rhs); }
+
+        @Override
+        boolean exec(ClosureFrame f) { return f.get(lhs).or(f.get(rhs), f.get(dst)); }
+    }
+
+    static final class Xor extends Binary {
+        Xor(int nextPc, int dst, int lhs, int rhs) { super(nextPc, dst, lhs, rhs); }
+
+        @Override
+        boolean exec(ClosureFrame f) { return f.get(lhs).xor(f.get(rhs), f.get(dst)); }
+    }
+
+    static final class Shl extends Binary {
+        Shl(int nextPc, int dst, int lhs, int rhs) { super(nextPc, dst, lhs, rhs); }
+
+        @Override
+        boolean exec(ClosureFrame f) { return f.get(lhs).shl(f.get(rhs), f.get(dst)); }
+    }
+
+    static final class Shr extends Binary {
+        Shr(int nextPc, int dst, int lhs, int rhs) { super(nextPc, dst, lhs, rhs); }
+
+        @Override
+        boolean exec(ClosureFrame f) { return f.get(lhs).shr(f.get(rhs), f.get(dst)); }
+    }
+
+    static final class ArrayLoad extends Binary {
+        ArrayLoad(int nextPc, int dst, int lhs, int rhs) { super(nextPc, dst, lhs, rhs); }
+
+        @Override
+        boolean exec(ClosureFrame f) { return f.get(lhs).load(f.get(rhs), f.get(dst)); }
+    }
+
+    static final class ArrayInc extends Binary {
+        ArrayInc(int nextPc, int dst, int lhs, int rhs) { super(nextPc, dst, lhs, rhs); }
+
+        @Override
+        boolean exec(ClosureFrame f) { return f.get(lhs).arrayInc(f.get(rhs), f.get(dst)); }
+    }
+
+    static final class ArrayDec extends Binary {
+        ArrayDec(int nextPc, int dst, int lhs, int rhs) { super(nextPc, dst, lhs, rhs); }
+
+        @Override
+        boolean exec(ClosureFrame f) { return f.get(lhs).arrayDec(f.get(rhs), f.get(dst)); }
+    }
+
+    abstract static class Unary extends Node {
+
+        final int dst, src;
+
+        Unary(int nextPc, int dst, int src) {
+            super(nextPc);
+            this.dst = dst;
+            this.src = src;
+        }
+    }
+
+    static final class Length extends Unary {
+        Length(int nextPc, int dst, int src) { super(nextPc, dst, src); }
+
+        @Override
+        boolean exec(ClosureFrame f) { return f.get(src).length(f.get(dst)); }
+    }
+
+    static final class Pos extends Unary {
+        Pos(int nextPc, int dst, int src) { super(nextPc, dst, src); }
+
+        @Override
+        boolean exec(ClosureFrame f) { return f.get(src).pos(f.get(dst)); }
+    }
+
+    static final class Neg extends Unary {
+        Neg(int nextPc, int dst, int src) { super(nextPc, dst, src); }
+
+        @Override
+        boolean exec(ClosureFrame f) { return f.get(src).neg(f.get(dst)); }
+    }
+
+    static final class Not extends Unary {
+        Not(int nextPc, int dst, int src) { super(nextPc, dst, src); }
+
+        @Override
+        boolean exec(ClosureFrame f) { return f.get(src).not(f.get(dst)); }
+    }
+
+    static final class Inc extends Node {
+
+        final int operand;
+
+        Inc(int nextPc, int operand) {
+            super(nextPc);
+            this.operand = operand;
+        }
+
+        @Override
+        boolean exec(ClosureFrame f) { return f.get(operand).inc(); }
+    }
+
+    static final class Dec extends Node {
+
+        final int operand;
+
+        Dec(int nextPc, int operand) {
+            super(nextPc);
+            this.operand = operand;
+        }
+
+        @Override
+        boolean exec(ClosureFrame f) { return f.get(operand).dec(); }
+    }
+
+    static final class ArrayStore extends Node {
+
+        final int array, key, value;
+
+        ArrayStore(int nextPc, int array, int key, int value) {
+            super(nextPc);
+            this.array = array;
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        boolean exec(ClosureFrame f) { return f.get(array).store(f.get(key), f.get(value)); }
+    }
+
+    /** Создание списка через {@link ExecutionContext#doNewList()}: размер лежит на вершине стека. */
+    static final class NewList extends Node {
+
+        final int depth;
+
+        NewList(int nextPc, int depth) {
+            super(nextPc);
+            this.depth = depth;
+        }
+
+        @Override
+        boolean exec(ClosureFrame f) {
+            ExecutionContext context = f.context;
+            context.getStack().tos(f.sb + depth);
+            context.doNewList();
+            return context.getMsg() == 0;
+        }
+    }
+
+    /** Создание пустого словаря. */
+    static final class NewMap extends Node {
+
+        final int dst;
+
+        NewMap(int nextPc, int dst) {
+            super(nextPc);
+            this.dst = dst;
+        }
+
+        @Override
+        boolean exec(ClosureFrame f) {
+            f.get(dst).set(new MapHeap());
+            return true;
+        }
+    }
+
+    /* ================================ ПЕРЕХОДЫ ================================ */
+
+    static final class Goto extends Terminator {
+
+        final int target;
+
+        Goto(int target) {
+            this.target = target;
+        }
+
+        @Override
+        int next(ClosureFrame f) { return target; }
+    }
+
+    abstract static class Branch extends Terminator {
+
+        final int target, fallthrough;
+
+        Branch(int target, int fallthrough) {
+            this.target = target;
+            this.fallthrough = fallthrough;
+        }
+    }
+
+    abstract static class Compare extends Branch {
+
+        final int lhs, rhs;
+
+        Compare(int lhs, int rhs, int target, int fallthrough) {
+            super(target, fallthrough);
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+    }
+
+    static final class IfEq extends Compare {
+        IfEq(int lhs, int rhs, int target, int fallthrough) { super(lhs, rhs, target, fallthrough); }
+
+        @Override
+        int next(ClosureFrame f) { return f.get(lhs).fastCompareWith(f.get(rhs), 1) == 0 ? target : fallthrough; }
+    }
+
+    static final class IfNe extends Compare {
+        IfNe(int lhs, int rhs, int target, int fallthrough) { super(lhs, rhs, target, fallthrough); }
+
+        @Override
+        int next(ClosureFrame f) { return f.get(lhs).fastCompareWith(f.get(rhs), 1) != 0 ? target : fallthrough; }
+    }
+
+    static final class IfGt extends Compare {
+        IfGt(int lhs, int rhs, int target, int fallthrough) { super(lhs, rhs, target, fallthrough); }
+
+        @Override
+        int next(ClosureFrame f) { return f.get(lhs).fastCompareWith(f.get(rhs), -1) > 0 ? target : fallthrough; }
+    }
+
+    static final class IfGe extends Compare {
+        IfGe(int lhs, int rhs, int target, int fallthrough) { super(lhs, rhs, target, fallthrough); }
+
+        @Override
+        int next(ClosureFrame f) { return f.get(lhs).fastCompareWith(f.get(rhs), -1) >= 0 ? target : fallthrough; }
+    }
+
+    static final class IfLt extends Compare {
+        IfLt(int lhs, int rhs, int target, int fallthrough) { super(lhs, rhs, target, fallthrough); }
+
+        @Override
+        int next(ClosureFrame f) { return f.get(lhs).fastCompareWith(f.get(rhs), 1) < 0 ? target : fallthrough; }
+    }
+
+    static final class IfLe extends Compare {
+        IfLe(int lhs, int rhs, int target, int fallthrough) { super(lhs, rhs, target, fallthrough); }
+
+        @Override
+        int next(ClosureFrame f) { return f.get(lhs).fastCompareWith(f.get(rhs), 1) <= 0 ? target : fallthrough; }
+    }
+
+    abstract static class Test extends Branch {
+
+        final int operand;
+
+        Test(int operand, int target, int fallthrough) {
+            super(target, fallthrough);
+            this.operand = operand;
+        }
+    }
+
+    static final class IfZ extends Test {
+        IfZ(int operand, int target, int fallthrough) { super(operand, target, fallthrough); }
+
+        @Override
+        int next(ClosureFrame f) { return !f.get(operand).booleanVal() ? target : fallthrough; }
+    }
+
+    static final class IfNz extends Test {
+        IfNz(int operand, int target, int fallthrough) { super(operand, target, fallthrough); }
+
+        @Override
+        int next(ClosureFrame f) { return f.get(operand).booleanVal() ? target : fallthrough; }
+    }
+
+    static final class IfNull extends Test {
+        IfNull(int operand, int target, int fallthrough) { super(operand, target, fallthrough); }
+
+        @Override
+        int next(ClosureFrame f) { return f.get(operand).isNull() ? target : fallthrough; }
+    }
+
+    static final class IfNonNull extends Test {
+        IfNonNull(int operand, int target, int fallthrough) { super(operand, target, fallthrough); }
+
+        @Override
+        int next(ClosureFrame f) { return !f.get(operand).isNull() ? target : fallthrough; }
+    }
+
+    /** IfPresent и IfAbsent: проверка наличия может завершиться ошибкой. */
+    static final class Contains extends Compare {
+
+        final boolean present;
+        final int nextPc, depth;
+
+        Contains(boolean present, int lhs, int rhs, int target, int fallthrough, int nextPc, int depth) {
+            super(lhs, rhs, target, fallthrough);
+            this.present = present;
+            this.nextPc = nextPc;
+            this.depth = depth;
+        }
+
+        @Override
+        int next(ClosureFrame f) {
+            int responseCode = f.get(lhs).contains(f.get(rhs));
+            if (f.context.getMsg() != 0) {
+                return f.exit(nextPc, depth);
+            }
+            return (present ? isResultTrue(responseCode) : isResultFalse(responseCode)) ? target : fallthrough;
+        }
+    }
+
+    /** *switch-инструкции: поиск метки выполняет интерпретатор, точка перехода переводится в номер блока. */
+    static final class Switch extends Terminator {
+
+        final boolean linear;
+        final int pc, selector;
+        final int[] blockIndexes;
+
+        Switch(boolean linear, int pc, int selector, int[] blockIndexes) {
+            this.linear = linear;
+            this.pc = pc;
+            this.selector = selector;
+            this.blockIndexes = blockIndexes;
+        }
+
+        @Override
+        int next(ClosureFrame f) {
+            int target = linear
+                    ? f.context.denseLinearSwitch(f.code, pc, f.get(selector))
+                    : f.context.denseBinarySwitch(f.code, pc, f.get(selector));
+            return blockIndexes[target];
+        }
+    }
+
+    /* ================================ ВЫХОДЫ ================================ */
+
+    static final class Call extends Terminator {
+
+        final boolean tail;
+        final int calleeId, argc, nextPc, depth;
+
+        Call(boolean tail, int calleeId, int argc, int nextPc, int depth) {
+            this.tail = tail;
+            this.calleeId = calleeId;
+            this.argc = argc;
+            this.nextPc = nextPc;
+            this.depth = depth;
+        }
+
+        @Override
+        int next(ClosureFrame f) {
+            if (tail) {
+                f.context.doTailCall(calleeId, argc);
+            } else {
+                f.context.doCall(calleeId, argc);
+            }
+            return f.exit(nextPc, depth);
+        }
+    }
+
+    /** Return, а при {@code leave} еще и значение null на вершине стека, как у Leave. */
+    static final class Return extends Terminator {
+
+        final boolean leave;
+        final int nextPc, depth;
+
+        Return(boolean leave, int nextPc, int depth) {
+            this.leave = leave;
+            this.nextPc = nextPc;
+            this.depth = depth;
+        }
+
+        @Override
+        int next(ClosureFrame f) {
+            if (leave) {
+                f.slotAt(depth).setNull();
+            }
+            f.context.doReturn();
+            return f.exit(nextPc, leave ? depth + 1 : depth);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package jua.runtime.interpreter.instruction;
 
+import jua.runtime.interpreter.Address;
 import jua.runtime.interpreter.ExecutionContext;
 
 import static jua.runtime.interpreter.OPCodes.*;
@@ -406,6 +407,14 @@ public interface InstructionImpls {
         public int opcode() { return NewList; }
     }
 
+    class NewMap implements Instruction {
+        @Override
+        public void execute(ExecutionContext context) { context.doNewMap(); }
+
+        @Override
+        public int opcode() { return NewMap; }
+    }
+
     abstract class JumpInstruction implements Instruction {
         private final int nextCp;
 
@@ -650,6 +659,22 @@ public interface InstructionImpls {
         public int opcode() { return Call; }
     }
 
+    class TailCall implements Instruction {
+        private final int calleeId;
+        private final int argCount;
+
+        public TailCall(int calleeId, int argCount) {
+            this.calleeId = calleeId;
+            this.argCount = argCount;
+        }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doTailCall(calleeId, argCount); }
+
+        @Override
+        public int opcode() { return TailCall; }
+    }
+
     class Return implements Instruction {
         @Override
         public void execute(ExecutionContext context) { context.doReturn(); }
@@ -665,4 +690,380 @@ public interface InstructionImpls {
         @Override
         public int opcode() { return Leave; }
     }
+
+    /**
+     * Трехадресная инструкция над регистрами. Отрицательный операнд означает константу с индексом {@code -1-operand}.
+     */
+    abstract class RegisterInstruction implements Instruction {
+        protected final int dst;
+        protected final int lhs;
+        protected final int rhs;
+
+        protected RegisterInstruction(int dst, int lhs, int rhs) {
+            this.dst = dst;
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+    }
+
+    class RAdd extends RegisterInstruction {
+        public RAdd(int dst, int lhs, int rhs) { super(dst, lhs, rhs); }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doRAdd(dst, lhs, rhs); }
+
+        @Override
+        public int opcode() { return RAdd; }
+    }
+
+    class RSub extends RegisterInstruction {
+        public RSub(int dst, int lhs, int rhs) { super(dst, lhs, rhs); }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doRSub(dst, lhs, rhs); }
+
+        @Override
+        public int opcode() { return RSub; }
+    }
+
+    class RMul extends RegisterInstruction {
+        public RMul(int dst, int lhs, int rhs) { super(dst, lhs, rhs); }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doRMul(dst, lhs, rhs); }
+
+        @Override
+        public int opcode() { return RMul; }
+    }
+
+    class RDiv extends RegisterInstruction {
+        public RDiv(int dst, int lhs, int rhs) { super(dst, lhs, rhs); }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doRDiv(dst, lhs, rhs); }
+
+        @Override
+        public int opcode() { return RDiv; }
+    }
+
+    class RRem extends RegisterInstruction {
+        public RRem(int dst, int lhs, int rhs) { super(dst, lhs, rhs); }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doRRem(dst, lhs, rhs); }
+
+        @Override
+        public int opcode() { return RRem; }
+    }
+
+    class RAnd extends RegisterInstruction {
+        public RAnd(int dst, int lhs, int rhs) { super(dst, lhs, rhs); }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doRAnd(dst, lhs, rhs); }
+
+        @Override
+        public int opcode() { return RAnd; }
+    }
+
+    class ROr extends RegisterInstruction {
+        public ROr(int dst, int lhs, int rhs) { super(dst, lhs, rhs); }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doROr(dst, lhs, rhs); }
+
+        @Override
+        public int opcode() { return ROr; }
+    }
+
+    class RXor extends RegisterInstruction {
+        public RXor(int dst, int lhs, int rhs) { super(dst, lhs, rhs); }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doRXor(dst, lhs, rhs); }
+
+        @Override
+        public int opcode() { return RXor; }
+    }
+
+    class RShl extends RegisterInstruction {
+        public RShl(int dst, int lhs, int rhs) { super(dst, lhs, rhs); }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doRShl(dst, lhs, rhs); }
+
+        @Override
+        public int opcode() { return RShl; }
+    }
+
+    class RShr extends RegisterInstruction {
+        public RShr(int dst, int lhs, int rhs) { super(dst, lhs, rhs); }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doRShr(dst, lhs, rhs); }
+
+        @Override
+        public int opcode() { return RShr; }
+    }
+
+    class RMove implements Instruction {
+        private final int dst;
+        private final int src;
+
+        public RMove(int dst, int src) {
+            this.dst = dst;
+            this.src = src;
+        }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doRMove(dst, src); }
+
+        @Override
+        public int opcode() { return RMove; }
+    }
+
+    abstract class RegisterJumpInstruction extends JumpInstruction {
+        protected final int lhs;
+        protected final int rhs;
+
+        protected RegisterJumpInstruction(int lhs, int rhs, int nextCp) {
+            super(nextCp);
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+    }
+
+    class RIfEq extends RegisterJumpInstruction {
+        public RIfEq(int lhs, int rhs, int thenCp) { super(lhs, rhs, thenCp); }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doRJumpIfEq(lhs, rhs, getNextCp()); }
+
+        @Override
+        public int opcode() { return RIfEq; }
+    }
+
+    class RIfNe extends RegisterJumpInstruction {
+        public RIfNe(int lhs, int rhs, int thenCp) { super(lhs, rhs, thenCp); }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doRJumpIfNe(lhs, rhs, getNextCp()); }
+
+        @Override
+        public int opcode() { return RIfNe; }
+    }
+
+    class RIfGe extends RegisterJumpInstruction {
+        public RIfGe(int lhs, int rhs, int thenCp) { super(lhs, rhs, thenCp); }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doRJumpIfGe(lhs, rhs, getNextCp()); }
+
+        @Override
+        public int opcode() { return RIfGe; }
+    }
+
+    class RIfLt extends RegisterJumpInstruction {
+        public RIfLt(int lhs, int rhs, int thenCp) { super(lhs, rhs, thenCp); }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doRJumpIfLt(lhs, rhs, getNextCp()); }
+
+        @Override
+        public int opcode() { return RIfLt; }
+    }
+
+    class RIfGt extends RegisterJumpInstruction {
+        public RIfGt(int lhs, int rhs, int thenCp) { super(lhs, rhs, thenCp); }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doRJumpIfGt(lhs, rhs, getNextCp()); }
+
+        @Override
+        public int opcode() { return RIfGt; }
+    }
+
+    class RIfLe extends RegisterJumpInstruction {
+        public RIfLe(int lhs, int rhs, int thenCp) { super(lhs, rhs, thenCp); }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doRJumpIfLe(lhs, rhs, getNextCp()); }
+
+        @Override
+        public int opcode() { return RIfLe; }
+    }
+
+    class LoadLoadAdd implements Instruction {
+        private final int a;
+        private final int b;
+
+        public LoadLoadAdd(int a, int b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doLoadLoadAdd(a, b); }
+
+        @Override
+        public int opcode() { return LoadLoadAdd; }
+    }
+
+    class LoadLoadArrayLoad implements Instruction {
+        private final int a;
+        private final int b;
+
+        public LoadLoadArrayLoad(int a, int b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doLoadLoadArrayLoad(a, b); }
+
+        @Override
+        public int opcode() { return LoadLoadArrayLoad; }
+    }
+
+    class LoadAdd1Store implements Instruction {
+        private final int a;
+        private final int b;
+        private final Address one = new Address();
+
+        public LoadAdd1Store(int a, int b) {
+            this.a = a;
+            this.b = b;
+            one.set(1L);
+        }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doLoadAdd1Store(a, b, one); }
+
+        @Override
+        public int opcode() { return LoadAdd1Store; }
+    }
+
+    class LoadLoadIfLt extends JumpInstruction {
+        private final int a;
+        private final int b;
+
+        public LoadLoadIfLt(int a, int b, int thenCp) {
+            super(thenCp);
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doLoadLoadJumpIfLt(a, b, getNextCp()); }
+
+        @Override
+        public int opcode() { return LoadLoadIfLt; }
+    }
+
+    class LoadLoadIfGe extends JumpInstruction {
+        private final int a;
+        private final int b;
+
+        public LoadLoadIfGe(int a, int b, int thenCp) {
+            super(thenCp);
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doLoadLoadJumpIfGe(a, b, getNextCp()); }
+
+        @Override
+        public int opcode() { return LoadLoadIfGe; }
+    }
+
+    class LoadPushIfLt extends JumpInstruction {
+        private final int a;
+        private final int cpi;
+
+        public LoadPushIfLt(int a, int cpi, int thenCp) {
+            super(thenCp);
+            this.a = a;
+            this.cpi = cpi;
+        }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doLoadPushJumpIfLt(a, cpi, getNextCp()); }
+
+        @Override
+        public int opcode() { return LoadPushIfLt; }
+    }
+
+    class LoadPushIfGe extends JumpInstruction {
+        private final int a;
+        private final int cpi;
+
+        public LoadPushIfGe(int a, int cpi, int thenCp) {
+            super(thenCp);
+            this.a = a;
+            this.cpi = cpi;
+        }
+
+        @Override
+        public void execute(ExecutionContext context) { context.doLoadPushJumpIfGe(a, cpi, getNextCp()); }
+
+        @Override
+        public int opcode() { return LoadPushIfGe; }
+    }
+
+    /**
+     * Ускоряемая инструкция: общая инструкция {@code generic} и ее быстрый путь {@code fastPath}.
+     * Если быстрый путь выполнился, место в коде функции занимает специализированная версия,
+     * которая пробует только быстрый путь и возвращает ускоряемую на место, если он не подошел.
+     * После {@link #MAX_DEOPTIMIZATIONS} возвратов место занимает сама общая инструкция.
+     * Ускоряемые инструкции хранят состояние, поэтому создаются для каждого места отдельно.
+     */
+    final class QuickeningInstruction implements Instruction {
+        static final int MAX_DEOPTIMIZATIONS = 8;
+
+        /**
+         * Быстрый путь инструкции. Возвращает {@code false}, ничего не изменив,
+         * если операнды ему не подходят.
+         */
+        public interface FastPath {
+            boolean execute(ExecutionContext context);
+        }
+
+        private final Instruction generic;
+        private final FastPath fastPath;
+        private final Instruction specialized = new Specialized();
+        private int deoptimizations = 0;
+
+        public QuickeningInstruction(Instruction generic, FastPath fastPath) {
+            this.generic = generic;
+            this.fastPath = fastPath;
+        }
+
+        @Override
+        public void execute(ExecutionContext context) {
+            int cp = context.getNextCp() - 1;
+            if (fastPath.execute(context)) {
+                context.rewrite(cp, specialized);
+            } else {
+                generic.execute(context);
+            }
+        }
+
+        @Override
+        public int opcode() { return generic.opcode(); }
+
+        private final class Specialized implements Instruction {
+            @Override
+            public void execute(ExecutionContext context) {
+                if (!fastPath.execute(context)) {
+                    context.rewrite(context.getNextCp() - 1,
+                            (++deoptimizations >= MAX_DEOPTIMIZATIONS) ? generic : QuickeningInstruction.this);
+                    generic.execute(context);
+                }
+            }
+
+            @Override
+            public int opcode() { return generic.opcode(); }
+        }
+    }
 }
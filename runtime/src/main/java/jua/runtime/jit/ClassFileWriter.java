@@ -0,0 +1,467 @@
+package jua.runtime.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Минимальный генератор class-файлов: пул констант, методы и байткод с метками.
+ * Генерируются class-файлы версии 49 (Java 5), чтобы не строить StackMapTable:
+ * такие классы проверяются верификатором, который выводит типы сам.
+ */
+final class ClassFileWriter {
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_SUPER = 0x0020;
+
+    private static final int CLASS_VERSION = 49;
+
+    private static final int CONSTANT_Utf8 = 1;
+    private static final int CONSTANT_Integer = 3;
+    private static final int CONSTANT_Class = 7;
+    private static final int CONSTANT_Fieldref = 9;
+    private static final int CONSTANT_Methodref = 10;
+    private static final int CONSTANT_NameAndType = 12;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndexes = new HashMap<>();
+    private int poolCount = 1;
+
+    /** Дескрипторы полей и методов по индексам их ссылок в пуле. */
+    private final Map<Integer, String> memberDescriptors = new HashMap<>();
+
+    private final List<byte[]> methods = new ArrayList<>();
+
+    private final String thisName;
+    private final String superName;
+
+    ClassFileWriter(String thisName, String superName) {
+        this.thisName = thisName;
+        this.superName = superName;
+    }
+
+    int utf8(String value) {
+        return entry("U" + value, () -> {
+            pool.writeByte(CONSTANT_Utf8);
+            pool.writeUTF(value);
+        });
+    }
+
+    int integer(int value) {
+        return entry("I" + value, () -> {
+            pool.writeByte(CONSTANT_Integer);
+            pool.writeInt(value);
+        });
+    }
+
+    int classRef(String internalName) {
+        int name = utf8(internalName);
+        return entry("C" + internalName, () -> {
+            pool.writeByte(CONSTANT_Class);
+            pool.writeShort(name);
+        });
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_Methodref, owner, name, descriptor);
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_Fieldref, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = entry("N" + name + ' ' + descriptor, () -> {
+            pool.writeByte(CONSTANT_NameAndType);
+            pool.writeShort(nameIndex);
+            pool.writeShort(descriptorIndex);
+        });
+        int index = entry(tag + owner + '.' + name + ' ' + descriptor, () -> {
+            pool.writeByte(tag);
+            pool.writeShort(ownerIndex);
+            pool.writeShort(nameAndType);
+        });
+        memberDescriptors.put(index, descriptor);
+        return index;
+    }
+
+    /** Возвращает число ячеек стека JVM, которое занимает значение типа из дескриптора. */
+    private static int slots(char type) {
+        switch (type) {
+            case 'V': return 0;
+            case 'J': case 'D': return 2;
+            default: return 1;
+        }
+    }
+
+    /** Возвращает изменение глубины стека JVM при обращении к полю {@code fieldRef} инструкцией GETFIELD. */
+    private int getFieldEffect(int fieldRef) {
+        return slots(memberDescriptors.get(fieldRef).charAt(0)) - 1;
+    }
+
+    /** Возвращает изменение глубины стека JVM при вызове метода {@code methodRef}. */
+    private int invokeEffect(int methodRef, boolean isStatic) {
+        String descriptor = memberDescriptors.get(methodRef);
+        int effect = isStatic ? 0 : -1;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char type = descriptor.charAt(i);
+            int start = i;
+            while (descriptor.charAt(i) == '[') i++;
+            if (descriptor.charAt(i) == 'L') i = descriptor.indexOf(';', i);
+            i++;
+            effect -= (i - start > 1) ? 1 : slots(type);
+        }
+        return effect + slots(descriptor.charAt(i + 1));
+    }
+
+    private interface PoolWriter {
+        void write() throws IOException;
+    }
+
+    private int entry(String key, PoolWriter writer) {
+        Integer index = poolIndexes.get(key);
+        if (index != null) {
+            return index;
+        }
+        if (poolCount >= 0xFFFF) {
+            throw new IllegalStateException("constant pool overflow");
+        }
+        try {
+            writer.write();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        poolIndexes.put(key, poolCount);
+        return poolCount++;
+    }
+
+    /** Добавляет метод с кодом. */
+    void addMethod(int access, String name, String descriptor, Code code) {
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int codeAttr = utf8("Code");
+        byte[] bytecode = code.toByteArray();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeShort(access);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            out.writeShort(1); // attributes_count
+            out.writeShort(codeAttr);
+            out.writeInt(2 + 2 + 4 + bytecode.length + 2 + 2);
+            out.writeShort(code.maxStack);
+            out.writeShort(code.maxLocals);
+            out.writeInt(bytecode.length);
+            out.write(bytecode);
+            out.writeShort(0); // exception_table_length
+            out.writeShort(0); // attributes_count
+            methods.add(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    byte[] toByteArray() {
+        int thisIndex = classRef(thisName);
+        int superIndex = classRef(superName);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(CLASS_VERSION);
+            out.writeShort(poolCount);
+            pool.flush();
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_SUPER);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(0); // interfaces_count
+            out.writeShort(0); // fields_count
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0); // attributes_count
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /** Метка в байткоде. Ссылки на еще не привязанную метку разрешаются при ее привязке. */
+    static final class Label {
+        private int position = -1;
+        /** Глубина стека JVM на переходах к метке либо {@code -1}, если переходов еще не было. */
+        private int depth = -1;
+        private final List<int[]> fixups = new ArrayList<>(); // {начало инструкции, смещение поля, ширина поля}
+    }
+
+    /**
+     * Байткод одного метода. Глубина стека JVM отслеживается по мере генерации,
+     * и в {@link #maxStack} попадает наибольшая глубина, которой достигает код.
+     */
+    static final class Code {
+
+        static final int ICONST_0 = 0x03;
+        static final int LCONST_0 = 0x09;
+        static final int BIPUSH = 0x10;
+        static final int SIPUSH = 0x11;
+        static final int LDC_W = 0x13;
+        static final int ILOAD = 0x15;
+        static final int ALOAD = 0x19;
+        static final int AALOAD = 0x32;
+        static final int ISTORE = 0x36;
+        static final int ATHROW = 0xBF;
+        static final int IADD = 0x60;
+        static final int ISUB = 0x64;
+        static final int LSHL = 0x79;
+        static final int LOR = 0x81;
+        static final int IINC = 0x84;
+        static final int I2L = 0x85;
+        static final int IFEQ = 0x99;
+        static final int IFNE = 0x9A;
+        static final int IFLT = 0x9B;
+        static final int IFGE = 0x9C;
+        static final int IFGT = 0x9D;
+        static final int IFLE = 0x9E;
+        static final int GOTO = 0xA7;
+        static final int LOOKUPSWITCH = 0xAB;
+        static final int LRETURN = 0xAD;
+        static final int RETURN = 0xB1;
+        static final int GETFIELD = 0xB4;
+        static final int INVOKEVIRTUAL = 0xB6;
+        static final int INVOKESPECIAL = 0xB7;
+        static final int INVOKESTATIC = 0xB8;
+
+        private final ClassFileWriter cw;
+
+        private byte[] buf = new byte[256];
+        private int length = 0;
+
+        /** Глубина стека JVM в текущей точке. */
+        private int depth = 0;
+        /** Достижима ли текущая точка из предыдущей инструкции. */
+        private boolean reachable = true;
+
+        int maxStack = 0;
+        final int maxLocals;
+
+        Code(ClassFileWriter cw, int maxLocals) {
+            this.cw = cw;
+            this.maxLocals = maxLocals;
+        }
+
+        private void stack(int delta) {
+            depth += delta;
+            if (depth < 0) {
+                throw new InternalError("operand stack underflow");
+            }
+            maxStack = Math.max(maxStack, depth);
+        }
+
+        /** Следующая инструкция достижима только переходом. */
+        private void unreachable() {
+            reachable = false;
+            depth = 0;
+        }
+
+        private void jumpTo(Label label) {
+            if (label.depth < 0) {
+                label.depth = depth;
+            } else if (label.depth != depth) {
+                throw new InternalError("inconsistent operand stack depth");
+            }
+        }
+
+        int length() {
+            return length;
+        }
+
+        private void u1(int value) {
+            if (length == buf.length) {
+                byte[] newBuf = new byte[buf.length * 2];
+                System.arraycopy(buf, 0, newBuf, 0, length);
+                buf = newBuf;
+            }
+            buf[length++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private void u4(int value) {
+            u2(value >> 16);
+            u2(value);
+        }
+
+        void op(int opcode) {
+            switch (opcode) {
+                case I2L:
+                    stack(1);
+                    break;
+                case AALOAD: case IADD: case ISUB: case LSHL:
+                    stack(-1);
+                    break;
+                case LOR:
+                    stack(-2);
+                    break;
+                case ATHROW: case LRETURN: case RETURN:
+                    unreachable();
+                    break;
+                default:
+                    throw new IllegalArgumentException("unsupported opcode " + opcode);
+            }
+            u1(opcode);
+        }
+
+        void op(int opcode, int u2operand) {
+            switch (opcode) {
+                case LDC_W:
+                    stack(1);
+                    break;
+                case GETFIELD:
+                    stack(cw.getFieldEffect(u2operand));
+                    break;
+                case INVOKEVIRTUAL: case INVOKESPECIAL: case INVOKESTATIC:
+                    stack(cw.invokeEffect(u2operand, opcode == INVOKESTATIC));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unsupported opcode " + opcode);
+            }
+            u1(opcode);
+            u2(u2operand);
+        }
+
+        void load(int opcode, int local) {
+            stack(opcode == ISTORE ? -1 : 1);
+            u1(opcode);
+            u1(local);
+        }
+
+        void iinc(int local, int delta) {
+            if (delta == 0) return;
+            u1(IINC);
+            u1(local);
+            u1(delta);
+        }
+
+        void invoke(int opcode, int methodRef) {
+            op(opcode, methodRef);
+        }
+
+        /** Кладет на стек целочисленную константу самой короткой инструкцией. */
+        void iconst(ClassFileWriter cw, int value) {
+            if (value >= -1 && value <= 5) {
+                stack(1);
+                u1(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                stack(1);
+                u1(BIPUSH);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                stack(1);
+                u1(SIPUSH);
+                u2(value);
+            } else {
+                op(LDC_W, cw.integer(value));
+            }
+        }
+
+        void bind(Label label) {
+            if (reachable) {
+                jumpTo(label);
+            } else {
+                // Метка, к которой еще нет переходов, достижима только из диспетчера с пустым стеком
+                if (label.depth < 0) {
+                    label.depth = 0;
+                }
+                depth = label.depth;
+                reachable = true;
+            }
+            label.position = length;
+        }
+
+        void jump(int opcode, Label label) {
+            if (opcode != GOTO) {
+                stack(-1);
+            }
+            jumpTo(label);
+            if (opcode == GOTO) {
+                unreachable();
+            }
+            int start = length;
+            u1(opcode);
+            label.fixups.add(new int[]{start, length, 2});
+            u2(0);
+        }
+
+        /** lookupswitch по отсортированным ключам. */
+        void lookupswitch(Label dflt, int[] keys, Label[] labels) {
+            stack(-1);
+            jumpTo(dflt);
+            for (Label label : labels) {
+                jumpTo(label);
+            }
+            unreachable();
+            int start = length;
+            u1(LOOKUPSWITCH);
+            while ((length & 3) != 0) u1(0);
+            dflt.fixups.add(new int[]{start, length, 4});
+            u4(0);
+            u4(keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                u4(keys[i]);
+                labels[i].fixups.add(new int[]{start, length, 4});
+                u4(0);
+            }
+        }
+
+        /** Разрешает ссылки на метки. Метки должны быть уже привязаны. */
+        void resolve(Iterable<Label> labels) {
+            for (Label label : labels) {
+                if (label.fixups.isEmpty()) continue;
+                if (label.position < 0) {
+                    throw new InternalError("unbound label");
+                }
+                for (int[] fixup : label.fixups) {
+                    int offset = label.position - fixup[0];
+                    int at = fixup[1];
+                    if (fixup[2] == 2) {
+                        if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                            throw new IllegalStateException("branch offset too large");
+                        }
+                        buf[at] = (byte) (offset >> 8);
+                        buf[at + 1] = (byte) offset;
+                    } else {
+                        buf[at] = (byte) (offset >> 24);
+                        buf[at + 1] = (byte) (offset >> 16);
+                        buf[at + 2] = (byte) (offset >> 8);
+                        buf[at + 3] = (byte) offset;
+                    }
+                }
+            }
+        }
+
+        byte[] toByteArray() {
+            if (length > 0xFFFF) {
+                throw new IllegalStateException("method too large");
+            }
+            byte[] result = new byte[length];
+            System.arraycopy(buf, 0, result, 0, length);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package jua.runtime.jit;
+
+import jua.runtime.interpreter.Address;
+import jua.runtime.interpreter.ExecutionContext;
+import jua.runtime.interpreter.InterpreterException;
+
+/**
+ * Код функции, скомпилированный в байткод JVM ({@link JitCompiler}).
+ * Работает с теми же стеком и регистрами потока, что и интерпретатор,
+ * поэтому выполнение может переходить между уровнями в точках вызова.
+ */
+public abstract class CompiledCode {
+
+    /** Плотный код, из которого скомпилирован метод. Нужен *switch-инструкциям. */
+    protected final int[] code;
+
+    protected CompiledCode(int[] code) {
+        this.code = code;
+    }
+
+    /**
+     * Выполняет код, начиная с точки {@code pc} плотного кода, до вызова, возврата или ошибки.
+     *
+     * @param context Контекст выполнения.
+     * @param s       Массив стека потока.
+     * @param sp      Вершина стека.
+     * @param m       Массив регистров потока.
+     * @param lb      Смещение регистра 0 текущего фрейма, регистр i лежит в {@code m[lb - i]}.
+     * @param pc      Точка входа: 0 либо точка сразу за вызовом.
+     * @return Точка выполнения в старших 32 битах и вершина стека в младших.
+     */
+    public abstract long run(ExecutionContext context, Address[] s, int sp, Address[] m, int lb, int pc);
+
+    public static RuntimeException badEntry(int pc) {
+        return new InterpreterException("Compiled code has no entry at " + pc);
+    }
+}
@@ -0,0 +1,666 @@
+package jua.runtime.jit;
+
+import jua.runtime.Function;
+import jua.runtime.code.CodeData;
+import jua.runtime.interpreter.OPCodes;
+import jua.runtime.jit.ClassFileWriter.Code;
+import jua.runtime.jit.ClassFileWriter.Label;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import static jua.runtime.interpreter.DenseCodeAnalysis.instructionLength;
+import static jua.runtime.interpreter.DenseCodeAnalysis.isConditionalJump;
+import static jua.runtime.jit.ClassFileWriter.Code.*;
+
+/**
+ * Второй уровень выполнения: компилирует плотный код горячих функций в классы JVM.
+ * <p>
+ * Интерпретатор (первый уровень) считает вызовы и обратные переходы каждой функции.
+ * Когда их сумма достигает {@link #COMPILE_THRESHOLD}, плотный код функции переводится
+ * в метод {@link CompiledCode#run}: каждая инструкция становится обращением к тем же
+ * методам {@link jua.runtime.interpreter.Address}, что использует интерпретатор, а переходы
+ * становятся переходами JVM. Дальше код оптимизирует HotSpot.
+ * <p>
+ * Скомпилированный код выходит в интерпретатор на каждом вызове, возврате и ошибке,
+ * а вход в него возможен в начале функции, сразу за каждым вызовом и в начале каждого цикла.
+ * Последнее позволяет заменить на стеке (OSR) функцию, которая вызывается один раз,
+ * но долго крутит цикл.
+ */
+public final class JitCompiler {
+
+    /**
+     * Сумма вызовов и обратных переходов, после которой функция компилируется.
+     * Задается свойством {@code jua.jit.threshold}.
+     */
+    public static final int COMPILE_THRESHOLD = Integer.getInteger("jua.jit.threshold", 1000);
+
+    /**
+     * Строгий режим для отладки и тестов: ошибка самого компилятора ({@link InternalError}),
+     * например, класс, который не прошел проверку JVM, прерывает выполнение, а не оставляет
+     * функцию молча на первом уровне. Задается свойством {@code jua.jit.strict}.
+     */
+    public static final boolean STRICT = Boolean.getBoolean("jua.jit.strict");
+
+    private static boolean enabled = false;
+
+    private static int classCounter = 0;
+
+    public static void enable() {
+        enabled = true;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Учитывает вызов функции. Возвращает скомпилированный код, если функция уже
+     * скомпилирована или стала горячей только что, иначе {@code null}.
+     */
+    public static CompiledCode countInvocation(Function function) {
+        CodeData code = function.getCode();
+        CompiledCode compiled = code.getCompiledCode();
+        if (compiled != null || code.isNotCompilable()) {
+            return compiled;
+        }
+        if (++function.invocationCounter + function.backEdgeCounter < COMPILE_THRESHOLD) {
+            return null;
+        }
+        return compileHot(function);
+    }
+
+    /**
+     * Компилирует функцию, которая стала горячей. Возвращает {@code null},
+     * если функцию скомпилировать нельзя.
+     */
+    public static CompiledCode compileHot(Function function) {
+        CodeData code = function.getCode();
+        CompiledCode compiled = code.getCompiledCode();
+        if (compiled != null || code.isNotCompilable()) {
+            return compiled;
+        }
+        try {
+            compiled = compile(function.getName(), code.getDenseCode());
+            code.setCompiledCode(compiled);
+        } catch (UnsupportedOperationException | IllegalStateException e) {
+            // Функция остается на первом уровне
+            code.setNotCompilable();
+        } catch (InternalError e) {
+            if (STRICT) throw e;
+            code.setNotCompilable();
+        }
+        return compiled;
+    }
+
+    private static final String CONTEXT = "jua/runtime/interpreter/ExecutionContext";
+    private static final String ADDRESS = "jua/runtime/interpreter/Address";
+    private static final String CONSTANT_POOL = "jua/runtime/code/NewConstantPool";
+    private static final String STACK = "jua/runtime/interpreter/ThreadStack";
+    private static final String OPERATIONS = "jua/runtime/Operations";
+    private static final String COMPILED_CODE = "jua/runtime/jit/CompiledCode";
+
+    private static final String ADDRESS_D = "L" + ADDRESS + ";";
+    private static final String RUN_DESCRIPTOR =
+            "(L" + CONTEXT + ";[" + ADDRESS_D + "I[" + ADDRESS_D + "II)J";
+
+    // Локальные переменные метода run
+    private static final int THIS = 0;
+    private static final int CONTEXT_LOCAL = 1;
+    private static final int S = 2;
+    private static final int SP = 3;
+    private static final int M = 4;
+    private static final int LB = 5;
+    private static final int PC = 6;
+    private static final int MAX_LOCALS = 7;
+
+    static CompiledCode compile(String functionName, int[] c) {
+        String className = "jua/jit/" + sanitize(functionName) + "$" + (classCounter++);
+        ClassFileWriter cw = new ClassFileWriter(className, COMPILED_CODE);
+
+        Code init = new Code(cw, 2);
+        init.load(ALOAD, 0);
+        init.load(ALOAD, 1);
+        init.invoke(INVOKESPECIAL, cw.methodRef(COMPILED_CODE, "<init>", "([I)V"));
+        init.op(RETURN);
+        cw.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "([I)V", init);
+
+        cw.addMethod(ClassFileWriter.ACC_PUBLIC, "run", RUN_DESCRIPTOR, new MethodCompiler(cw, c).compile());
+
+        byte[] bytes = cw.toByteArray();
+        try {
+            Class<?> clazz = new Loader(CompiledCode.class.getClassLoader())
+                    .define(className.replace('/', '.'), bytes);
+            return (CompiledCode) clazz.getConstructor(int[].class).newInstance((Object) c);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new InternalError("unable to load compiled code of " + functionName, e);
+        }
+    }
+
+    private static String sanitize(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char ch = name.charAt(i);
+            sb.append((ch < 128 && Character.isLetterOrDigit(ch)) ? ch : '_');
+        }
+        return sb.toString();
+    }
+
+    /** Свой загрузчик у каждого класса, чтобы класс выгружался вместе с функцией. */
+    private static final class Loader extends ClassLoader {
+
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private static final class MethodCompiler {
+
+        final ClassFileWriter cw;
+        final int[] c;
+        final Code code;
+
+        /** Метка для каждой инструкции плотного кода. */
+        final Label[] labels;
+        final List<Label> allLabels = new ArrayList<>();
+        /** Точки, в которые возможен вход через диспетчер в начале метода. */
+        final TreeSet<Integer> entries = new TreeSet<>();
+
+        final Label dispatch = newLabel();
+        final Label exit = newLabel();
+        final Label badEntry = newLabel();
+
+        MethodCompiler(ClassFileWriter cw, int[] c) {
+            this.cw = cw;
+            this.c = c;
+            this.code = new Code(cw, MAX_LOCALS);
+            this.labels = new Label[c.length + 1];
+        }
+
+        boolean isBackEdge(int pc) {
+            int op = c[pc];
+            return (op == OPCodes.Goto || isConditionalJump(op)) && c[pc + 1] <= pc;
+        }
+
+        Label newLabel() {
+            Label label = new Label();
+            allLabels.add(label);
+            return label;
+        }
+
+        Label label(int pc) {
+            if (labels[pc] == null) {
+                labels[pc] = newLabel();
+            }
+            return labels[pc];
+        }
+
+        Code compile() {
+            entries.add(0);
+            for (int pc = 0; pc < c.length; pc += instructionLength(c, pc)) {
+                if (isBackEdge(pc)) {
+                    // Начало цикла: точка замещения на стеке
+                    entries.add(c[pc + 1]);
+                }
+                switch (c[pc]) {
+                    case OPCodes.Call: case OPCodes.TailCall:
+                        entries.add(pc + 3);
+                        break;
+                    case OPCodes.LinearSwitch: case OPCodes.BinarySwitch: {
+                        int count = c[pc + 1];
+                        entries.add(c[pc + 2]);
+                        for (int i = 0; i < count; i++) {
+                            entries.add(c[pc + 3 + count + i]);
+                        }
+                        break;
+                    }
+                }
+            }
+
+            // Диспетчер точек входа
+            code.bind(dispatch);
+            code.load(ILOAD, PC);
+            int[] keys = new int[entries.size()];
+            Label[] targets = new Label[entries.size()];
+            int k = 0;
+            for (int entry : entries) {
+                keys[k] = entry;
+                targets[k] = label(entry);
+                k++;
+            }
+            code.lookupswitch(badEntry, keys, targets);
+
+            for (int pc = 0; pc < c.length; pc += instructionLength(c, pc)) {
+                code.bind(label(pc));
+                compileInstruction(pc);
+            }
+
+            // Конец кода: сюда можно попасть только переходом за последнюю инструкцию
+            code.bind(label(c.length));
+            code.iconst(cw, c.length);
+            code.load(ISTORE, PC);
+            code.bind(badEntry);
+            code.load(ILOAD, PC);
+            code.invoke(INVOKESTATIC, cw.methodRef(COMPILED_CODE, "badEntry", "(I)Ljava/lang/RuntimeException;"));
+            code.op(ATHROW);
+
+            // Выход: на стеке JVM точка выполнения
+            code.bind(exit);
+            code.op(I2L);
+            code.iconst(cw, 32);
+            code.op(LSHL);
+            code.load(ILOAD, SP);
+            code.op(I2L);
+            code.op(LOR);
+            code.op(LRETURN);
+
+            code.resolve(allLabels);
+            return code;
+        }
+
+        // s[sp + offset]
+        void slot(int offset) {
+            code.load(ALOAD, S);
+            code.load(ILOAD, SP);
+            if (offset != 0) {
+                code.iconst(cw, offset);
+                code.op(IADD);
+            }
+            code.op(AALOAD);
+        }
+
+        // m[lb - index]
+        void register(int index) {
+            code.load(ALOAD, M);
+            code.load(ILOAD, LB);
+            if (index != 0) {
+                code.iconst(cw, index);
+                code.op(ISUB);
+            }
+            code.op(AALOAD);
+        }
+
+        // Регистр либо константа регистровой инструкции
+        void operand(int operand) {
+            if (operand >= 0) {
+                register(operand);
+            } else {
+                constantPool();
+                code.iconst(cw, -1 - operand);
+                code.invoke(INVOKEVIRTUAL, cw.methodRef(CONSTANT_POOL, "getAddress", "(I)" + ADDRESS_D));
+            }
+        }
+
+        void constantPool() {
+            code.load(ALOAD, CONTEXT_LOCAL);
+            code.invoke(INVOKEVIRTUAL, cw.methodRef(CONTEXT, "getConstantPool", "()L" + CONSTANT_POOL + ";"));
+        }
+
+        void address(String name, String descriptor) {
+            code.invoke(INVOKEVIRTUAL, cw.methodRef(ADDRESS, name, descriptor));
+        }
+
+        // Выход из метода с точкой выполнения nextPc
+        void exitAt(int nextPc) {
+            code.iconst(cw, nextPc);
+            code.jump(GOTO, exit);
+        }
+
+        // На стеке JVM результат операции Address: при false выходим, поток уже знает об ошибке
+        void checkSuccess(int nextPc) {
+            Label ok = newLabel();
+            code.jump(IFNE, ok);
+            exitAt(nextPc);
+            code.bind(ok);
+        }
+
+        // Выходим, если поток получил сообщение (например, об ошибке)
+        void checkMsg(int nextPc) {
+            code.load(ALOAD, CONTEXT_LOCAL);
+            code.invoke(INVOKEVIRTUAL, cw.methodRef(CONTEXT, "getMsg", "()I"));
+            Label ok = newLabel();
+            code.jump(IFEQ, ok);
+            exitAt(nextPc);
+            code.bind(ok);
+        }
+
+        void copy(int dst, int src) {
+            slot(dst);
+            slot(src);
+            address("set", "(" + ADDRESS_D + ")V");
+        }
+
+        void binary(String name, int nextPc) {
+            slot(-2);
+            slot(-1);
+            slot(-2);
+            address(name, "(" + ADDRESS_D + ADDRESS_D + ")Z");
+            code.iinc(SP, -1);
+            checkSuccess(nextPc);
+        }
+
+        void unary(String name, int nextPc) {
+            slot(-1);
+            slot(-1);
+            address(name, "(" + ADDRESS_D + ")Z");
+            checkSuccess(nextPc);
+        }
+
+        void registerBinary(String name, int pc) {
+            operand(c[pc + 2]);
+            operand(c[pc + 3]);
+            register(c[pc + 1]);
+            address(name, "(" + ADDRESS_D + ADDRESS_D + ")Z");
+            checkSuccess(pc + 4);
+        }
+
+        // Сравнение двух значений со стека JVM и условный переход
+        void compareJump(int unexpected, int jumpOpcode, int target) {
+            code.iconst(cw, unexpected);
+            address("fastCompareWith", "(" + ADDRESS_D + "I)I");
+            code.jump(jumpOpcode, label(target));
+        }
+
+        void stackCompareJump(int unexpected, int jumpOpcode, int pc) {
+            code.iinc(SP, -2);
+            slot(0);
+            slot(1);
+            compareJump(unexpected, jumpOpcode, c[pc + 1]);
+        }
+
+        void registerCompareJump(int unexpected, int jumpOpcode, int pc) {
+            operand(c[pc + 2]);
+            operand(c[pc + 3]);
+            compareJump(unexpected, jumpOpcode, c[pc + 1]);
+        }
+
+        // Возврат значения с вершины стека
+        void doReturn(int nextPc) {
+            code.load(ALOAD, CONTEXT_LOCAL);
+            code.invoke(INVOKEVIRTUAL, cw.methodRef(CONTEXT, "doReturn", "()V"));
+            exitAt(nextPc);
+        }
+
+        void call(String name, int pc) {
+            code.load(ALOAD, CONTEXT_LOCAL);
+            code.iconst(cw, c[pc + 1]);
+            code.iconst(cw, c[pc + 2]);
+            code.invoke(INVOKEVIRTUAL, cw.methodRef(CONTEXT, name, "(II)V"));
+            exitAt(pc + 3);
+        }
+
+        // context.getStack().tos(sp)
+        void stackTos() {
+            code.load(ALOAD, CONTEXT_LOCAL);
+            code.invoke(INVOKEVIRTUAL, cw.methodRef(CONTEXT, "getStack", "()L" + STACK + ";"));
+            code.load(ILOAD, SP);
+            code.invoke(INVOKEVIRTUAL, cw.methodRef(STACK, "tos", "(I)V"));
+        }
+
+        void contains(String resultCheck, int pc) {
+            code.iinc(SP, -2);
+            slot(0);
+            slot(1);
+            address("contains", "(" + ADDRESS_D + ")I");
+            code.invoke(INVOKESTATIC, cw.methodRef(OPERATIONS, resultCheck, "(I)Z"));
+            code.load(ISTORE, PC); // PC как временная переменная: до выхода он не нужен
+            checkMsg(pc + 2);
+            code.load(ILOAD, PC);
+            code.jump(IFNE, label(c[pc + 1]));
+        }
+
+        void compileInstruction(int pc) {
+            int next = pc + instructionLength(c, pc);
+            switch (c[pc]) {
+                case OPCodes.Nop:
+                    break;
+
+                case OPCodes.ConstNull:
+                    slot(0);
+                    address("setNull", "()V");
+                    code.iinc(SP, 1);
+                    break;
+
+                case OPCodes.ConstTrue:
+                case OPCodes.ConstFalse:
+                    slot(0);
+                    code.iconst(cw, c[pc] == OPCodes.ConstTrue ? 1 : 0);
+                    address("set", "(Z)V");
+                    code.iinc(SP, 1);
+                    break;
+
+                case OPCodes.ConstIntM1:
+                case OPCodes.ConstInt0:
+                case OPCodes.ConstInt1:
+                case OPCodes.ConstInt2:
+                    slot(0);
+                    code.iconst(cw, c[pc] - OPCodes.ConstInt0);
+                    code.op(I2L);
+                    address("set", "(J)V");
+                    code.iinc(SP, 1);
+                    break;
+
+                case OPCodes.Push:
+                    constantPool();
+                    code.iconst(cw, c[pc + 1]);
+                    slot(0);
+                    code.invoke(INVOKEVIRTUAL, cw.methodRef(CONSTANT_POOL, "readToAddress", "(I" + ADDRESS_D + ")V"));
+                    code.iinc(SP, 1);
+                    break;
+
+                case OPCodes.Dup:
+                    copy(0, -1);
+                    code.iinc(SP, 1);
+                    break;
+
+                case OPCodes.DupX1:
+                    copy(0, -1);
+                    copy(-1, -2);
+                    copy(-2, 0);
+                    code.iinc(SP, 1);
+                    break;
+
+                case OPCodes.DupX2:
+                    copy(0, -1);
+                    copy(-1, -2);
+                    copy(-2, -3);
+                    copy(-3, 0);
+                    code.iinc(SP, 1);
+                    break;
+
+                case OPCodes.Dup2:
+                    copy(0, -2);
+                    copy(1, -1);
+                    code.iinc(SP, 2);
+                    break;
+
+                case OPCodes.Dup2X1:
+                    copy(1, -1);
+                    copy(0, -2);
+                    copy(-1, -3);
+                    copy(-2, 1);
+                    copy(-3, 0);
+                    code.iinc(SP, 2);
+                    break;
+
+                case OPCodes.Dup2X2:
+                    copy(1, -1);
+                    copy(0, -2);
+                    copy(-1, -3);
+                    copy(-2, -4);
+                    copy(-3, 1);
+                    copy(-4, 0);
+                    code.iinc(SP, 2);
+                    break;
+
+                case OPCodes.Pop:
+                    code.iinc(SP, -1);
+                    break;
+
+                case OPCodes.Pop2:
+                    code.iinc(SP, -2);
+                    break;
+
+                case OPCodes.Add: binary("add", next); break;
+                case OPCodes.Sub: binary("sub", next); break;
+                case OPCodes.Mul: binary("mul", next); break;
+                case OPCodes.Div: binary("div", next); break;
+                case OPCodes.Rem: binary("rem", next); break;
+                case OPCodes.And: binary("and", next); break;
+                case OPCodes.Or: binary("or", next); break;
+                case OPCodes.Xor: binary("xor", next); break;
+                case OPCodes.Shl: binary("shl", next); break;
+                case OPCodes.Shr: binary("shr", next); break;
+                case OPCodes.ArrayLoad: binary("load", next); break;
+                case OPCodes.ArrayInc: binary("arrayInc", next); break;
+                case OPCodes.ArrayDec: binary("arrayDec", next); break;
+
+                case OPCodes.Length: unary("length", next); break;
+                case OPCodes.Pos: unary("pos", next); break;
+                case OPCodes.Neg: unary("neg", next); break;
+                case OPCodes.Not: unary("not", next); break;
+
+                case OPCodes.Load:
+                case OPCodes.Load0:
+                case OPCodes.Load1:
+                case OPCodes.Load2:
+                    slot(0);
+                    register(c[pc] == OPCodes.Load ? c[pc + 1] : c[pc] - OPCodes.Load0);
+                    address("set", "(" + ADDRESS_D + ")V");
+                    code.iinc(SP, 1);
+                    break;
+
+                case OPCodes.Store:
+                case OPCodes.Store0:
+                case OPCodes.Store1:
+                case OPCodes.Store2:
+                    code.iinc(SP, -1);
+                    register(c[pc] == OPCodes.Store ? c[pc + 1] : c[pc] - OPCodes.Store0);
+                    slot(0);
+                    address("set", "(" + ADDRESS_D + ")V");
+                    break;
+
+                case OPCodes.Inc:
+                case OPCodes.Dec:
+                    register(c[pc + 1]);
+                    address(c[pc] == OPCodes.Inc ? "inc" : "dec", "()Z");
+                    checkSuccess(next);
+                    break;
+
+                case OPCodes.ArrayStore:
+                    slot(-3);
+                    slot(-2);
+                    slot(-1);
+                    address("store", "(" + ADDRESS_D + ADDRESS_D + ")Z");
+                    code.iinc(SP, -3);
+                    checkSuccess(next);
+                    break;
+
+                case OPCodes.NewList:
+                    stackTos();
+                    code.load(ALOAD, CONTEXT_LOCAL);
+                    code.invoke(INVOKEVIRTUAL, cw.methodRef(CONTEXT, "doNewList", "()V"));
+                    checkMsg(next);
+                    break;
+
+                case OPCodes.NewMap:
+                    stackTos();
+                    code.load(ALOAD, CONTEXT_LOCAL);
+                    code.invoke(INVOKEVIRTUAL, cw.methodRef(CONTEXT, "doNewMap", "()V"));
+                    code.iinc(SP, 1);
+                    break;
+
+                case OPCodes.Goto:
+                    code.jump(GOTO, label(c[pc + 1]));
+                    break;
+
+                case OPCodes.IfEq: stackCompareJump(1, IFEQ, pc); break;
+                case OPCodes.IfNe: stackCompareJump(1, IFNE, pc); break;
+                case OPCodes.IfGt: stackCompareJump(-1, IFGT, pc); break;
+                case OPCodes.IfGe: stackCompareJump(-1, IFGE, pc); break;
+                case OPCodes.IfLt: stackCompareJump(1, IFLT, pc); break;
+                case OPCodes.IfLe: stackCompareJump(1, IFLE, pc); break;
+
+                case OPCodes.IfZ:
+                case OPCodes.IfNz:
+                    code.iinc(SP, -1);
+                    slot(0);
+                    address("booleanVal", "()Z");
+                    code.jump(c[pc] == OPCodes.IfZ ? IFEQ : IFNE, label(c[pc + 1]));
+                    break;
+
+                case OPCodes.IfNull:
+                case OPCodes.IfNonNull:
+                    code.iinc(SP, -1);
+                    slot(0);
+                    address("isNull", "()Z");
+                    code.jump(c[pc] == OPCodes.IfNull ? IFNE : IFEQ, label(c[pc + 1]));
+                    break;
+
+                case OPCodes.IfPresent: contains("isResultTrue", pc); break;
+                case OPCodes.IfAbsent: contains("isResultFalse", pc); break;
+
+                case OPCodes.LinearSwitch:
+                case OPCodes.BinarySwitch:
+                    code.iinc(SP, -1);
+                    code.load(ALOAD, CONTEXT_LOCAL);
+                    code.load(ALOAD, THIS);
+                    code.op(GETFIELD, cw.fieldRef(COMPILED_CODE, "code", "[I"));
+                    code.iconst(cw, pc);
+                    slot(0);
+                    code.invoke(INVOKEVIRTUAL, cw.methodRef(CONTEXT,
+                            c[pc] == OPCodes.LinearSwitch ? "denseLinearSwitch" : "denseBinarySwitch",
+                            "([II" + ADDRESS_D + ")I"));
+                    code.load(ISTORE, PC);
+                    code.jump(GOTO, dispatch);
+                    break;
+
+                case OPCodes.Call: call("doCall", pc); break;
+                case OPCodes.TailCall: call("doTailCall", pc); break;
+
+                case OPCodes.Leave:
+                    slot(0);
+                    address("setNull", "()V");
+                    code.iinc(SP, 1);
+                    doReturn(next);
+                    break;
+
+                case OPCodes.Return:
+                    doReturn(next);
+                    break;
+
+                case OPCodes.RAdd: registerBinary("add", pc); break;
+                case OPCodes.RSub: registerBinary("sub", pc); break;
+                case OPCodes.RMul: registerBinary("mul", pc); break;
+                case OPCodes.RDiv: registerBinary("div", pc); break;
+                case OPCodes.RRem: registerBinary("rem", pc); break;
+                case OPCodes.RAnd: registerBinary("and", pc); break;
+                case OPCodes.ROr: registerBinary("or", pc); break;
+                case OPCodes.RXor: registerBinary("xor", pc); break;
+                case OPCodes.RShl: registerBinary("shl", pc); break;
+                case OPCodes.RShr: registerBinary("shr", pc); break;
+
+                case OPCodes.RMove:
+                    register(c[pc + 1]);
+                    operand(c[pc + 2]);
+                    address("set", "(" + ADDRESS_D + ")V");
+                    break;
+
+                case OPCodes.RIfEq: registerCompareJump(1, IFEQ, pc); break;
+                case OPCodes.RIfNe: registerCompareJump(1, IFNE, pc); break;
+                case OPCodes.RIfGt: registerCompareJump(-1, IFGT, pc); break;
+                case OPCodes.RIfGe: registerCompareJump(-1, IFGE, pc); break;
+                case OPCodes.RIfLt: registerCompareJump(1, IFLT, pc); break;
+                case OPCodes.RIfLe: registerCompareJump(1, IFLE, pc); break;
+
+                default:
+                    throw new UnsupportedOperationException(OPCodes.NAMES[c[pc]]);
+            }
+        }
+    }
+}
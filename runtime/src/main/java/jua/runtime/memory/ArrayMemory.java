@@ -0,0 +1,193 @@
+package jua.runtime.memory;
+
+import jua.runtime.heap.ListHeap;
+import jua.runtime.heap.MapHeap;
+import jua.runtime.heap.SetHeap;
+import jua.runtime.heap.StringHeap;
+import jua.runtime.interpreter.Address;
+
+import java.util.Arrays;
+
+import static jua.runtime.Types.*;
+
+/**
+ * Арена памяти на параллельных массивах: типы, 64-битные значения и ссылки.
+ * Целые и логические значения хранятся в {@code bits} как есть,
+ * вещественные как биты {@link Double#doubleToRawLongBits(double)}.
+ * В отличие от {@link BufferMemory}, ссылки лежат прямо в ячейках, поэтому куча не нужна,
+ * а расширение копирует три массива и не создает объектов на каждую ячейку.
+ */
+public final class ArrayMemory implements Memory {
+
+    private byte[] types;
+    private long[] bits;
+    private Object[] refs;
+
+    public ArrayMemory(int capacity) {
+        types = new byte[capacity];
+        bits = new long[capacity];
+        refs = new Object[capacity];
+    }
+
+    public int capacity() {
+        return types.length;
+    }
+
+    /*
+     * Прямой доступ к массивам для интерпретатора. Ссылки на них меняются
+     * только в ensureCapacity.
+     */
+
+    public byte[] types() {
+        return types;
+    }
+
+    public long[] bits() {
+        return bits;
+    }
+
+    public Object[] refs() {
+        return refs;
+    }
+
+    /** Гарантирует, что в памяти есть хотя бы {@code capacity} ячеек. */
+    public void ensureCapacity(int capacity) {
+        if (types.length < capacity) {
+            int newCapacity = Math.max(capacity, types.length * 2);
+            types = Arrays.copyOf(types, newCapacity);
+            bits = Arrays.copyOf(bits, newCapacity);
+            refs = Arrays.copyOf(refs, newCapacity);
+        }
+    }
+
+    @Override
+    public void allocRef(int address) {
+        // Ссылки хранятся прямо в ячейках
+    }
+
+    @Override
+    public void freeRef(int address) {
+        refs[address] = null;
+    }
+
+    @Override
+    public byte getTypeAt(int address) {
+        return types[address];
+    }
+
+    @Override
+    public void setTypeAt(int address, byte type) {
+        types[address] = type;
+    }
+
+    @Override
+    public long getLongAt(int address) {
+        return bits[address];
+    }
+
+    @Override
+    public void setLongAt(int address, long value) {
+        bits[address] = value;
+    }
+
+    @Override
+    public double getDoubleAt(int address) {
+        return Double.longBitsToDouble(bits[address]);
+    }
+
+    @Override
+    public void setDoubleAt(int address, double value) {
+        bits[address] = Double.doubleToRawLongBits(value);
+    }
+
+    @Override
+    public Object getRefAt(int address) {
+        return refs[address];
+    }
+
+    @Override
+    public void setRefAt(int address, Object value) {
+        refs[address] = value;
+    }
+
+    @Override
+    public void setNullAt(int address) {
+        types[address] = T_NULL;
+        refs[address] = null;
+    }
+
+    @Override
+    public void minimize() {
+        // Сжимать нечего: ячейки не ссылаются на общую кучу
+    }
+
+    /** Копирует значение из ячейки {@code src} в ячейку {@code dst}. Ссылки, как и в {@link Address#set(Address)}, разделяются. */
+    public void copy(int dst, int src) {
+        types[dst] = types[src];
+        bits[dst] = bits[src];
+        refs[dst] = refs[src];
+    }
+
+    /** Записывает в ячейку значение адреса. */
+    public void store(int address, Address source) {
+        byte type = source.getType();
+        types[address] = type;
+        switch (type) {
+            case T_INT:
+            case T_FLOAT:
+            case T_BOOLEAN:
+                bits[address] = source.getBits();
+                refs[address] = null;
+                break;
+            case T_STRING:
+            case T_MAP:
+            case T_LIST:
+            case T_SET:
+                refs[address] = source.getHeap().refCopy();
+                break;
+            default:
+                refs[address] = null;
+                break;
+        }
+    }
+
+    /** Записывает значение ячейки в адрес. */
+    public void load(int address, Address receiver) {
+        switch (types[address]) {
+            case T_UNDEFINED:
+                receiver.reset();
+                break;
+            case T_NULL:
+                receiver.setNull();
+                break;
+            case T_INT:
+                receiver.set(bits[address]);
+                break;
+            case T_FLOAT:
+                receiver.set(Double.longBitsToDouble(bits[address]));
+                break;
+            case T_BOOLEAN:
+                receiver.set(bits[address] != 0L);
+                break;
+            case T_STRING:
+                receiver.set((StringHeap) refs[address]);
+                break;
+            case T_MAP:
+                receiver.set((MapHeap) refs[address]);
+                break;
+            case T_LIST:
+                receiver.set((ListHeap) refs[address]);
+                break;
+            case T_SET:
+                receiver.set((SetHeap) refs[address]);
+                break;
+            default:
+                throw new AssertionError(types[address]);
+        }
+    }
+
+    /** Очищает ссылки ячеек {@code [from, to)}, чтобы не удерживать объекты. Типы и значения не меняются. */
+    public void clearRefs(int from, int to) {
+        Arrays.fill(refs, from, to, null);
+    }
+}
@@ -28,7 +28,7 @@ public class MemoryTest {
             public void run() {
                 m.acquire(5);
                 loop2(m, _i, _j, () -> {}, () -> {});
-                m.release(5);
+                m.release(0);
             }
         };
 
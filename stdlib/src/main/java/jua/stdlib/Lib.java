@@ -1,7 +1,11 @@
 package jua.stdlib;
 
+import jua.runtime.Context;
 import jua.runtime.Function;
+import jua.runtime.Types;
 import jua.runtime.heap.ListHeap;
+import jua.runtime.heap.MapHeap;
+import jua.runtime.heap.SetHeap;
 import jua.runtime.heap.StringHeap;
 import jua.runtime.interpreter.Address;
 import jua.runtime.interpreter.Histogram;
@@ -18,9 +22,11 @@ public class Lib {
             .name("print")
             .optional()
             .optional("value", "")
-            .callable((context, args, returnAddress) -> {
-                Address stringAddress = new Address();
-                args[0].stringVal(stringAddress);
+            .callable((context, returnAddress) -> {
+                Address stringAddress = context.tmp();
+                if (!context.arg(0).stringVal(stringAddress)) {
+                    return;
+                }
                 System.out.print(stringAddress.getStringHeap().toString());
             })
             .build();
@@ -29,9 +35,11 @@ public class Lib {
             .name("println")
             .optional()
             .optional("value", "")
-            .callable((context, args, returnAddress) -> {
-                Address stringAddress = new Address();
-                args[0].stringVal(stringAddress);
+            .callable((context, returnAddress) -> {
+                Address stringAddress = context.tmp();
+                if (!context.arg(0).stringVal(stringAddress)) {
+                    return;
+                }
                 System.out.println(stringAddress.getStringHeap().toString());
             })
             .build();
@@ -41,9 +49,11 @@ public class Lib {
             .flags(Function.FLAG_HIDDEN | Function.FLAG_KILLER)
             .optional()
             .optional("msg", null)
-            .callable((context, args, returnAddress) -> {
-                Address stringAddress = new Address();
-                args[0].stringVal(stringAddress);
+            .callable((context, returnAddress) -> {
+                Address stringAddress = context.tmp();
+                if (!context.arg(0).stringVal(stringAddress)) {
+                    return;
+                }
                 context.error("panic: %s", stringAddress.getStringHeap());
             })
             .build();
@@ -51,8 +61,8 @@ public class Lib {
     private static final Function hashCode = builder()
             .name("hashCode")
             .param("value")
-            .callable((context, args, returnAddress) -> {
-                returnAddress.set(args[0].hashCode());
+            .callable((context, returnAddress) -> {
+                returnAddress.set(context.arg(0).hashCode());
             })
             .build();
 
@@ -60,9 +70,9 @@ public class Lib {
             .name("strCharAt")
             .param("str")
             .param("index")
-            .callable((context, args, returnAddress) -> {
-                StringHeap str = args[0].getStringHeap();
-                long index = args[1].getLong();
+            .callable((context, returnAddress) -> {
+                StringHeap str = context.arg(0).getStringHeap();
+                long index = context.arg(1).getLong();
                 if (index < 0 || index + 1 >= str.length()) {
                     returnAddress.set(-1);
                     return;
@@ -75,9 +85,9 @@ public class Lib {
             .name("strCodePointAt")
             .param("str")
             .param("index")
-            .callable((context, args, returnAddress) -> {
-                StringHeap str = args[0].getStringHeap();
-                long index = args[1].getLong();
+            .callable((context, returnAddress) -> {
+                StringHeap str = context.arg(0).getStringHeap();
+                long index = context.arg(1).getLong();
                 if (index < 0 || index >= str.length()) {
                     returnAddress.set(-1);
                     return;
@@ -89,11 +99,14 @@ public class Lib {
     private static final Function strToCharArray = builder()
             .name("strToCharArray")
             .param("str")
-            .callable((context, args, returnAddress) -> {
-                StringHeap str = args[0].getStringHeap();
-                ListHeap charArray = new ListHeap(str.length());
+            .callable((context, returnAddress) -> {
+                StringHeap str = context.arg(0).getStringHeap();
+                ListHeap charArray = new ListHeap(0);
+                charArray.ensureCapacity(str.length());
+                Address element = context.tmp();
                 for (int codePoint : str.codePoints().toArray()) {
-                    charArray.add().set(new StringHeap(new StringBuilder().appendCodePoint(codePoint)));
+                    element.set(new StringHeap(new StringBuilder().appendCodePoint(codePoint)));
+                    charArray.push(element);
                 }
                 returnAddress.set(charArray);
             })
@@ -102,11 +115,14 @@ public class Lib {
     private static final Function strToCodePointArray = builder()
             .name("strToCodePointArray")
             .param("str")
-            .callable((context, args, returnAddress) -> {
-                StringHeap str = args[0].getStringHeap();
-                ListHeap codePointArray = new ListHeap(str.length());
+            .callable((context, returnAddress) -> {
+                StringHeap str = context.arg(0).getStringHeap();
+                ListHeap codePointArray = new ListHeap(0);
+                codePointArray.ensureCapacity(str.length());
+                Address element = context.tmp();
                 for (int codePoint : str.codePoints().toArray()) {
-                    codePointArray.add().set(codePoint);
+                    element.set(codePoint);
+                    codePointArray.push(element);
                 }
                 returnAddress.set(codePointArray);
             })
@@ -115,11 +131,13 @@ public class Lib {
     private static final Function charArrayToStr = builder()
             .name("charArrayToStr")
             .param("charArray")
-            .callable((context, args, returnAddress) -> {
-                ListHeap charArray = args[0].getListHeap();
+            .callable((context, returnAddress) -> {
+                ListHeap charArray = context.arg(0).getListHeap();
                 StringHeap str = new StringHeap("", 0, charArray.length());
+                Address element = context.tmp();
                 for (int i = 0; i < charArray.length(); i++) {
-                    str.append(charArray.get(i).getStringHeap());
+                    charArray.load(i, element);
+                    str.append(element.getStringHeap());
                 }
                 returnAddress.set(str);
             })
@@ -128,11 +146,11 @@ public class Lib {
     private static final Function codePointArrayToStr = builder()
             .name("codePointArrayToStr")
             .param("codePointArray")
-            .callable((context, args, returnAddress) -> {
-                ListHeap codePointArray = args[0].getListHeap();
+            .callable((context, returnAddress) -> {
+                ListHeap codePointArray = context.arg(0).getListHeap();
                 StringHeap str = new StringHeap("", 0, codePointArray.length());
                 for (int i = 0; i < codePointArray.length(); i++) {
-                    int codePoint = (int) codePointArray.get(i).getLong();
+                    int codePoint = (int) codePointArray.bitsAt(i);
                     str.append(new StringHeap(new StringBuilder().appendCodePoint(codePoint)));
                 }
                 returnAddress.set(str);
@@ -141,14 +159,14 @@ public class Lib {
 
     private static final Function time = builder()
             .name("time")
-            .callable((context, args, returnAddress) -> {
+            .callable((context, returnAddress) -> {
                 returnAddress.set(System.currentTimeMillis() / 1000.0);
             })
             .build();
 
     private static final Function dummy = builder()
             .name("dummy")
-            .callable((context, args, returnAddress) -> {
+            .callable((context, returnAddress) -> {
                 returnAddress.setNull();
             })
             .build();
@@ -156,9 +174,11 @@ public class Lib {
     private static final Function sleep = builder()
             .name("sleep")
             .param("timeout")
-            .callable((context, args, returnAddress) -> {
-                Address timeoutAddr = new Address();
-                args[0].doubleVal(timeoutAddr);
+            .callable((context, returnAddress) -> {
+                Address timeoutAddr = context.tmp();
+                if (!context.arg(0).doubleVal(timeoutAddr)) {
+                    return;
+                }
                 long millis = (long) (timeoutAddr.getDouble() * 1000L);
                 // todo: nanos?
                 try {
@@ -175,25 +195,26 @@ public class Lib {
             .param("callee")
             .optional()
             .optional("args", new Object[0])
-            .callable((context, args, returnAddress) -> {
-                String name = args[0].getStringHeap().toString();
-                context.directCall(name, args[1].getListHeap().getArray(), returnAddress);
+            .flags(Function.FLAG_CALLS_BY_NAME)
+            .callable((context, returnAddress) -> {
+                String name = context.arg(0).getStringHeap().toString();
+                context.directCall(name, context.arg(1).getListHeap().getArray(), returnAddress);
             })
             .build();
 
     private static final Function ord = builder()
             .name("ord")
             .param("char")
-            .callable((context, args, returnAddress) -> {
-                returnAddress.set(args[0].getStringHeap().codePointAt(0));
+            .callable((context, returnAddress) -> {
+                returnAddress.set(context.arg(0).getStringHeap().codePointAt(0));
             })
             .build();
 
     private static final Function chr = builder()
             .name("chr")
             .param("codePoint")
-            .callable((context, args, returnAddress) -> {
-                int codePoint = (int) args[0].getLong();
+            .callable((context, returnAddress) -> {
+                int codePoint = (int) context.arg(0).getLong();
                 returnAddress.set(new StringHeap(new StringBuilder().appendCodePoint(codePoint)));
             })
             .build();
@@ -201,8 +222,8 @@ public class Lib {
     private static final Function typeof = builder()
             .name("typeof")
             .param("value")
-            .callable((context, args, returnAddress) -> {
-                returnAddress.set(new StringHeap(args[0].getTypeName()));
+            .callable((context, returnAddress) -> {
+                returnAddress.set(new StringHeap(context.arg(0).getTypeName()));
             })
             .build();
 
@@ -212,18 +233,18 @@ public class Lib {
             .param("offset")
             .optional()
             .optional("count", null)
-            .callable((context, args, returnAddress) -> {
-                StringHeap str = args[0].getStringHeap();
-                int offset = (int) args[1].getLong();
+            .callable((context, returnAddress) -> {
+                StringHeap str = context.arg(0).getStringHeap();
+                int offset = (int) context.arg(1).getLong();
                 int count;
-                if (args[2].isNull()) {
+                if (context.arg(2).isNull()) {
                     if (offset >= 0) {
                         count = str.length() - offset;
                     } else {
                         count = -offset;
                     }
                 } else {
-                    count = (int) args[2].getLong();
+                    count = (int) context.arg(2).getLong();
                 }
 
                 if (offset >= 0) {
@@ -238,8 +259,8 @@ public class Lib {
     private static final Function strLowerCase = builder()
             .name("strLowerCase")
             .param("str")
-            .callable((context, args, returnAddress) -> {
-                StringHeap str = args[0].getStringHeap();
+            .callable((context, returnAddress) -> {
+                StringHeap str = context.arg(0).getStringHeap();
                 returnAddress.set(new StringHeap(str.toString().toLowerCase()));
             })
             .build();
@@ -247,8 +268,8 @@ public class Lib {
     private static final Function strUpperCase = builder()
             .name("strUpperCase")
             .param("str")
-            .callable((context, args, returnAddress) -> {
-                StringHeap str = args[0].getStringHeap();
+            .callable((context, returnAddress) -> {
+                StringHeap str = context.arg(0).getStringHeap();
                 returnAddress.set(new StringHeap(str.toString().toUpperCase()));
             })
             .build();
@@ -256,8 +277,8 @@ public class Lib {
     private static final Function strTrim = builder()
             .name("strTrim")
             .param("str")
-            .callable((context, args, returnAddress) -> {
-                StringHeap str = args[0].getStringHeap();
+            .callable((context, returnAddress) -> {
+                StringHeap str = context.arg(0).getStringHeap();
                 returnAddress.set(new StringHeap(str.toString().trim()));
             })
             .build();
@@ -265,16 +286,16 @@ public class Lib {
     private static final Function sizeof = builder()
             .name("sizeof")
             .param("value")
-            .callable((context, args, returnAddress) -> {
-                returnAddress.set(ObjectSizeAnalyzing.analyzeSize(args[0]));
+            .callable((context, returnAddress) -> {
+                returnAddress.set(ObjectSizeAnalyzing.analyzeSize(context.arg(0)));
             })
             .build();
 
     private static final Function histogramAction = builder()
             .name("histogramAction")
             .param("actionId")
-            .callable((context, args, returnAddress) -> {
-                switch ((int)args[0].getLong()) {
+            .callable((context, returnAddress) -> {
+                switch ((int)context.arg(0).getLong()) {
                     case 0:
                         Histogram.enable();
                         break;
@@ -289,11 +310,245 @@ public class Lib {
             })
             .build();
 
+    private static final Function listPush = builder()
+            .name("listPush")
+            .param("list")
+            .param("value")
+            .callable((context, returnAddress) -> {
+                listArg(context, 0).push(context.arg(1));
+                returnAddress.setNull();
+            })
+            .build();
+
+    private static final Function listPop = builder()
+            .name("listPop")
+            .param("list")
+            .callable((context, returnAddress) -> {
+                ListHeap list = listArg(context, 0);
+                if (list.isEmpty()) {
+                    context.error("pop from an empty list");
+                }
+                list.pop(returnAddress);
+            })
+            .build();
+
+    private static final Function listInsert = builder()
+            .name("listInsert")
+            .param("list")
+            .param("index")
+            .param("value")
+            .callable((context, returnAddress) -> {
+                ListHeap list = listArg(context, 0);
+                // Вставлять можно и сразу за последним элементом
+                list.insert(indexArg(context, 1, list.length() + 1), context.arg(2));
+                returnAddress.setNull();
+            })
+            .build();
+
+    private static final Function listRemoveAt = builder()
+            .name("listRemoveAt")
+            .param("list")
+            .param("index")
+            .callable((context, returnAddress) -> {
+                ListHeap list = listArg(context, 0);
+                list.removeAt(indexArg(context, 1, list.length()), returnAddress);
+            })
+            .build();
+
+    private static final Function listEnsureCapacity = builder()
+            .name("listEnsureCapacity")
+            .param("list")
+            .param("capacity")
+            .callable((context, returnAddress) -> {
+                ListHeap list = listArg(context, 0);
+                list.ensureCapacity(indexArg(context, 1, Integer.MAX_VALUE));
+                returnAddress.setNull();
+            })
+            .build();
+
+    private static final Function mapKeys = builder()
+            .name("mapKeys")
+            .param("map")
+            .callable((context, returnAddress) -> {
+                returnAddress.set(mapArg(context, 0).keys());
+            })
+            .build();
+
+    private static final Function mapValues = builder()
+            .name("mapValues")
+            .param("map")
+            .callable((context, returnAddress) -> {
+                returnAddress.set(mapArg(context, 0).values());
+            })
+            .build();
+
+    private static final Function mapContains = builder()
+            .name("mapContains")
+            .param("map")
+            .param("key")
+            .callable((context, returnAddress) -> {
+                MapHeap map = mapArg(context, 0);
+                returnAddress.set(map.containsKey(mapKeyArg(context, 1)));
+            })
+            .build();
+
+    private static final Function mapRemove = builder()
+            .name("mapRemove")
+            .param("map")
+            .param("key")
+            .callable((context, returnAddress) -> {
+                MapHeap map = mapArg(context, 0);
+                if (!map.remove(mapKeyArg(context, 1), returnAddress)) {
+                    returnAddress.setNull();
+                }
+            })
+            .build();
+
+    private static final Function newSet = builder()
+            .name("newSet")
+            .optional()
+            .optional("values", null)
+            .callable((context, returnAddress) -> {
+                Address values = context.arg(0);
+                if (values.isNull()) {
+                    returnAddress.set(new SetHeap());
+                } else if (values.hasType(Types.T_SET)) {
+                    returnAddress.set(values.getSetHeap().deepCopy());
+                } else {
+                    ListHeap list = listArg(context, 0);
+                    SetHeap set = SetHeap.withExpectedSize(list.length());
+                    Address element = new Address();
+                    for (int i = 0; i < list.length(); i++) {
+                        list.load(i, element);
+                        set.add(checkElement(context, element));
+                    }
+                    returnAddress.set(set);
+                }
+            })
+            .build();
+
+    private static final Function setAdd = builder()
+            .name("setAdd")
+            .param("set")
+            .param("value")
+            .callable((context, returnAddress) -> {
+                SetHeap set = setArg(context, 0);
+                returnAddress.set(set.add(checkElement(context, context.arg(1))));
+            })
+            .build();
+
+    private static final Function setRemove = builder()
+            .name("setRemove")
+            .param("set")
+            .param("value")
+            .callable((context, returnAddress) -> {
+                SetHeap set = setArg(context, 0);
+                returnAddress.set(set.remove(checkElement(context, context.arg(1))));
+            })
+            .build();
+
+    private static final Function setContains = builder()
+            .name("setContains")
+            .param("set")
+            .param("value")
+            .callable((context, returnAddress) -> {
+                SetHeap set = setArg(context, 0);
+                returnAddress.set(set.contains(checkElement(context, context.arg(1))));
+            })
+            .build();
+
+    private static final Function setToList = builder()
+            .name("setToList")
+            .param("set")
+            .callable((context, returnAddress) -> {
+                returnAddress.set(setArg(context, 0).toList());
+            })
+            .build();
+
+    private static final Function setUnion = builder()
+            .name("setUnion")
+            .param("a")
+            .param("b")
+            .callable((context, returnAddress) -> {
+                returnAddress.set(setArg(context, 0).union(setArg(context, 1)));
+            })
+            .build();
+
+    private static final Function setIntersection = builder()
+            .name("setIntersection")
+            .param("a")
+            .param("b")
+            .callable((context, returnAddress) -> {
+                returnAddress.set(setArg(context, 0).intersection(setArg(context, 1)));
+            })
+            .build();
+
+    private static final Function setDifference = builder()
+            .name("setDifference")
+            .param("a")
+            .param("b")
+            .callable((context, returnAddress) -> {
+                returnAddress.set(setArg(context, 0).difference(setArg(context, 1)));
+            })
+            .build();
+
+    private static SetHeap setArg(Context context, int index) {
+        Address arg = context.arg(index);
+        if (!arg.hasType(Types.T_SET)) {
+            context.error("expected set, got %s", arg.getTypeName());
+        }
+        return arg.getSetHeap();
+    }
+
+    private static Address checkElement(Context context, Address value) {
+        if (!SetHeap.isValidElement(value)) {
+            context.error("%s cannot be a set element", value.getTypeName());
+        }
+        return value;
+    }
+
+    private static MapHeap mapArg(Context context, int index) {
+        Address arg = context.arg(index);
+        if (!arg.hasType(Types.T_MAP)) {
+            context.error("expected map, got %s", arg.getTypeName());
+        }
+        return arg.getMapHeap();
+    }
+
+    private static Address mapKeyArg(Context context, int index) {
+        Address arg = context.arg(index);
+        if (!MapHeap.isValidKey(arg)) {
+            context.error("%s cannot be a map key", arg.getTypeName());
+        }
+        return arg;
+    }
+
+    private static ListHeap listArg(Context context, int index) {
+        Address arg = context.arg(index);
+        if (!arg.hasType(Types.T_LIST)) {
+            context.error("expected list, got %s", arg.getTypeName());
+        }
+        return arg.getListHeap();
+    }
+
+    /** Возвращает целый аргумент из {@code [0, bound)}. */
+    private static int indexArg(Context context, int index, int bound) {
+        Address arg = context.arg(index);
+        if (!arg.hasType(Types.T_INT)) {
+            context.error("expected int, got %s", arg.getTypeName());
+        }
+        long value = arg.getLong();
+        if (value < 0 || value >= bound) {
+            context.error("index %d out of the list bounds %d", value, bound);
+        }
+        return (int) value;
+    }
+
     private static final Function clone = builder()
             .name("clone")
             .param("value")
-            .callable((context, args, returnAddress) -> {
-                args[0].clone(returnAddress);
+            .callable((context, returnAddress) -> {
+                context.arg(0).clone(returnAddress);
             })
             .build();
 
@@ -323,6 +578,23 @@ public class Lib {
                 strTrim,
                 sizeof,
                 histogramAction,
+                listPush,
+                listPop,
+                listInsert,
+                listRemoveAt,
+                listEnsureCapacity,
+                mapKeys,
+                mapValues,
+                mapContains,
+                mapRemove,
+                newSet,
+                setAdd,
+                setRemove,
+                setContains,
+                setToList,
+                setUnion,
+                setIntersection,
+                setDifference,
                 clone
         );
     }
@@ -79,11 +79,11 @@ public class SignatureBuilder {
                 })
                 .toArray(Address[]::new);
         JuaCallable c = callable;
-        NativeExecutor body = (args, argc, returnAddress) -> {
-            Context context = new Context();
+        NativeExecutor body = (context, returnAddress) -> {
             try {
-                c.call(context, args, returnAddress);
-                return true;
+                c.call(context, returnAddress);
+                // Преобразования адресов сообщают об ошибке потоку, не бросая исключения
+                return !InterpreterThread.currentThread().isCrashed();
             } catch (RuntimeErrorException e) {
                 InterpreterThread.threadError(e.getMessage());
                 return false;
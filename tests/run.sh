@@ -0,0 +1,79 @@
+#!/bin/bash
+# Запускает каждый скрипт tests/t*.jua на всех движках и сочетаниях опций
+# и сравнивает вывод с tests/expected/<имя>.out.
+#
+# Использование: tests/run.sh [t<имя>.jua...]
+#   GEN=1 tests/run.sh   перезаписывает ожидаемый вывод (движок objects без опций).
+# Перед запуском нужно собрать проект: mvn -B compile.
+
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+TESTS=$ROOT/tests
+CP=$ROOT/boot/target/classes:$ROOT/compiler/target/classes:$ROOT/runtime/target/classes:$ROOT/stdlib/target/classes
+
+# Движок, свойства JVM и опции jua через ';'.
+# -q и -si есть только у objects, у остальных движков перебираются -gr и -gj.
+# JIT проверяется в строгом режиме, чтобы его ошибки роняли тесты.
+CONFIGS=(
+    "objects;;"
+    "objects;;-q"
+    "objects;;-si"
+    "objects;;-gr"
+    "objects;;-gj"
+    "objects;;-q -si -gr"
+    "switch;;"
+    "switch;;-gr"
+    "switch;;-gj"
+    "closure;;"
+    "closure;;-gr"
+    "closure;;-gj"
+    "jit;-Djua.jit.strict=true;"
+    "jit;-Djua.jit.strict=true;-gr"
+    "jit;-Djua.jit.strict=true -Djua.jit.threshold=1;"
+    "jit;-Djua.jit.strict=true -Djua.jit.threshold=1;-gr"
+    "jit;-Djua.jit.strict=true -Djua.jit.threshold=1;-gj"
+)
+
+# Строки трассировки стека Java зависят от движка, сравнивается только вывод программы.
+run() {
+    local props=$1
+    shift
+    timeout 60 java $props -Xss4m -cp "$CP" jua.Main "$@" 2>&1 \
+        | grep -v '^\s*at \|^Exception in\|INTERPRETER CRASHED\|^Caused'
+}
+
+# Скрипты запускаются по относительному имени, чтобы трассировки Jua не зависели от каталога.
+cd "$TESTS" || exit 1
+if [ $# -gt 0 ]; then
+    scripts=("$@")
+else
+    scripts=(t*.jua)
+fi
+
+if [ "$GEN" = 1 ]; then
+    for script in "${scripts[@]}"; do
+        name=$(basename "$script" .jua)
+        run "" "$script" > "$TESTS/expected/$name.out"
+        echo "generated $name.out"
+    done
+    exit 0
+fi
+
+passed=0
+failed=0
+for script in "${scripts[@]}"; do
+    name=$(basename "$script" .jua)
+    for config in "${CONFIGS[@]}"; do
+        IFS=';' read -r engine props options <<< "$config"
+        if diff -u "$TESTS/expected/$name.out" <(run "$props" -e="$engine" $options "$script") > /tmp/jua-test-$$.diff; then
+            passed=$((passed + 1))
+        else
+            failed=$((failed + 1))
+            echo "FAIL $name: -e=$engine $props $options"
+            head -20 /tmp/jua-test-$$.diff
+        fi
+    done
+done
+rm -f /tmp/jua-test-$$.diff
+
+echo "$passed passed, $failed failed"
+[ $failed = 0 ]